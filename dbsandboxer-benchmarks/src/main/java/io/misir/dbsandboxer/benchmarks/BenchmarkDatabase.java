@@ -0,0 +1,185 @@
+package io.misir.dbsandboxer.benchmarks;
+
+import io.misir.dbsandboxer.core.api.SandboxDatabaseProvider;
+import io.misir.dbsandboxer.core.providers.postgres.PooledPostgresSandboxDatabaseProvider;
+import io.misir.dbsandboxer.core.providers.postgres.PostgresSandboxDatabaseProvider;
+import io.misir.dbsandboxer.core.providers.postgres.PostgresTableResetSandboxDatabaseProvider;
+import java.sql.*;
+import org.testcontainers.containers.PostgreSQLContainer;
+
+/**
+ * The PostgreSQL server the benchmarks run against, with a fixture database of configurable size.
+ *
+ * <p>A Testcontainers PostgreSQL ({@code postgres:16-alpine}, override with {@code
+ * -Ddbsandboxer.bench.image}) is started by default. Set {@code -Ddbsandboxer.bench.host}, and
+ * optionally {@code .port}, {@code .user} and {@code .password}, to use a running server instead,
+ * e.g. a local {@code pg_ctl} instance, which keeps Docker's storage layer out of the numbers.
+ *
+ * @author Fethullah Misir
+ */
+public final class BenchmarkDatabase implements AutoCloseable {
+
+    /** The database the benchmarks sandbox. */
+    public static final String PRIMARY = "bench";
+
+    /** The template built from {@link #PRIMARY}. */
+    public static final String TEMPLATE = "bench_template";
+
+    private static final String ADMIN_DATABASE = "postgres";
+    private static final int POOL_SIZE = 2;
+
+    /** How a benchmark resets the sandbox. */
+    public enum Strategy {
+        /** {@link PostgresSandboxDatabaseProvider}: drop and clone. */
+        CLONE,
+        /** {@link PooledPostgresSandboxDatabaseProvider}: swap in a pre-cloned copy. */
+        POOLED,
+        /** {@link PostgresTableResetSandboxDatabaseProvider}: restore modified tables. */
+        TABLES
+    }
+
+    private final PostgreSQLContainer<?> container;
+    private final String host;
+    private final int port;
+    private final String user;
+    private final String password;
+
+    private BenchmarkDatabase(
+            PostgreSQLContainer<?> container, String host, int port, String user, String password) {
+        this.container = container;
+        this.host = host;
+        this.port = port;
+        this.user = user;
+        this.password = password;
+    }
+
+    /** Connects to the configured server, starting a container if none is configured. */
+    public static BenchmarkDatabase start() {
+        String host = System.getProperty("dbsandboxer.bench.host");
+        String user = System.getProperty("dbsandboxer.bench.user", "postgres");
+        String password = System.getProperty("dbsandboxer.bench.password", "postgres");
+        if (host != null) {
+            int port = Integer.getInteger("dbsandboxer.bench.port", 5432);
+            return new BenchmarkDatabase(null, host, port, user, password);
+        }
+        PostgreSQLContainer<?> container =
+                new PostgreSQLContainer<>(
+                                System.getProperty("dbsandboxer.bench.image", "postgres:16-alpine"))
+                        .withDatabaseName(ADMIN_DATABASE)
+                        .withUsername(user)
+                        .withPassword(password);
+        container.start();
+        return new BenchmarkDatabase(
+                container,
+                container.getHost(),
+                container.getMappedPort(PostgreSQLContainer.POSTGRESQL_PORT),
+                user,
+                password);
+    }
+
+    /**
+     * Recreates {@link #PRIMARY} with {@code tableCount} tables of {@code rowsPerTable} rows each
+     * and drops the template and sandboxes of earlier runs.
+     */
+    public void createFixtures(int tableCount, int rowsPerTable) throws SQLException {
+        dropBenchmarkDatabases();
+        try (Connection c = connect(ADMIN_DATABASE);
+                Statement s = c.createStatement()) {
+            s.execute("CREATE DATABASE " + PRIMARY);
+        }
+        try (Connection c = connect(PRIMARY);
+                Statement s = c.createStatement()) {
+            for (int i = 0; i < tableCount; i++) {
+                s.execute(
+                        "CREATE TABLE t_"
+                                + i
+                                + " (id BIGSERIAL PRIMARY KEY, payload TEXT NOT NULL,"
+                                + " created_at TIMESTAMPTZ NOT NULL DEFAULT now())");
+                s.execute(
+                        "INSERT INTO t_"
+                                + i
+                                + " (payload) SELECT md5(g::text) FROM generate_series(1, "
+                                + rowsPerTable
+                                + ") g");
+                s.execute("CREATE INDEX ON t_" + i + " (payload)");
+            }
+        }
+    }
+
+    /** Simulates a test writing to the sandbox: inserts one row into the first table. */
+    public void writeRow() throws SQLException {
+        try (Connection c = connect(PRIMARY);
+                Statement s = c.createStatement()) {
+            s.execute("INSERT INTO t_0 (payload) VALUES ('written by benchmark')");
+        }
+    }
+
+    /** Creates a provider for {@link #PRIMARY} with the given reset strategy. */
+    public SandboxDatabaseProvider provider(Strategy strategy, String templateName) {
+        return switch (strategy) {
+            case CLONE -> new PostgresSandboxDatabaseProvider(
+                    host, port, ADMIN_DATABASE, user, password, PRIMARY, templateName);
+            case POOLED -> new PooledPostgresSandboxDatabaseProvider(
+                    host, port, ADMIN_DATABASE, user, password, PRIMARY, templateName, POOL_SIZE);
+            case TABLES -> new PostgresTableResetSandboxDatabaseProvider(
+                    host, port, ADMIN_DATABASE, user, password, PRIMARY, templateName);
+        };
+    }
+
+    /** JDBC URL of {@code database} on this server. */
+    public String url(String database) {
+        return "jdbc:postgresql://" + host + ':' + port + '/' + database;
+    }
+
+    public String user() {
+        return user;
+    }
+
+    public String password() {
+        return password;
+    }
+
+    /** Drops {@code database}, even if it is a template or still has connections. */
+    public void dropDatabase(String database) throws SQLException {
+        try (Connection c = connect(ADMIN_DATABASE);
+                PreparedStatement ps =
+                        c.prepareStatement("SELECT 1 FROM pg_database WHERE datname = ?")) {
+            ps.setString(1, database);
+            try (ResultSet rs = ps.executeQuery()) {
+                if (!rs.next()) {
+                    return;
+                }
+            }
+            try (Statement s = c.createStatement()) {
+                s.execute("ALTER DATABASE " + database + " IS_TEMPLATE false");
+                s.execute("DROP DATABASE " + database + " WITH (FORCE)");
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        if (container != null) {
+            container.stop();
+        }
+    }
+
+    private void dropBenchmarkDatabases() throws SQLException {
+        try (Connection c = connect(ADMIN_DATABASE);
+                PreparedStatement ps =
+                        c.prepareStatement(
+                                "SELECT datname FROM pg_database WHERE datname = ? OR datname LIKE ?")) {
+            ps.setString(1, PRIMARY);
+            ps.setString(2, PRIMARY + "\\_%");
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    dropDatabase(rs.getString(1));
+                }
+            }
+        }
+    }
+
+    private Connection connect(String database) throws SQLException {
+        return DriverManager.getConnection(url(database), user, password);
+    }
+}
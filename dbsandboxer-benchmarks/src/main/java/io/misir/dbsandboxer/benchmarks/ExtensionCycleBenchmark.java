@@ -0,0 +1,81 @@
+package io.misir.dbsandboxer.benchmarks;
+
+import static org.junit.platform.engine.discovery.DiscoverySelectors.selectClass;
+
+import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
+import org.junit.platform.launcher.Launcher;
+import org.junit.platform.launcher.LauncherDiscoveryRequest;
+import org.junit.platform.launcher.core.LauncherDiscoveryRequestBuilder;
+import org.junit.platform.launcher.core.LauncherFactory;
+import org.junit.platform.launcher.listeners.SummaryGeneratingListener;
+import org.junit.platform.launcher.listeners.TestExecutionSummary;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Per-test latency of the whole {@code DbSandboxSpringExtension} cycle, including JUnit and the
+ * Spring test context.
+ *
+ * <p>Each invocation runs {@link SandboxedTests} through the JUnit Platform launcher. The Spring
+ * context is cached across invocations, as it is in a real test suite, so the numbers are those of
+ * a class running after the first one.
+ *
+ * @author Fethullah Misir
+ */
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@OperationsPerInvocation(SandboxedTests.TESTS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 10)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ExtensionCycleBenchmark {
+
+    @Param({"10", "50"})
+    public int tableCount;
+
+    @Param({"1000", "100000"})
+    public int rowsPerTable;
+
+    @Param({"CLONE", "POOLED", "TABLES"})
+    public BenchmarkDatabase.Strategy strategy;
+
+    private BenchmarkDatabase database;
+    private Launcher launcher;
+    private LauncherDiscoveryRequest request;
+
+    @Setup(Level.Trial)
+    public void setUp() throws SQLException {
+        database = BenchmarkDatabase.start();
+        database.createFixtures(tableCount, rowsPerTable);
+        SandboxedTests.configure(database, strategy);
+        launcher = LauncherFactory.create();
+        request =
+                LauncherDiscoveryRequestBuilder.request()
+                        .selectors(selectClass(SandboxedTests.class))
+                        .build();
+    }
+
+    @Benchmark
+    public void runTestClass() {
+        SummaryGeneratingListener listener = new SummaryGeneratingListener();
+        launcher.execute(request, listener);
+        TestExecutionSummary summary = listener.getSummary();
+        if (summary.getTotalFailureCount() > 0
+                || summary.getTestsSucceededCount() != SandboxedTests.TESTS) {
+            throw new IllegalStateException(
+                    "Sandboxed tests did not all pass: "
+                            + summary.getTestsSucceededCount()
+                            + '/'
+                            + SandboxedTests.TESTS,
+                    summary.getFailures().isEmpty()
+                            ? null
+                            : summary.getFailures().get(0).getException());
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        database.close();
+    }
+}
@@ -0,0 +1,61 @@
+package io.misir.dbsandboxer.benchmarks;
+
+import io.misir.dbsandboxer.core.api.SandboxDatabaseProvider;
+import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Latency of {@link SandboxDatabaseProvider#prepareSandbox()}, the one-time cost of building the
+ * template.
+ *
+ * <p>Every invocation builds a template under a new name, which is dropped again afterwards.
+ *
+ * @author Fethullah Misir
+ */
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 5, time = 10)
+@Fork(1)
+@State(Scope.Benchmark)
+public class PrepareSandboxBenchmark {
+
+    @Param({"10", "50"})
+    public int tableCount;
+
+    @Param({"1000", "100000"})
+    public int rowsPerTable;
+
+    private BenchmarkDatabase database;
+    private SandboxDatabaseProvider provider;
+    private String templateName;
+    private int invocation;
+
+    @Setup(Level.Trial)
+    public void setUp() throws SQLException {
+        database = BenchmarkDatabase.start();
+        database.createFixtures(tableCount, rowsPerTable);
+    }
+
+    @Setup(Level.Invocation)
+    public void newTemplate() {
+        templateName = BenchmarkDatabase.PRIMARY + "_prepare_" + invocation++;
+        provider = database.provider(BenchmarkDatabase.Strategy.CLONE, templateName);
+    }
+
+    @Benchmark
+    public void prepareSandbox() {
+        provider.prepareSandbox();
+    }
+
+    @TearDown(Level.Invocation)
+    public void dropTemplate() throws SQLException {
+        database.dropDatabase(templateName);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        database.close();
+    }
+}
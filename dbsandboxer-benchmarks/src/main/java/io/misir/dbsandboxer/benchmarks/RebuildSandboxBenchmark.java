@@ -0,0 +1,64 @@
+package io.misir.dbsandboxer.benchmarks;
+
+import io.misir.dbsandboxer.core.api.SandboxDatabaseProvider;
+import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Latency of {@link SandboxDatabaseProvider#rebuildSandbox()}, the per-test cost of every reset
+ * strategy.
+ *
+ * <p>Before each rebuild one row is written to the sandbox, as a typical test would. Sample time
+ * mode reports the p50 and p99 latencies per template size and strategy.
+ *
+ * @author Fethullah Misir
+ */
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 10)
+@Fork(1)
+@State(Scope.Benchmark)
+public class RebuildSandboxBenchmark {
+
+    @Param({"10", "50"})
+    public int tableCount;
+
+    @Param({"1000", "100000"})
+    public int rowsPerTable;
+
+    @Param({"CLONE", "POOLED", "TABLES"})
+    public BenchmarkDatabase.Strategy strategy;
+
+    private BenchmarkDatabase database;
+    private SandboxDatabaseProvider provider;
+
+    @Setup(Level.Trial)
+    public void setUp() throws SQLException {
+        database = BenchmarkDatabase.start();
+        database.createFixtures(tableCount, rowsPerTable);
+        provider = database.provider(strategy, BenchmarkDatabase.TEMPLATE);
+        provider.prepareSandbox();
+        provider.rebuildSandbox();
+    }
+
+    /** Rebuilds take milliseconds, so per-invocation setup does not distort the samples. */
+    @Setup(Level.Invocation)
+    public void dirtySandbox() throws SQLException {
+        database.writeRow();
+    }
+
+    @Benchmark
+    public void rebuildSandbox() {
+        provider.rebuildSandbox();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        if (provider instanceof AutoCloseable closeable) {
+            closeable.close();
+        }
+        database.close();
+    }
+}
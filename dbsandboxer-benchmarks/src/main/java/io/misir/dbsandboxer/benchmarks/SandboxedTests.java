@@ -0,0 +1,65 @@
+package io.misir.dbsandboxer.benchmarks;
+
+import io.misir.dbsandboxer.core.api.SandboxDatabaseProvider;
+import io.misir.dbsandboxer.starter.EnableDbSandboxer;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import javax.sql.DataSource;
+import org.junit.jupiter.api.RepeatedTest;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.jdbc.datasource.SimpleDriverDataSource;
+import org.springframework.test.context.junit.jupiter.SpringJUnitConfig;
+
+/**
+ * The test class {@link ExtensionCycleBenchmark} runs: every test writes one row to the sandbox.
+ *
+ * <p>The provider is exposed as a bean so the benchmark can pick the reset strategy and the server
+ * at runtime.
+ *
+ * @author Fethullah Misir
+ */
+@SpringJUnitConfig(SandboxedTests.Config.class)
+@EnableDbSandboxer
+class SandboxedTests {
+
+    static final int TESTS = 10;
+
+    private static volatile BenchmarkDatabase database;
+    private static volatile BenchmarkDatabase.Strategy strategy;
+
+    @Autowired private DataSource dataSource;
+
+    static void configure(BenchmarkDatabase database, BenchmarkDatabase.Strategy strategy) {
+        SandboxedTests.database = database;
+        SandboxedTests.strategy = strategy;
+    }
+
+    @RepeatedTest(TESTS)
+    void writesOneRow() throws SQLException {
+        try (Connection c = dataSource.getConnection();
+                Statement s = c.createStatement()) {
+            s.execute("INSERT INTO t_0 (payload) VALUES ('written by test')");
+        }
+    }
+
+    @Configuration
+    static class Config {
+
+        @Bean
+        DataSource dataSource() {
+            return new SimpleDriverDataSource(
+                    new org.postgresql.Driver(),
+                    database.url(BenchmarkDatabase.PRIMARY),
+                    database.user(),
+                    database.password());
+        }
+
+        @Bean
+        SandboxDatabaseProvider sandboxDatabaseProvider() {
+            return database.provider(strategy, BenchmarkDatabase.TEMPLATE);
+        }
+    }
+}
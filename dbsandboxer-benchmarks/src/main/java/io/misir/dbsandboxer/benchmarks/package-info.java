@@ -0,0 +1,8 @@
+/**
+ * JMH benchmarks for sandbox reset latency.
+ *
+ * <p>Build the module with {@code mvn -pl dbsandboxer-benchmarks -am package} and run {@code java
+ * -jar dbsandboxer-benchmarks/target/benchmarks.jar}. Each benchmark is parameterized by table
+ * count and rows per table, and runs in sample time mode, which reports p50 and p99 latencies.
+ */
+package io.misir.dbsandboxer.benchmarks;
@@ -0,0 +1,121 @@
+package io.misir.dbsandboxer.core.api;
+
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Lease on the one database a provider resets in place, held exclusively until it is closed.
+ *
+ * <p>For providers that cannot hand out separate databases, {@link
+ * SandboxDatabaseProvider#acquire()} is implemented as:
+ *
+ * <pre>{@code
+ * return ExclusiveSandboxLease.acquire(this, key, databaseName, jdbcUrl);
+ * }</pre>
+ *
+ * <p>Leases with the same key exclude each other, whichever provider instance hands them out, so
+ * the key should identify the database, e.g. its server and name. Rebuilding through {@link
+ * SandboxDatabaseProvider#rebuildSandbox()} while a lease is held is not prevented.
+ *
+ * @author Fethullah Misir
+ */
+public final class ExclusiveSandboxLease implements SandboxLease {
+
+    /** One fair lock per database key, for the lifetime of the JVM. */
+    private static final Map<String, Semaphore> LOCKS = new ConcurrentHashMap<>();
+
+    private final String databaseName;
+    private final String jdbcUrl;
+    private final Semaphore lock;
+    private final AtomicBoolean closed = new AtomicBoolean();
+
+    private ExclusiveSandboxLease(String databaseName, String jdbcUrl, Semaphore lock) {
+        this.databaseName = databaseName;
+        this.jdbcUrl = jdbcUrl;
+        this.lock = lock;
+    }
+
+    /**
+     * Waits until no other lease with the same key is open, then prepares and rebuilds the
+     * provider's sandbox and leases it.
+     *
+     * @param provider the provider whose sandbox to rebuild
+     * @param key identifies the database across provider instances
+     * @param databaseName the name reported by the lease
+     * @param jdbcUrl the JDBC URL reported by the lease
+     * @return the lease, to be closed once the caller is done with the database
+     * @throws SandboxException if the wait is interrupted or the rebuild fails
+     * @throws NullPointerException if any parameter is null
+     */
+    public static SandboxLease acquire(
+            SandboxDatabaseProvider provider, String key, String databaseName, String jdbcUrl) {
+        Objects.requireNonNull(provider, "provider cannot be null");
+        Objects.requireNonNull(key, "key cannot be null");
+        Objects.requireNonNull(databaseName, "databaseName cannot be null");
+        Objects.requireNonNull(jdbcUrl, "jdbcUrl cannot be null");
+        return lease(provider, key, databaseName, jdbcUrl);
+    }
+
+    /**
+     * Waits until no other lease of {@code provider} itself is open, then prepares and rebuilds its
+     * sandbox and leases it. The lease reports {@code null} as database name and JDBC URL; this is
+     * the default of {@link SandboxDatabaseProvider#acquire()}.
+     *
+     * @param provider the provider whose sandbox to rebuild
+     * @return the lease, to be closed once the caller is done with the database
+     * @throws SandboxException if the wait is interrupted or the rebuild fails
+     * @throws NullPointerException if provider is null
+     */
+    public static SandboxLease acquire(SandboxDatabaseProvider provider) {
+        Objects.requireNonNull(provider, "provider cannot be null");
+        String key =
+                provider.getClass().getName()
+                        + '@'
+                        + Integer.toHexString(System.identityHashCode(provider));
+        return lease(provider, key, null, null);
+    }
+
+    private static SandboxLease lease(
+            SandboxDatabaseProvider provider, String key, String databaseName, String jdbcUrl) {
+        Semaphore lock = LOCKS.computeIfAbsent(key, k -> new Semaphore(1, true));
+        try {
+            lock.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SandboxException("Interrupted while waiting for sandbox " + key, e);
+        }
+        try {
+            provider.prepareSandbox();
+            provider.rebuildSandbox();
+        } catch (RuntimeException e) {
+            lock.release();
+            throw e;
+        }
+        return new ExclusiveSandboxLease(databaseName, jdbcUrl, lock);
+    }
+
+    @Override
+    public String getDatabaseName() {
+        return databaseName;
+    }
+
+    @Override
+    public String getJdbcUrl() {
+        return jdbcUrl;
+    }
+
+    @Override
+    public void close() {
+        if (closed.compareAndSet(false, true)) {
+            lock.release();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "SandboxLease[" + databaseName + ']';
+    }
+}
@@ -30,4 +30,39 @@ public interface SandboxDatabaseProvider {
      * @throws SandboxException if the sandbox rebuild fails
      */
     void rebuildSandbox() throws SandboxException;
+
+    /**
+     * Tells whether the sandbox may have been written to since it was last rebuilt.
+     *
+     * <p>Callers that can tolerate the state a read-only test leaves behind use this to skip
+     * rebuilds. Providers that cannot tell return {@code true}, the default.
+     *
+     * @return false only if the sandbox is known to be unchanged
+     * @throws SandboxException if the check fails
+     */
+    default boolean isSandboxModified() throws SandboxException {
+        return true;
+    }
+
+    /**
+     * Hands out a sandbox database in its template state for exclusive use until the returned lease
+     * is closed.
+     *
+     * <p>Unlike {@link #rebuildSandbox()}, which resets a database the caller already knows, a
+     * lease tells the caller which database to use. This lets providers give concurrent callers
+     * different physical databases and recycle them once they are handed back. Providers with a
+     * single database block further callers until the lease is closed, see {@link
+     * ExclusiveSandboxLease}. Calls {@link #prepareSandbox()} if needed.
+     *
+     * <p>The default prepares and rebuilds the sandbox under a lock held by the lease, so leases of
+     * the same provider instance exclude each other. It cannot tell which database the provider
+     * resets: its lease reports {@code null} as database name and JDBC URL, and callers keep using
+     * the database they reset through {@link #rebuildSandbox()}.
+     *
+     * @return the lease, to be closed once the caller is done with the database
+     * @throws SandboxException if no sandbox could be made ready
+     */
+    default SandboxLease acquire() throws SandboxException {
+        return ExclusiveSandboxLease.acquire(this);
+    }
 }
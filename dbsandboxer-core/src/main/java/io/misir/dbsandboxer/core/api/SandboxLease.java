@@ -0,0 +1,31 @@
+package io.misir.dbsandboxer.core.api;
+
+/**
+ * A sandbox database handed out to one caller by {@link SandboxDatabaseProvider#acquire()}.
+ *
+ * <p>The database is in its template state when the lease is acquired and belongs to the caller
+ * until the lease is closed. Closing hands it back to the provider, which may reset or recycle it
+ * in the background. Closing a lease more than once has no effect.
+ *
+ * @author Fethullah Misir
+ */
+public interface SandboxLease extends AutoCloseable {
+
+    /**
+     * Returns the name of the leased database.
+     *
+     * @return the database name, or {@code null} if the provider does not know it
+     */
+    String getDatabaseName();
+
+    /**
+     * Returns a JDBC URL for the leased database, without credentials.
+     *
+     * @return the JDBC URL, or {@code null} if the provider does not know it
+     */
+    String getJdbcUrl();
+
+    /** Hands the database back to the provider. */
+    @Override
+    void close();
+}
@@ -0,0 +1,52 @@
+package io.misir.dbsandboxer.core.api;
+
+/**
+ * The timed steps of preparing and rebuilding a sandbox.
+ *
+ * <p>{@link #PREPARE} and {@link #REBUILD} span a whole provider call; the other phases are the
+ * steps inside them. Which steps occur depends on the provider.
+ *
+ * @author Fethullah Misir
+ * @see SandboxTimingListener
+ */
+public enum SandboxPhase {
+
+    /** A whole {@link SandboxDatabaseProvider#prepareSandbox()} call. */
+    PREPARE,
+
+    /** A whole {@link SandboxDatabaseProvider#rebuildSandbox()} call. */
+    REBUILD,
+
+    /** Building the template database from the primary database. */
+    TEMPLATE,
+
+    /** Obtaining an admin session, either reused or newly connected. */
+    ADMIN_SESSION,
+
+    /** Terminating the connections to a database before it is dropped or renamed. */
+    TERMINATE_CONNECTIONS,
+
+    /** Checking whether the sandbox was written to since the last rebuild. */
+    DIRTY_CHECK,
+
+    /** Dropping a database. */
+    DROP,
+
+    /** Cloning a database from the template. */
+    CLONE,
+
+    /** Waiting for a pre-cloned copy to become ready. */
+    WAIT_FOR_COPY,
+
+    /** Renaming a pre-cloned copy into place, or a used sandbox out of the way. */
+    SWAP,
+
+    /** Restoring modified tables or a data directory from their snapshot. */
+    RESTORE,
+
+    /** Shutting down a local server. */
+    STOP_SERVER,
+
+    /** Starting a local server and waiting until it accepts connections. */
+    START_SERVER
+}
@@ -0,0 +1,25 @@
+package io.misir.dbsandboxer.core.api;
+
+/**
+ * Receives the duration of every sandbox phase.
+ *
+ * <p>Listeners are registered with {@link SandboxTimings#addListener(SandboxTimingListener)} or
+ * discovered through {@link java.util.ServiceLoader} from {@code
+ * META-INF/services/io.misir.dbsandboxer.core.api.SandboxTimingListener}. They are called
+ * synchronously on the thread that ran the phase, which may be a provider's background thread, so
+ * implementations must be thread-safe and fast.
+ *
+ * @author Fethullah Misir
+ */
+@FunctionalInterface
+public interface SandboxTimingListener {
+
+    /**
+     * Called when a phase has finished, successfully or not.
+     *
+     * @param phase the phase that finished
+     * @param database the database the phase worked on
+     * @param durationNanos how long the phase took, in nanoseconds
+     */
+    void phaseCompleted(SandboxPhase phase, String database, long durationNanos);
+}
@@ -0,0 +1,85 @@
+package io.misir.dbsandboxer.core.api;
+
+import java.util.List;
+import java.util.ServiceLoader;
+import java.util.concurrent.CopyOnWriteArrayList;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The registry of {@link SandboxTimingListener}s that providers report their phases to.
+ *
+ * <p>Providers time a phase with:
+ *
+ * <pre>{@code
+ * long start = SandboxTimings.start();
+ * try {
+ *     // ...
+ * } finally {
+ *     SandboxTimings.record(SandboxPhase.DROP, database, start);
+ * }
+ * }</pre>
+ *
+ * @author Fethullah Misir
+ */
+public final class SandboxTimings {
+
+    private static final Logger log = LoggerFactory.getLogger(SandboxTimings.class);
+
+    private static final List<SandboxTimingListener> LISTENERS = new CopyOnWriteArrayList<>();
+
+    static {
+        ServiceLoader.load(SandboxTimingListener.class).forEach(LISTENERS::add);
+    }
+
+    private SandboxTimings() {}
+
+    /**
+     * Registers a listener for all providers in this JVM.
+     *
+     * @param listener the listener to add
+     */
+    public static void addListener(SandboxTimingListener listener) {
+        LISTENERS.add(listener);
+    }
+
+    /**
+     * Unregisters a listener.
+     *
+     * @param listener the listener to remove
+     */
+    public static void removeListener(SandboxTimingListener listener) {
+        LISTENERS.remove(listener);
+    }
+
+    /**
+     * Returns the start time of a phase, to be passed to {@link #record(SandboxPhase, String,
+     * long)}.
+     *
+     * @return the current {@link System#nanoTime()}
+     */
+    public static long start() {
+        return System.nanoTime();
+    }
+
+    /**
+     * Reports a finished phase to all listeners. A failing listener is logged and skipped.
+     *
+     * @param phase the phase that finished
+     * @param database the database the phase worked on
+     * @param startNanos the value returned by {@link #start()} when the phase began
+     */
+    public static void record(SandboxPhase phase, String database, long startNanos) {
+        if (LISTENERS.isEmpty()) {
+            return;
+        }
+        long duration = System.nanoTime() - startNanos;
+        for (SandboxTimingListener listener : LISTENERS) {
+            try {
+                listener.phaseCompleted(phase, database, duration);
+            } catch (RuntimeException e) {
+                log.warn("Timing listener {} failed: {}", listener, e.toString());
+            }
+        }
+    }
+}
@@ -0,0 +1,104 @@
+package io.misir.dbsandboxer.core.api;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.stream.Stream;
+
+/**
+ * Computes a fingerprint of the files a template is built from, such as migration scripts and
+ * fixtures.
+ *
+ * <p>Each entry is hashed with SHA-256 under its name; the fingerprint is the hash of all names and
+ * content hashes in name order, so it changes when a file is added, removed, renamed or edited, but
+ * not with the order in which entries are added.
+ *
+ * <pre>{@code
+ * String fingerprint = new TemplateFingerprint()
+ *         .addPath(Path.of("src/main/resources/db/migration"))
+ *         .value();
+ * }</pre>
+ *
+ * @author Fethullah Misir
+ */
+public final class TemplateFingerprint {
+
+    private final SortedMap<String, String> entries = new TreeMap<>();
+
+    /**
+     * Adds an entry.
+     *
+     * @param name the name of the entry, e.g. its path relative to the migration directory
+     * @param content the entry's content
+     * @return this fingerprint
+     */
+    public TemplateFingerprint add(String name, byte[] content) {
+        entries.put(name, HexFormat.of().formatHex(sha256().digest(content)));
+        return this;
+    }
+
+    /**
+     * Adds an entry read from {@code content}, which is not closed.
+     *
+     * @param name the name of the entry
+     * @param content the entry's content
+     * @return this fingerprint
+     * @throws IOException if the content cannot be read
+     */
+    public TemplateFingerprint add(String name, InputStream content) throws IOException {
+        return add(name, content.readAllBytes());
+    }
+
+    /**
+     * Adds a file, or all regular files below a directory, named by their path relative to {@code
+     * path}.
+     *
+     * @param path a file or directory
+     * @return this fingerprint
+     * @throws IOException if a file cannot be read
+     */
+    public TemplateFingerprint addPath(Path path) throws IOException {
+        if (Files.isRegularFile(path)) {
+            return add(path.getFileName().toString(), Files.readAllBytes(path));
+        }
+        List<Path> files;
+        try (Stream<Path> walk = Files.walk(path)) {
+            files = walk.filter(Files::isRegularFile).toList();
+        }
+        for (Path file : files) {
+            add(path.relativize(file).toString().replace('\\', '/'), Files.readAllBytes(file));
+        }
+        return this;
+    }
+
+    /**
+     * Returns the fingerprint of all entries added so far.
+     *
+     * @return the hex encoded SHA-256 fingerprint
+     */
+    public String value() {
+        MessageDigest digest = sha256();
+        for (Map.Entry<String, String> e : entries.entrySet()) {
+            digest.update(
+                    (e.getKey() + '\0' + e.getValue() + '\n').getBytes(StandardCharsets.UTF_8));
+        }
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,29 @@
+package io.misir.dbsandboxer.core.metrics;
+
+import io.misir.dbsandboxer.core.api.SandboxPhase;
+import io.misir.dbsandboxer.core.api.SandboxTimingListener;
+
+/**
+ * Emits every sandbox phase as a {@code io.misir.dbsandboxer.SandboxPhase} Java Flight Recorder
+ * event.
+ *
+ * <p>Registered automatically through {@link java.util.ServiceLoader}; start the tests with {@code
+ * -XX:StartFlightRecording} to record the events. While no recording is running the cost is a
+ * single enabled check per phase.
+ *
+ * @author Fethullah Misir
+ */
+public final class JfrSandboxTimingListener implements SandboxTimingListener {
+
+    @Override
+    public void phaseCompleted(SandboxPhase phase, String database, long durationNanos) {
+        SandboxPhaseEvent event = new SandboxPhaseEvent();
+        if (!event.isEnabled()) {
+            return;
+        }
+        event.phase = phase.name();
+        event.database = database;
+        event.phaseDuration = durationNanos;
+        event.commit();
+    }
+}
@@ -0,0 +1,51 @@
+package io.misir.dbsandboxer.core.metrics;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.misir.dbsandboxer.core.api.SandboxPhase;
+import io.misir.dbsandboxer.core.api.SandboxTimingListener;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Publishes sandbox phases as Micrometer timers named {@code dbsandboxer.phase}, tagged with the
+ * {@code phase}.
+ *
+ * <p>The database is not a tag: pooled copies, renamed sandboxes and per-worker databases carry
+ * generated names, which would register a new timer for almost every reset. Use {@link
+ * JfrSandboxTimingListener} to see individual databases.
+ *
+ * <p>Requires {@code io.micrometer:micrometer-core} on the classpath. Register it with:
+ *
+ * <pre>{@code
+ * SandboxTimings.addListener(new MicrometerSandboxTimingListener(meterRegistry));
+ * }</pre>
+ *
+ * @author Fethullah Misir
+ */
+public final class MicrometerSandboxTimingListener implements SandboxTimingListener {
+
+    /** The name of the published timers. */
+    public static final String METRIC_NAME = "dbsandboxer.phase";
+
+    private final MeterRegistry registry;
+
+    /**
+     * Creates a listener that publishes to {@code registry}.
+     *
+     * @param registry the registry to publish timers to
+     * @throws NullPointerException if registry is null
+     */
+    public MicrometerSandboxTimingListener(MeterRegistry registry) {
+        this.registry = Objects.requireNonNull(registry, "registry cannot be null");
+    }
+
+    @Override
+    public void phaseCompleted(SandboxPhase phase, String database, long durationNanos) {
+        Timer.builder(METRIC_NAME)
+                .description("Time spent in a sandbox phase")
+                .tag("phase", phase.name().toLowerCase())
+                .register(registry)
+                .record(durationNanos, TimeUnit.NANOSECONDS);
+    }
+}
@@ -0,0 +1,30 @@
+package io.misir.dbsandboxer.core.metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+/**
+ * Flight Recorder event for a finished sandbox phase.
+ *
+ * @author Fethullah Misir
+ * @see JfrSandboxTimingListener
+ */
+@Name("io.misir.dbsandboxer.SandboxPhase")
+@Label("Sandbox Phase")
+@Category("DbSandboxer")
+@Description("A timed step of preparing or rebuilding a sandbox database")
+class SandboxPhaseEvent extends jdk.jfr.Event {
+
+    @Label("Phase")
+    String phase;
+
+    @Label("Database")
+    String database;
+
+    @Label("Duration")
+    @Timespan(Timespan.NANOSECONDS)
+    long phaseDuration;
+}
@@ -0,0 +1,8 @@
+/**
+ * Built-in {@link io.misir.dbsandboxer.core.api.SandboxTimingListener} implementations.
+ *
+ * <p>{@link io.misir.dbsandboxer.core.metrics.JfrSandboxTimingListener} is registered
+ * automatically; {@link io.misir.dbsandboxer.core.metrics.MicrometerSandboxTimingListener} needs a
+ * {@code MeterRegistry} and is registered by hand.
+ */
+package io.misir.dbsandboxer.core.metrics;
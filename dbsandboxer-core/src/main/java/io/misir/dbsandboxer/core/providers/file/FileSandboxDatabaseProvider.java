@@ -0,0 +1,301 @@
+package io.misir.dbsandboxer.core.providers.file;
+
+import io.misir.dbsandboxer.core.api.ExclusiveSandboxLease;
+import io.misir.dbsandboxer.core.api.SandboxDatabaseProvider;
+import io.misir.dbsandboxer.core.api.SandboxException;
+import io.misir.dbsandboxer.core.api.SandboxLease;
+import io.misir.dbsandboxer.core.api.SandboxPhase;
+import io.misir.dbsandboxer.core.api.SandboxTimings;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Provider for embedded databases kept in a single file, such as SQLite or H2 in file mode.
+ *
+ * <p>{@link #prepareSandbox()} copies the database file to a template file once. {@link
+ * #rebuildSandbox()} writes the template into a temporary file next to the database and moves it
+ * over the database file, so the reset costs one sequential write of the file. Templates up to
+ * {@link #withInMemoryTemplateLimit(long) a size limit} are held in an off-heap buffer and written
+ * from memory; larger ones are copied with {@link FileChannel#transferTo}, which the kernel can
+ * perform without passing the data through the JVM. Keeping both files on a tmpfs takes the disk
+ * out entirely.
+ *
+ * <p>SQLite's {@code -wal} and {@code -journal} files are copied along with the database, and its
+ * {@code -shm} file is removed on rebuild. Connections must be closed before a rebuild: open
+ * connections keep using the replaced file. {@link #close()} restores the database file one last
+ * time, so the next run's template does not contain the writes of this run's last test.
+ *
+ * @author Fethullah Misir
+ */
+public final class FileSandboxDatabaseProvider implements SandboxDatabaseProvider, AutoCloseable {
+
+    private static final Logger log = LoggerFactory.getLogger(FileSandboxDatabaseProvider.class);
+
+    /** Template files known to be written, by this JVM. */
+    private static final Set<Path> TEMPLATE_READY = ConcurrentHashMap.newKeySet();
+
+    /** Companion files holding committed data that is not yet in the database file. */
+    private static final List<String> JOURNAL_SUFFIXES = List.of("-wal", "-journal");
+
+    /** Companion files the database recreates when they are missing. */
+    private static final List<String> TRANSIENT_SUFFIXES = List.of("-shm");
+
+    private static final String TEMPLATE_SUFFIX = ".template";
+    private static final String TEMP_SUFFIX = ".dbsandboxer-tmp";
+    private static final String H2_FILE_SUFFIX = ".mv.db";
+
+    static final long DEFAULT_IN_MEMORY_TEMPLATE_LIMIT = 64L * 1024 * 1024;
+
+    /** The capacity limit of a {@link ByteBuffer}. */
+    static final long MAX_IN_MEMORY_TEMPLATE_LIMIT = Integer.MAX_VALUE;
+
+    private final Path databaseFile;
+    private final Path templateFile;
+    private final long inMemoryTemplateLimit;
+
+    /** The template file's content, if it fits the in-memory limit; loaded on first rebuild. */
+    private volatile ByteBuffer templateBytes;
+
+    /**
+     * Creates a provider that keeps the template next to the database, in {@code <database
+     * file>.template}.
+     *
+     * @param databaseFile the database file the application uses
+     * @throws NullPointerException if databaseFile is null
+     */
+    public FileSandboxDatabaseProvider(Path databaseFile) {
+        this(databaseFile, siblingWithSuffix(databaseFile, TEMPLATE_SUFFIX));
+    }
+
+    /**
+     * Creates a provider that keeps the template in {@code templateFile}.
+     *
+     * @param databaseFile the database file the application uses
+     * @param templateFile where to keep the template, e.g. on a tmpfs
+     * @throws NullPointerException if any parameter is null
+     * @throws IllegalArgumentException if both files are the same
+     */
+    public FileSandboxDatabaseProvider(Path databaseFile, Path templateFile) {
+        this(databaseFile, templateFile, DEFAULT_IN_MEMORY_TEMPLATE_LIMIT);
+    }
+
+    private FileSandboxDatabaseProvider(
+            Path databaseFile, Path templateFile, long inMemoryTemplateLimit) {
+        this.databaseFile =
+                Objects.requireNonNull(databaseFile, "databaseFile cannot be null")
+                        .toAbsolutePath()
+                        .normalize();
+        this.templateFile =
+                Objects.requireNonNull(templateFile, "templateFile cannot be null")
+                        .toAbsolutePath()
+                        .normalize();
+        if (this.databaseFile.equals(this.templateFile)) {
+            throw new IllegalArgumentException(
+                    "templateFile must differ from databaseFile: " + templateFile);
+        }
+        this.inMemoryTemplateLimit = inMemoryTemplateLimit;
+    }
+
+    /**
+     * Returns a provider that keeps templates up to {@code bytes} in memory.
+     *
+     * <p>The buffer is allocated off-heap. Defaults to 64 MiB; 0 always copies from the template
+     * file. A buffer holds at most 2 GiB, so larger limits are capped at that.
+     *
+     * @param bytes the largest template to keep in memory
+     * @return a provider with the given setting
+     * @throws IllegalArgumentException if bytes is negative
+     */
+    public FileSandboxDatabaseProvider withInMemoryTemplateLimit(long bytes) {
+        if (bytes < 0) {
+            throw new IllegalArgumentException(
+                    "inMemoryTemplateLimit cannot be negative, got: " + bytes);
+        }
+        return new FileSandboxDatabaseProvider(
+                databaseFile, templateFile, Math.min(bytes, MAX_IN_MEMORY_TEMPLATE_LIMIT));
+    }
+
+    long inMemoryTemplateLimit() {
+        return inMemoryTemplateLimit;
+    }
+
+    /**
+     * Returns the database file this provider resets.
+     *
+     * @return the absolute database file
+     */
+    public Path getDatabaseFile() {
+        return databaseFile;
+    }
+
+    /**
+     * Copies the database file and its journals to the template, once per JVM.
+     *
+     * <p>A template left by a previous run is replaced, since the application may have migrated the
+     * database file since. The previous run's {@link #close()} left the file as its template was.
+     */
+    @Override
+    public void prepareSandbox() {
+        if (TEMPLATE_READY.contains(templateFile)) {
+            return;
+        }
+        long start = SandboxTimings.start();
+        try {
+            synchronized (TEMPLATE_READY) {
+                if (TEMPLATE_READY.contains(templateFile)) {
+                    return;
+                }
+                if (!Files.isRegularFile(databaseFile)) {
+                    throw new SandboxException("Database file does not exist: " + databaseFile);
+                }
+                log.info("Creating template “{}” from “{}”.", templateFile, databaseFile);
+                replace(databaseFile, templateFile);
+                for (String suffix : JOURNAL_SUFFIXES) {
+                    replace(
+                            siblingWithSuffix(databaseFile, suffix),
+                            siblingWithSuffix(templateFile, suffix));
+                }
+                TEMPLATE_READY.add(templateFile);
+            }
+        } catch (IOException e) {
+            throw new SandboxException("Failed to create template " + templateFile, e);
+        } finally {
+            SandboxTimings.record(SandboxPhase.PREPARE, templateFile.toString(), start);
+        }
+    }
+
+    /** Replaces the database file and its journals with the template. */
+    @Override
+    public synchronized void rebuildSandbox() {
+        long start = SandboxTimings.start();
+        try {
+            if (!TEMPLATE_READY.contains(templateFile)) {
+                prepareSandbox();
+            }
+            for (String suffix : TRANSIENT_SUFFIXES) {
+                Files.deleteIfExists(siblingWithSuffix(databaseFile, suffix));
+            }
+            for (String suffix : JOURNAL_SUFFIXES) {
+                replace(
+                        siblingWithSuffix(templateFile, suffix),
+                        siblingWithSuffix(databaseFile, suffix));
+            }
+            long cloneStart = SandboxTimings.start();
+            try {
+                ByteBuffer bytes = templateBytes();
+                if (bytes != null) {
+                    writeAtomically(bytes.duplicate(), databaseFile);
+                } else {
+                    replace(templateFile, databaseFile);
+                }
+            } finally {
+                SandboxTimings.record(SandboxPhase.CLONE, databaseFile.toString(), cloneStart);
+            }
+        } catch (IOException e) {
+            throw new SandboxException("Failed to rebuild " + databaseFile, e);
+        } finally {
+            SandboxTimings.record(SandboxPhase.REBUILD, databaseFile.toString(), start);
+        }
+    }
+
+    /**
+     * Restores the database file from the template, if this JVM created it, and lets the next
+     * {@link #prepareSandbox()} create the template again from the restored file.
+     *
+     * <p>Without this, the next run would copy the writes of the last test into its template.
+     * Connections must be closed, as for a rebuild.
+     */
+    @Override
+    public synchronized void close() {
+        synchronized (TEMPLATE_READY) {
+            if (TEMPLATE_READY.contains(templateFile)) {
+                rebuildSandbox();
+                TEMPLATE_READY.remove(templateFile);
+                templateBytes = null;
+            }
+        }
+    }
+
+    /**
+     * Leases the database file once no other lease on it is open.
+     *
+     * <p>The lease's JDBC URL is an H2 URL for {@code .mv.db} files and a SQLite URL otherwise.
+     */
+    @Override
+    public SandboxLease acquire() {
+        String file = databaseFile.toString();
+        String url =
+                file.endsWith(H2_FILE_SUFFIX)
+                        ? "jdbc:h2:file:"
+                                + file.substring(0, file.length() - H2_FILE_SUFFIX.length())
+                        : "jdbc:sqlite:" + file;
+        return ExclusiveSandboxLease.acquire(this, file, file, url);
+    }
+
+    /** The template's content if it is small enough to keep in memory, otherwise null. */
+    private ByteBuffer templateBytes() throws IOException {
+        if (templateBytes == null && Files.size(templateFile) <= inMemoryTemplateLimit) {
+            try (FileChannel in = FileChannel.open(templateFile, StandardOpenOption.READ)) {
+                ByteBuffer buffer = ByteBuffer.allocateDirect(Math.toIntExact(in.size()));
+                while (buffer.hasRemaining() && in.read(buffer) >= 0) {}
+                templateBytes = buffer.flip().asReadOnlyBuffer();
+            }
+        }
+        return templateBytes;
+    }
+
+    /** Copies {@code from} over {@code to}, or deletes {@code to} if {@code from} is missing. */
+    private static void replace(Path from, Path to) throws IOException {
+        if (!Files.exists(from)) {
+            Files.deleteIfExists(to);
+            return;
+        }
+        Path temp = siblingWithSuffix(to, TEMP_SUFFIX);
+        try (FileChannel in = FileChannel.open(from, StandardOpenOption.READ);
+                FileChannel out = openForWrite(temp)) {
+            long size = in.size();
+            for (long pos = 0; pos < size; ) {
+                pos += in.transferTo(pos, size - pos, out);
+            }
+        }
+        move(temp, to);
+    }
+
+    private static void writeAtomically(ByteBuffer bytes, Path to) throws IOException {
+        Path temp = siblingWithSuffix(to, TEMP_SUFFIX);
+        try (FileChannel out = openForWrite(temp)) {
+            while (bytes.hasRemaining()) {
+                out.write(bytes);
+            }
+        }
+        move(temp, to);
+    }
+
+    private static FileChannel openForWrite(Path file) throws IOException {
+        return FileChannel.open(
+                file,
+                StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+    }
+
+    private static void move(Path from, Path to) throws IOException {
+        Files.move(from, to, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static Path siblingWithSuffix(Path file, String suffix) {
+        Objects.requireNonNull(file, "databaseFile cannot be null");
+        return file.resolveSibling(file.getFileName() + suffix);
+    }
+}
@@ -0,0 +1,8 @@
+/**
+ * Sandbox provider for embedded databases stored in a single file.
+ *
+ * <p>{@link io.misir.dbsandboxer.core.providers.file.FileSandboxDatabaseProvider} keeps a copy of
+ * the database file as template and resets the sandbox by writing the template over it, which suits
+ * SQLite and H2 databases in file mode.
+ */
+package io.misir.dbsandboxer.core.providers.file;
@@ -0,0 +1,226 @@
+package io.misir.dbsandboxer.core.providers.mysql;
+
+import io.misir.dbsandboxer.core.api.SandboxPhase;
+import io.misir.dbsandboxer.core.api.SandboxTimings;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.BlockingDeque;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.regex.Pattern;
+
+/**
+ * Connection settings for the MySQL server and the admin statements used by the MySQL provider.
+ *
+ * <p>Like the PostgreSQL admin sessions, a few idle sessions are kept and reused; there is one per
+ * copy worker at most. Every session disables foreign key and unique checks, so tables can be
+ * created and filled in any order.
+ *
+ * @author Fethullah Misir
+ */
+final class MySqlAdmin {
+
+    /** MySQL limits schema and table names to 64 characters. */
+    static final int MAX_IDENTIFIER_LENGTH = 64;
+
+    private static final Pattern SAFE_DB_NAME = Pattern.compile("^[a-zA-Z_][a-zA-Z0-9_]*$");
+    private static final int MIN_PORT = 1;
+    private static final int MAX_PORT = 65535;
+
+    private static final int VALIDATION_TIMEOUT_SECONDS = 2;
+
+    /**
+     * Copies rows as they are: ids of 0 are kept instead of generating new ones, and neither
+     * referenced rows nor uniqueness are checked again.
+     */
+    private static final String COPY_SESSION =
+            """
+              SET SESSION foreign_key_checks = 0,
+                          unique_checks = 0,
+                          sql_mode = 'NO_AUTO_VALUE_ON_ZERO'
+            """;
+
+    private static final String SESSIONS_ON_DATABASE =
+            """
+              SELECT id
+              FROM   information_schema.processlist
+              WHERE  db = ? AND id <> CONNECTION_ID()
+            """;
+
+    private final String host;
+    private final int port;
+    private final String adminUser;
+    private final String adminPassword;
+
+    private final BlockingDeque<Connection> idle = new LinkedBlockingDeque<>();
+    private final int maxIdle;
+
+    MySqlAdmin(String host, int port, String adminUser, String adminPassword, int maxIdle) {
+        this.host = Objects.requireNonNull(host, "host cannot be null");
+
+        if (port < MIN_PORT || port > MAX_PORT) {
+            throw new IllegalArgumentException(
+                    "Port must be between " + MIN_PORT + " and " + MAX_PORT + ", got: " + port);
+        }
+        this.port = port;
+
+        this.adminUser = Objects.requireNonNull(adminUser, "adminUser cannot be null");
+        this.adminPassword = Objects.requireNonNull(adminPassword, "adminPassword cannot be null");
+        this.maxIdle = maxIdle;
+    }
+
+    /** Returns admin settings for the same server that keep up to {@code maxIdle} sessions. */
+    MySqlAdmin withMaxIdle(int maxIdle) {
+        return new MySqlAdmin(host, port, adminUser, adminPassword, maxIdle);
+    }
+
+    static String validateDatabaseName(String name, String paramName) {
+        Objects.requireNonNull(name, paramName + " cannot be null");
+        if (!SAFE_DB_NAME.matcher(name).matches() || name.length() > MAX_IDENTIFIER_LENGTH) {
+            throw new IllegalArgumentException(
+                    paramName
+                            + " contains invalid characters. "
+                            + "Only alphanumeric characters and underscores are allowed: "
+                            + name);
+        }
+        return name;
+    }
+
+    /** Quotes an identifier read from the catalog. */
+    static String quote(String identifier) {
+        return '`' + identifier.replace("`", "``") + '`';
+    }
+
+    /** JDBC URL for the server, without a default schema. */
+    String url() {
+        return "jdbc:mysql://" + host + ':' + port + '/';
+    }
+
+    /** JDBC URL for {@code database} on this server. */
+    String url(String database) {
+        return url() + database;
+    }
+
+    /** Runs {@code work} on a pooled admin session and returns its result. */
+    <T> T call(SqlFunction<T> work) throws SQLException {
+        Connection c = borrow();
+        T result;
+        try {
+            result = work.apply(c);
+        } catch (SQLException | RuntimeException | Error e) {
+            closeQuietly(c);
+            throw e;
+        }
+        release(c);
+        return result;
+    }
+
+    /** Runs {@code work} on a pooled admin session. */
+    void run(SqlConsumer work) throws SQLException {
+        call(
+                c -> {
+                    work.accept(c);
+                    return null;
+                });
+    }
+
+    /** Closes all idle admin sessions. */
+    void close() {
+        Connection c;
+        while ((c = idle.pollFirst()) != null) {
+            closeQuietly(c);
+        }
+    }
+
+    /** Kills all sessions using {@code db} as their default schema, except our own. */
+    static void killSessions(Connection c, String db) throws SQLException {
+        long start = SandboxTimings.start();
+        try {
+            List<Long> ids = new ArrayList<>();
+            try (PreparedStatement ps = c.prepareStatement(SESSIONS_ON_DATABASE)) {
+                ps.setString(1, db);
+                try (ResultSet rs = ps.executeQuery()) {
+                    while (rs.next()) {
+                        ids.add(rs.getLong(1));
+                    }
+                }
+            }
+            try (Statement s = c.createStatement()) {
+                for (long id : ids) {
+                    try {
+                        s.execute("KILL " + id);
+                    } catch (SQLException e) {
+                        // ER_NO_SUCH_THREAD: the session ended by itself
+                        if (e.getErrorCode() != 1094) {
+                            throw e;
+                        }
+                    }
+                }
+            }
+        } finally {
+            SandboxTimings.record(SandboxPhase.TERMINATE_CONNECTIONS, db, start);
+        }
+    }
+
+    private Connection borrow() throws SQLException {
+        long start = SandboxTimings.start();
+        try {
+            Connection c;
+            while ((c = idle.pollFirst()) != null) {
+                if (isHealthy(c)) {
+                    return c;
+                }
+                closeQuietly(c);
+            }
+            c = DriverManager.getConnection(url(), adminUser, adminPassword);
+            try (Statement s = c.createStatement()) {
+                s.execute(COPY_SESSION);
+            } catch (SQLException e) {
+                closeQuietly(c);
+                throw e;
+            }
+            return c;
+        } finally {
+            SandboxTimings.record(SandboxPhase.ADMIN_SESSION, url(), start);
+        }
+    }
+
+    private void release(Connection c) {
+        if (idle.size() >= maxIdle || !idle.offerFirst(c)) {
+            closeQuietly(c);
+        }
+    }
+
+    private static boolean isHealthy(Connection c) {
+        try {
+            return c.getAutoCommit() && c.isValid(VALIDATION_TIMEOUT_SECONDS);
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+
+    private static void closeQuietly(Connection c) {
+        try {
+            c.close();
+        } catch (SQLException ignore) {
+        }
+    }
+
+    /** Work run on an admin session that produces a result. */
+    @FunctionalInterface
+    interface SqlFunction<T> {
+        T apply(Connection c) throws SQLException;
+    }
+
+    /** Work run on an admin session. */
+    @FunctionalInterface
+    interface SqlConsumer {
+        void accept(Connection c) throws SQLException;
+    }
+}
@@ -0,0 +1,9 @@
+/**
+ * MySQL implementation of the sandbox provider.
+ *
+ * <p>MySQL has no template databases, so {@link
+ * io.misir.dbsandboxer.core.providers.mysql.MySqlSandboxDatabaseProvider} copies the primary schema
+ * into a template schema once and rebuilds the sandbox by copying every table back, spread over
+ * several connections.
+ */
+package io.misir.dbsandboxer.core.providers.mysql;
@@ -0,0 +1,28 @@
+package io.misir.dbsandboxer.core.providers.postgres;
+
+/**
+ * How PostgreSQL copies the template when a sandbox is cloned ({@code CREATE DATABASE ...
+ * STRATEGY}).
+ *
+ * <p>The strategy clause exists since PostgreSQL 15. Older servers always copy files, and the
+ * setting is ignored there.
+ *
+ * @author Fethullah Misir
+ */
+public enum CloneStrategy {
+
+    /** Picks {@link #FILE_COPY} for templates of 64 MiB and more and {@link #WAL_LOG} below. */
+    AUTO,
+
+    /**
+     * Copies the template's files directly. Writes almost no WAL but forces two checkpoints, so it
+     * wins for large templates and loses for small ones.
+     */
+    FILE_COPY,
+
+    /**
+     * Copies the template block by block through the WAL, the server default since PostgreSQL 15.
+     * Avoids the checkpoints, which makes it the faster choice for small templates.
+     */
+    WAL_LOG
+}
@@ -0,0 +1,40 @@
+package io.misir.dbsandboxer.core.providers.postgres;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/**
+ * Runs the command-line tools the PostgreSQL providers depend on, such as {@code pg_dump}, {@code
+ * pg_ctl} and {@code cp}.
+ *
+ * @author Fethullah Misir
+ */
+final class ExternalProcess {
+
+    private ExternalProcess() {}
+
+    /**
+     * Runs the command of {@code builder} to completion, with its error output merged into the
+     * output that is reported if it fails.
+     *
+     * @throws IOException if the command cannot be started, exits with an error or the thread is
+     *     interrupted while waiting for it
+     */
+    static void run(ProcessBuilder builder) throws IOException {
+        List<String> command = builder.command();
+        Process p = builder.redirectErrorStream(true).start();
+        String output = new String(p.getInputStream().readAllBytes(), StandardCharsets.UTF_8);
+        try {
+            int exit = p.waitFor();
+            if (exit != 0) {
+                throw new IOException(
+                        String.join(" ", command) + " exited with " + exit + ": " + output.trim());
+            }
+        } catch (InterruptedException e) {
+            p.destroy();
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while running " + command.get(0), e);
+        }
+    }
+}
@@ -0,0 +1,443 @@
+package io.misir.dbsandboxer.core.providers.postgres;
+
+import io.misir.dbsandboxer.core.api.SandboxDatabaseProvider;
+import io.misir.dbsandboxer.core.api.SandboxException;
+import io.misir.dbsandboxer.core.api.SandboxLease;
+import io.misir.dbsandboxer.core.api.SandboxPhase;
+import io.misir.dbsandboxer.core.api.SandboxTimings;
+import java.sql.*;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * PostgreSQL provider that keeps a pool of pre-cloned sandbox databases ready in the background.
+ *
+ * <p>The pool holds {@code poolSize} copies of the template ({@code <primary>_sandbox_<pid>_<n>})
+ * which a background thread clones ahead of time. Rebuilding the sandbox renames the used primary
+ * database out of the way ({@code <primary>_used_<pid>_<n>}) and a ready copy into its place, in
+ * one transaction, so the clone itself is no longer on the critical path of a test. The used copy
+ * is dropped and a new one is cloned asynchronously. {@code <pid>} is the backend pid of an admin
+ * session the provider keeps open until it is closed, which tells the copies of providers in other
+ * JVMs apart.
+ *
+ * <p>{@link #acquire()} hands out the ready copies themselves instead, one per caller, so
+ * concurrent callers each get their own database. A copy handed back is dropped in the background.
+ *
+ * <p>Call {@link #close()} once all tests are done to stop the background thread and drop the
+ * remaining pooled copies. Leftovers from a run that was not closed are dropped by the next {@link
+ * #prepareSandbox()} once the session of their provider is gone.
+ *
+ * @author Fethullah Misir
+ */
+public final class PooledPostgresSandboxDatabaseProvider
+        implements SandboxDatabaseProvider, AutoCloseable {
+
+    private static final Logger log =
+            LoggerFactory.getLogger(PooledPostgresSandboxDatabaseProvider.class);
+
+    /** Space reserved for the {@code _sandbox_<pid>_<n>} and {@code _used_<pid>_<n>} suffixes. */
+    private static final int SUFFIX_RESERVE = 28;
+
+    private static final long CLOSE_TIMEOUT_SECONDS = 60;
+
+    private static final String DATABASE_EXISTS = "SELECT 1 FROM pg_database WHERE datname = ?";
+
+    /** Copies named by this class whose owning admin session no longer exists. */
+    private static final String LEFTOVERS =
+            """
+              SELECT datname
+              FROM   pg_database
+              WHERE  substring(datname FROM ?)::int NOT IN (SELECT pid FROM pg_stat_activity)
+            """;
+
+    private final PostgresAdmin admin;
+    private final PostgresSandboxDatabaseProvider templateProvider;
+
+    private final String primaryDatabaseName;
+    private final String templateName;
+    private final int poolSize;
+
+    private final ExecutorService executor;
+    private final Deque<CompletableFuture<String>> pool = new ArrayDeque<>();
+    private final AtomicLong sequence = new AtomicLong();
+    private final Set<String> leased = ConcurrentHashMap.newKeySet();
+
+    /** Admin session held open while the provider runs; its backend pid marks our copies. */
+    private Connection owner;
+
+    private int ownerPid;
+    private boolean started;
+    private boolean closed;
+
+    /**
+     * Creates a new pooled PostgreSQL sandbox database provider.
+     *
+     * @param host the database host
+     * @param port the database port (1-65535)
+     * @param adminDatabaseName the admin/maintenance database name (usually "postgres")
+     * @param adminUser the admin user with CREATE DATABASE privileges
+     * @param adminPassword the admin user's password
+     * @param primaryDatabaseName the name of the primary database to sandbox
+     * @param templateDatabaseName the name of the template database to create
+     * @param poolSize the number of ready-made copies to keep (at least 1)
+     * @throws IllegalArgumentException if port or pool size is out of range or database names are
+     *     invalid
+     * @throws NullPointerException if any required parameter is null
+     */
+    public PooledPostgresSandboxDatabaseProvider(
+            String host,
+            int port,
+            String adminDatabaseName,
+            String adminUser,
+            String adminPassword,
+            String primaryDatabaseName,
+            String templateDatabaseName,
+            int poolSize) {
+        this(
+                new PostgresSandboxDatabaseProvider(
+                        host,
+                        port,
+                        adminDatabaseName,
+                        adminUser,
+                        adminPassword,
+                        primaryDatabaseName,
+                        templateDatabaseName),
+                poolSize);
+    }
+
+    /**
+     * Creates a pooled provider for the primary database and template of {@code templateProvider}.
+     *
+     * <p>The template is prepared by {@code templateProvider} and the copies are cloned with its
+     * clone strategy and tablespace, so its {@code with...} settings apply to the pool.
+     *
+     * @param templateProvider the provider that prepares the template
+     * @param poolSize the number of ready-made copies to keep (at least 1)
+     * @throws IllegalArgumentException if the pool size is out of range or the primary database
+     *     name is too long
+     */
+    public PooledPostgresSandboxDatabaseProvider(
+            PostgresSandboxDatabaseProvider templateProvider, int poolSize) {
+        this.templateProvider = templateProvider;
+        this.admin = templateProvider.admin();
+        this.primaryDatabaseName = templateProvider.primaryDatabaseName();
+        this.templateName = templateProvider.templateName();
+
+        if (primaryDatabaseName.length() > PostgresAdmin.MAX_IDENTIFIER_LENGTH - SUFFIX_RESERVE) {
+            throw new IllegalArgumentException(
+                    "primaryDatabaseName is too long for pooled copies (max "
+                            + (PostgresAdmin.MAX_IDENTIFIER_LENGTH - SUFFIX_RESERVE)
+                            + " characters): "
+                            + primaryDatabaseName);
+        }
+        if (poolSize < 1) {
+            throw new IllegalArgumentException("poolSize must be at least 1, got: " + poolSize);
+        }
+        this.poolSize = poolSize;
+
+        this.executor =
+                Executors.newSingleThreadExecutor(
+                        r -> {
+                            Thread t = new Thread(r, "dbsandboxer-pool-" + primaryDatabaseName);
+                            t.setDaemon(true);
+                            return t;
+                        });
+    }
+
+    /**
+     * Prepares the template and starts filling the pool.
+     *
+     * <p>Pooled copies left behind by a previous run are dropped first.
+     */
+    @Override
+    public synchronized void prepareSandbox() {
+        if (closed) {
+            throw new SandboxException("Provider has been closed");
+        }
+        templateProvider.prepareSandbox();
+        if (started) {
+            return;
+        }
+        openOwner();
+        dropLeftovers();
+        for (int i = 0; i < poolSize; i++) {
+            refill();
+        }
+        started = true;
+        log.info("Pool of {} sandbox copies of “{}” started.", poolSize, templateName);
+    }
+
+    /**
+     * Swaps a ready-made copy in place of the primary database.
+     *
+     * <p>Only waits for a clone if the pool has been drained faster than the background thread can
+     * refill it.
+     */
+    @Override
+    public synchronized void rebuildSandbox() {
+        long start = SandboxTimings.start();
+        try {
+            swapInCopy();
+        } finally {
+            SandboxTimings.record(SandboxPhase.REBUILD, primaryDatabaseName, start);
+        }
+    }
+
+    /**
+     * Leases a ready-made copy under its own name, leaving the primary database alone.
+     *
+     * <p>Callers get different copies and only wait for a clone if the pool is drained. Closing the
+     * lease drops the copy in the background; copies still leased when the provider is closed are
+     * dropped then.
+     */
+    @Override
+    public SandboxLease acquire() {
+        String copy;
+        synchronized (this) {
+            if (!started) {
+                prepareSandbox();
+            }
+            try {
+                copy = takeCopy();
+            } finally {
+                refill();
+            }
+            leased.add(copy);
+        }
+        return new PostgresSandboxLease(admin, copy, () -> release(copy));
+    }
+
+    private void release(String copy) {
+        if (!leased.remove(copy)) {
+            return;
+        }
+        try {
+            executor.execute(() -> dropQuietly(copy));
+        } catch (RejectedExecutionException e) {
+            dropQuietly(copy);
+        }
+    }
+
+    private void swapInCopy() {
+        if (!started) {
+            prepareSandbox();
+        }
+        String copy = takeCopy();
+        String trash = name("used");
+        try {
+            boolean moved =
+                    admin.call(
+                            c -> {
+                                PostgresAdmin.terminateConnections(c, primaryDatabaseName);
+                                long swapStart = SandboxTimings.start();
+                                try {
+                                    return swap(c, copy, trash);
+                                } finally {
+                                    SandboxTimings.record(
+                                            SandboxPhase.SWAP, primaryDatabaseName, swapStart);
+                                }
+                            });
+            if (moved) {
+                executor.execute(() -> dropQuietly(trash));
+            }
+        } catch (SQLException e) {
+            executor.execute(() -> dropQuietly(copy));
+            throw new SandboxException(e);
+        } finally {
+            refill();
+        }
+    }
+
+    /**
+     * Stops the background thread, drops all pooled copies that are still unused and closes the
+     * idle admin sessions.
+     */
+    @Override
+    public synchronized void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(CLOSE_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                executor.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            executor.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+        for (CompletableFuture<String> f : pool) {
+            if (f.isDone() && !f.isCompletedExceptionally()) {
+                dropQuietly(f.join());
+            }
+        }
+        pool.clear();
+        for (String copy : leased) {
+            log.warn("Sandbox copy “{}” is still leased, dropping it.", copy);
+            dropQuietly(copy);
+        }
+        leased.clear();
+        closeOwner();
+        admin.close();
+    }
+
+    private String takeCopy() {
+        CompletableFuture<String> next = pool.poll();
+        if (next == null) {
+            throw new SandboxException("Sandbox pool is empty");
+        }
+        long start = SandboxTimings.start();
+        try {
+            return next.join();
+        } catch (CompletionException e) {
+            throw new SandboxException("Failed to clone template " + templateName, e.getCause());
+        } finally {
+            SandboxTimings.record(SandboxPhase.WAIT_FOR_COPY, primaryDatabaseName, start);
+        }
+    }
+
+    private void refill() {
+        pool.add(CompletableFuture.supplyAsync(this::cloneTemplate, executor));
+    }
+
+    private String cloneTemplate() {
+        String name = name("sandbox");
+        try {
+            admin.run(c -> templateProvider.cloneTemplate(c, name));
+            return name;
+        } catch (SQLException e) {
+            throw new SandboxException(e);
+        }
+    }
+
+    /**
+     * Renames the primary database to {@code trash}, if it exists, and {@code copy} to the primary
+     * database, both or neither.
+     *
+     * @return whether the primary database existed and was renamed
+     */
+    private boolean swap(Connection c, String copy, String trash) throws SQLException {
+        c.setAutoCommit(false);
+        try (Statement s = c.createStatement()) {
+            boolean exists = exists(c, primaryDatabaseName);
+            if (exists) {
+                s.execute("ALTER DATABASE " + primaryDatabaseName + " RENAME TO " + trash + ';');
+            }
+            s.execute("ALTER DATABASE " + copy + " RENAME TO " + primaryDatabaseName + ';');
+            c.commit();
+            return exists;
+        } catch (SQLException e) {
+            c.rollback();
+            throw e;
+        } finally {
+            c.setAutoCommit(true);
+        }
+    }
+
+    private static boolean exists(Connection c, String db) throws SQLException {
+        try (PreparedStatement ps = c.prepareStatement(DATABASE_EXISTS)) {
+            ps.setString(1, db);
+            try (ResultSet rs = ps.executeQuery()) {
+                return rs.next();
+            }
+        }
+    }
+
+    /** A new database name with the given infix, unique to this provider. */
+    private String name(String infix) {
+        return primaryDatabaseName
+                + '_'
+                + infix
+                + '_'
+                + ownerPid
+                + '_'
+                + sequence.getAndIncrement();
+    }
+
+    private void openOwner() {
+        if (owner != null) {
+            return;
+        }
+        try {
+            owner = admin.connect();
+            try (Statement s = owner.createStatement();
+                    ResultSet rs = s.executeQuery("SELECT pg_backend_pid()")) {
+                rs.next();
+                ownerPid = rs.getInt(1);
+            }
+        } catch (SQLException e) {
+            closeOwner();
+            throw new SandboxException(e);
+        }
+    }
+
+    private void closeOwner() {
+        if (owner == null) {
+            return;
+        }
+        try {
+            owner.close();
+        } catch (SQLException ignore) {
+        }
+        owner = null;
+    }
+
+    private void dropLeftovers() {
+        List<String> leftovers = new ArrayList<>();
+        try {
+            admin.run(
+                    c -> {
+                        try (PreparedStatement ps = c.prepareStatement(LEFTOVERS)) {
+                            ps.setString(
+                                    1,
+                                    "^"
+                                            + primaryDatabaseName
+                                            + "_(?:sandbox|used)_([0-9]+)_[0-9]+$");
+                            try (ResultSet rs = ps.executeQuery()) {
+                                while (rs.next()) {
+                                    leftovers.add(rs.getString(1));
+                                }
+                            }
+                        }
+                    });
+        } catch (SQLException e) {
+            throw new SandboxException(e);
+        }
+        if (!leftovers.isEmpty()) {
+            log.info(
+                    "Dropping {} leftover sandbox copies of “{}”.", leftovers.size(), templateName);
+            leftovers.forEach(this::dropQuietly);
+        }
+    }
+
+    private void dropQuietly(String db) {
+        try {
+            admin.run(
+                    c -> {
+                        PostgresAdmin.terminateConnections(c, db);
+                        long start = SandboxTimings.start();
+                        try (Statement s = c.createStatement()) {
+                            s.execute("DROP DATABASE IF EXISTS " + db + ';');
+                        } finally {
+                            SandboxTimings.record(SandboxPhase.DROP, db, start);
+                        }
+                    });
+        } catch (SQLException e) {
+            log.warn("Could not drop sandbox copy “{}”: {}", db, e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,286 @@
+package io.misir.dbsandboxer.core.providers.postgres;
+
+import io.misir.dbsandboxer.core.api.SandboxPhase;
+import io.misir.dbsandboxer.core.api.SandboxTimings;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.BlockingDeque;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.regex.Pattern;
+
+/**
+ * Connection settings for the PostgreSQL maintenance database and the admin statements shared by
+ * the PostgreSQL providers.
+ *
+ * <p>Admin sessions are long-lived: instead of opening a connection per operation, a small set of
+ * idle sessions is kept per server and admin user and reused by every provider in the JVM. Each
+ * session is validated before it is handed out and replaced transparently if the server closed it.
+ *
+ * @author Fethullah Misir
+ */
+final class PostgresAdmin {
+
+    /** PostgreSQL truncates identifiers longer than this (NAMEDATALEN - 1). */
+    static final int MAX_IDENTIFIER_LENGTH = 63;
+
+    private static final Pattern SAFE_DB_NAME = Pattern.compile("^[a-zA-Z_][a-zA-Z0-9_]*$");
+    private static final int MIN_PORT = 1;
+    private static final int MAX_PORT = 65535;
+
+    private static final int MAX_IDLE_SESSIONS = 4;
+    private static final int VALIDATION_TIMEOUT_SECONDS = 2;
+
+    /** Idle admin sessions, shared by all providers connecting as the same user. */
+    private static final Map<String, BlockingDeque<Connection>> IDLE_SESSIONS =
+            new ConcurrentHashMap<>();
+
+    private static final String TERMINATE_CONNECTIONS =
+            """
+              SELECT pg_terminate_backend(pid)
+              FROM   pg_stat_activity
+              WHERE  datname = ? AND pid <> pg_backend_pid()
+            """;
+
+    private static final String TERMINATE_CONNECTIONS_AND_WAIT =
+            """
+              SELECT pg_terminate_backend(pid, ?)
+              FROM   pg_stat_activity
+              WHERE  datname = ? AND pid <> pg_backend_pid()
+            """;
+
+    /** Key space of the advisory locks taken by dbsandboxer, "dbsb" in ASCII. */
+    private static final int ADVISORY_LOCK_SPACE = 0x64627362;
+
+    private static final String ADVISORY_LOCK = "SELECT pg_advisory_lock(?, hashtext(?))";
+
+    private final String host;
+    private final int port;
+    private final String adminDatabase;
+    private final String adminUser;
+    private final String adminPassword;
+
+    private final BlockingDeque<Connection> idle;
+
+    PostgresAdmin(
+            String host,
+            int port,
+            String adminDatabaseName,
+            String adminUser,
+            String adminPassword) {
+        this.host = Objects.requireNonNull(host, "host cannot be null");
+
+        if (port < MIN_PORT || port > MAX_PORT) {
+            throw new IllegalArgumentException(
+                    "Port must be between " + MIN_PORT + " and " + MAX_PORT + ", got: " + port);
+        }
+        this.port = port;
+
+        this.adminDatabase = validateDatabaseName(adminDatabaseName, "adminDatabaseName");
+        this.adminUser = Objects.requireNonNull(adminUser, "adminUser cannot be null");
+        this.adminPassword = Objects.requireNonNull(adminPassword, "adminPassword cannot be null");
+        this.idle = IDLE_SESSIONS.computeIfAbsent(sessionKey(), k -> new LinkedBlockingDeque<>());
+    }
+
+    static String validateDatabaseName(String name, String paramName) {
+        Objects.requireNonNull(name, paramName + " cannot be null");
+        if (!SAFE_DB_NAME.matcher(name).matches()) {
+            throw new IllegalArgumentException(
+                    paramName
+                            + " contains invalid characters. "
+                            + "Only alphanumeric characters and underscores are allowed: "
+                            + name);
+        }
+        return name;
+    }
+
+    /** Identifies the server and admin user, whose sessions and background work are shared. */
+    String sessionKey() {
+        return adminUser + '@' + adminUrl();
+    }
+
+    /** An admin for another server, with the same maintenance database and credentials. */
+    PostgresAdmin onServer(String host, int port) {
+        return new PostgresAdmin(host, port, adminDatabase, adminUser, adminPassword);
+    }
+
+    /** Runs {@code work} on a pooled admin session and returns its result. */
+    <T> T call(SqlFunction<T> work) throws SQLException {
+        Connection c = borrow();
+        T result;
+        try {
+            result = work.apply(c);
+        } catch (SQLException e) {
+            if (isConnectionFailure(e)) {
+                closeQuietly(c);
+            } else {
+                release(c);
+            }
+            throw e;
+        } catch (RuntimeException | Error e) {
+            closeQuietly(c);
+            throw e;
+        }
+        release(c);
+        return result;
+    }
+
+    /** Runs {@code work} on a pooled admin session. */
+    void run(SqlConsumer work) throws SQLException {
+        call(
+                c -> {
+                    work.accept(c);
+                    return null;
+                });
+    }
+
+    /**
+     * Runs {@code work} while holding the server-wide advisory lock for {@code name}, so JVMs
+     * sharing the server take turns. {@code work} runs on the session holding the lock, which
+     * releases it when closed, also if the JVM dies.
+     */
+    void runLocked(String name, SqlConsumer work) throws SQLException {
+        try (Connection c = connect()) {
+            try (PreparedStatement ps = c.prepareStatement(ADVISORY_LOCK)) {
+                ps.setInt(1, ADVISORY_LOCK_SPACE);
+                ps.setString(2, name);
+                ps.execute();
+            }
+            work.accept(c);
+        }
+    }
+
+    /** Opens a new, unpooled connection to the admin database. */
+    Connection connect() throws SQLException {
+        return connect(adminDatabase);
+    }
+
+    /** Opens a new, unpooled connection to {@code database} as the admin user. */
+    Connection connect(String database) throws SQLException {
+        return DriverManager.getConnection(url(database), adminUser, adminPassword);
+    }
+
+    /** JDBC URL for the admin database. */
+    String adminUrl() {
+        return url(adminDatabase);
+    }
+
+    /** JDBC URL for {@code database} on this server. */
+    String url(String database) {
+        return "jdbc:postgresql://" + host + ':' + port + '/' + database;
+    }
+
+    /**
+     * Runs a libpq tool such as {@code pg_dump} or {@code pg_restore} against this server, as the
+     * admin user.
+     *
+     * @throws IOException if the tool cannot be started or exits with an error
+     */
+    void runTool(List<String> command) throws IOException {
+        ProcessBuilder builder = new ProcessBuilder(command);
+        Map<String, String> env = builder.environment();
+        env.put("PGHOST", host);
+        env.put("PGPORT", String.valueOf(port));
+        env.put("PGUSER", adminUser);
+        env.put("PGPASSWORD", adminPassword);
+        ExternalProcess.run(builder);
+    }
+
+    /** Closes all idle admin sessions of this server and user. */
+    void close() {
+        Connection c;
+        while ((c = idle.pollFirst()) != null) {
+            closeQuietly(c);
+        }
+    }
+
+    /**
+     * Terminates all connections to {@code db} except our own, so we can drop/alter the database
+     * safely.
+     */
+    static void terminateConnections(Connection c, String db) throws SQLException {
+        long start = SandboxTimings.start();
+        try (PreparedStatement ps = c.prepareStatement(TERMINATE_CONNECTIONS)) {
+            ps.setString(1, db);
+            ps.execute();
+        } finally {
+            SandboxTimings.record(SandboxPhase.TERMINATE_CONNECTIONS, db, start);
+        }
+    }
+
+    /**
+     * Terminates all connections to {@code db} except our own and waits up to {@code waitMillis}
+     * for each backend to exit. Requires PostgreSQL 14 or later.
+     */
+    static void terminateConnections(Connection c, String db, long waitMillis) throws SQLException {
+        long start = SandboxTimings.start();
+        try (PreparedStatement ps = c.prepareStatement(TERMINATE_CONNECTIONS_AND_WAIT)) {
+            ps.setLong(1, waitMillis);
+            ps.setString(2, db);
+            ps.execute();
+        } finally {
+            SandboxTimings.record(SandboxPhase.TERMINATE_CONNECTIONS, db, start);
+        }
+    }
+
+    /** Takes the most recently used idle session, replacing sessions that no longer respond. */
+    private Connection borrow() throws SQLException {
+        long start = SandboxTimings.start();
+        try {
+            Connection c;
+            while ((c = idle.pollFirst()) != null) {
+                if (isHealthy(c)) {
+                    return c;
+                }
+                closeQuietly(c);
+            }
+            return connect();
+        } finally {
+            SandboxTimings.record(SandboxPhase.ADMIN_SESSION, adminDatabase, start);
+        }
+    }
+
+    private void release(Connection c) {
+        if (idle.size() >= MAX_IDLE_SESSIONS || !idle.offerFirst(c)) {
+            closeQuietly(c);
+        }
+    }
+
+    private static boolean isHealthy(Connection c) {
+        try {
+            return c.getAutoCommit() && c.isValid(VALIDATION_TIMEOUT_SECONDS);
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+
+    /** SQLState class 08 covers broken and refused connections. */
+    private static boolean isConnectionFailure(SQLException e) {
+        return e.getSQLState() != null && e.getSQLState().startsWith("08");
+    }
+
+    private static void closeQuietly(Connection c) {
+        try {
+            c.close();
+        } catch (SQLException ignore) {
+        }
+    }
+
+    /** Work run on an admin session that produces a result. */
+    @FunctionalInterface
+    interface SqlFunction<T> {
+        T apply(Connection c) throws SQLException;
+    }
+
+    /** Work run on an admin session. */
+    @FunctionalInterface
+    interface SqlConsumer {
+        void accept(Connection c) throws SQLException;
+    }
+}
@@ -0,0 +1,349 @@
+package io.misir.dbsandboxer.core.providers.postgres;
+
+import io.misir.dbsandboxer.core.api.SandboxDatabaseProvider;
+import io.misir.dbsandboxer.core.api.SandboxException;
+import io.misir.dbsandboxer.core.api.SandboxPhase;
+import io.misir.dbsandboxer.core.api.SandboxTimings;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * PostgreSQL provider that resets a whole local cluster by restoring its data directory from a
+ * snapshot.
+ *
+ * <p>{@link #prepareSandbox()} stops the cluster, copies its data directory to the snapshot
+ * directory and starts it again. {@link #rebuildSandbox()} stops the cluster immediately, moves the
+ * used data directory aside, copies the snapshot back in its place and starts the cluster. The
+ * copies are made with {@code cp -a --reflink=auto}, which on copy-on-write file systems such as
+ * Btrfs or XFS shares the file extents instead of copying them, so the reset takes about the same
+ * time regardless of the data size. On other file systems it falls back to a regular copy. The used
+ * data directory is deleted in the background.
+ *
+ * <p>Meant for clusters a test run starts itself with {@code pg_ctl}, such as on CI: the cluster is
+ * restarted for every rebuild, so all connections to it break, and everything in it is reset, not
+ * just one database. The user running the tests must own the data directory. The server log is
+ * written next to the data directory, to {@code <data directory>.log}.
+ *
+ * @author Fethullah Misir
+ */
+public final class PostgresDataDirectorySandboxDatabaseProvider
+        implements SandboxDatabaseProvider, AutoCloseable {
+
+    private static final Logger log =
+            LoggerFactory.getLogger(PostgresDataDirectorySandboxDatabaseProvider.class);
+
+    /** Data directories snapshotted by this JVM. */
+    private static final Set<Path> SNAPSHOT_READY = ConcurrentHashMap.newKeySet();
+
+    private static final int START_TIMEOUT_SECONDS = 60;
+    private static final long CLOSE_TIMEOUT_SECONDS = 60;
+    private static final String TRASH_SUFFIX = ".trash-";
+
+    private final Path dataDirectory;
+    private final Path snapshotDirectory;
+    private final Path pgCtl;
+    private final String serverOptions;
+
+    private final ExecutorService executor;
+    private final AtomicLong sequence = new AtomicLong();
+
+    /**
+     * Creates a new data directory snapshot provider that uses {@code pg_ctl} from the {@code
+     * PATH}.
+     *
+     * @param dataDirectory the data directory of the cluster
+     * @param snapshotDirectory where to keep the snapshot, on the same file system as the data
+     *     directory for copy-on-write copies
+     * @throws NullPointerException if any parameter is null
+     * @throws IllegalArgumentException if both directories are the same
+     */
+    public PostgresDataDirectorySandboxDatabaseProvider(
+            Path dataDirectory, Path snapshotDirectory) {
+        this(dataDirectory, snapshotDirectory, Path.of("pg_ctl"), null);
+    }
+
+    private PostgresDataDirectorySandboxDatabaseProvider(
+            Path dataDirectory, Path snapshotDirectory, Path pgCtl, String serverOptions) {
+        this.dataDirectory =
+                Objects.requireNonNull(dataDirectory, "dataDirectory cannot be null")
+                        .toAbsolutePath()
+                        .normalize();
+        this.snapshotDirectory =
+                Objects.requireNonNull(snapshotDirectory, "snapshotDirectory cannot be null")
+                        .toAbsolutePath()
+                        .normalize();
+        if (this.dataDirectory.equals(this.snapshotDirectory)) {
+            throw new IllegalArgumentException(
+                    "snapshotDirectory must differ from dataDirectory: " + snapshotDirectory);
+        }
+        this.pgCtl = Objects.requireNonNull(pgCtl, "pgCtl cannot be null");
+        this.serverOptions = serverOptions;
+        this.executor =
+                Executors.newSingleThreadExecutor(
+                        r -> {
+                            Thread t = new Thread(r, "dbsandboxer-trash-" + name());
+                            t.setDaemon(true);
+                            return t;
+                        });
+    }
+
+    /**
+     * Returns a provider that runs the given {@code pg_ctl} executable.
+     *
+     * @param pgCtl the path of {@code pg_ctl}
+     * @return a provider with the given setting
+     * @throws NullPointerException if pgCtl is null
+     */
+    public PostgresDataDirectorySandboxDatabaseProvider withPgCtl(Path pgCtl) {
+        return new PostgresDataDirectorySandboxDatabaseProvider(
+                dataDirectory, snapshotDirectory, pgCtl, serverOptions);
+    }
+
+    /**
+     * Returns a provider that passes {@code serverOptions} to the server when it starts it, like
+     * {@code pg_ctl start -o}.
+     *
+     * <p>Options the cluster was started with before {@link #prepareSandbox()} are not known to the
+     * provider; settings such as the port belong here or in the cluster's {@code postgresql.conf},
+     * which is part of the snapshot.
+     *
+     * @param serverOptions the server options, e.g. {@code "-p 5433 -c fsync=off"}, or null
+     * @return a provider with the given setting
+     */
+    public PostgresDataDirectorySandboxDatabaseProvider withServerOptions(String serverOptions) {
+        return new PostgresDataDirectorySandboxDatabaseProvider(
+                dataDirectory, snapshotDirectory, pgCtl, serverOptions);
+    }
+
+    /**
+     * Takes the snapshot of the data directory, once per JVM.
+     *
+     * <p>The cluster is shut down cleanly for the copy, so the snapshot needs no crash recovery
+     * when it is started. A snapshot left by a previous run is replaced.
+     */
+    @Override
+    public void prepareSandbox() {
+        if (SNAPSHOT_READY.contains(dataDirectory)) {
+            return;
+        }
+        long start = SandboxTimings.start();
+        try {
+            synchronized (SNAPSHOT_READY) {
+                if (SNAPSHOT_READY.contains(dataDirectory)) {
+                    return;
+                }
+                deleteLeftovers();
+                stop("fast");
+                try {
+                    if (Files.exists(snapshotDirectory)) {
+                        deleteTree(snapshotDirectory);
+                    }
+                    copy(dataDirectory, snapshotDirectory);
+                } finally {
+                    start();
+                }
+                SNAPSHOT_READY.add(dataDirectory);
+                log.info("Snapshot of “{}” taken.", dataDirectory);
+            }
+        } catch (IOException e) {
+            throw new SandboxException("Failed to snapshot " + dataDirectory, e);
+        } finally {
+            SandboxTimings.record(SandboxPhase.PREPARE, name(), start);
+        }
+    }
+
+    /**
+     * Stops the cluster without a checkpoint, restores the data directory from the snapshot and
+     * starts the cluster again.
+     *
+     * <p>If the restore or the start fails, the used data directory is put back and the cluster
+     * started on it before the failure is thrown, so the following tests still find a running
+     * server.
+     */
+    @Override
+    public synchronized void rebuildSandbox() {
+        long start = SandboxTimings.start();
+        try {
+            if (!SNAPSHOT_READY.contains(dataDirectory)) {
+                prepareSandbox();
+            }
+            stop("immediate");
+            Path trash =
+                    dataDirectory.resolveSibling(
+                            name() + TRASH_SUFFIX + sequence.getAndIncrement());
+            boolean moved = false;
+            try {
+                long restoreStart = SandboxTimings.start();
+                try {
+                    Files.move(dataDirectory, trash);
+                    moved = true;
+                    copy(snapshotDirectory, dataDirectory);
+                } finally {
+                    SandboxTimings.record(SandboxPhase.RESTORE, name(), restoreStart);
+                }
+                start();
+            } catch (IOException | RuntimeException e) {
+                recover(moved ? trash : null, e);
+                throw e;
+            }
+            executor.execute(() -> deleteQuietly(trash));
+        } catch (IOException e) {
+            throw new SandboxException("Failed to restore " + dataDirectory, e);
+        } finally {
+            SandboxTimings.record(SandboxPhase.REBUILD, name(), start);
+        }
+    }
+
+    /**
+     * Puts the used data directory back in place of a partial copy, if it was moved, and starts the
+     * cluster on it. Failures are added to {@code failure}.
+     */
+    private void recover(Path trash, Exception failure) {
+        try {
+            try {
+                stop("immediate"); // in case the failed start left a server behind
+            } catch (IOException notRunning) {
+            }
+            if (trash != null) {
+                if (Files.exists(dataDirectory)) {
+                    deleteTree(dataDirectory);
+                }
+                Files.move(trash, dataDirectory);
+            }
+            start();
+            log.warn("Restore of “{}” failed, the cluster runs on the used data.", dataDirectory);
+        } catch (IOException | RuntimeException e) {
+            failure.addSuppressed(e);
+        }
+    }
+
+    /**
+     * Waits for the used data directories to be deleted. The cluster keeps running and the snapshot
+     * is kept.
+     */
+    @Override
+    public void close() {
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(CLOSE_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                executor.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            executor.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void stop(String mode) throws IOException {
+        long start = SandboxTimings.start();
+        try {
+            pgCtl("stop", "-D", dataDirectory.toString(), "-m", mode, "-w");
+        } finally {
+            SandboxTimings.record(SandboxPhase.STOP_SERVER, name(), start);
+        }
+    }
+
+    private void start() throws IOException {
+        long start = SandboxTimings.start();
+        try {
+            List<String> args = new ArrayList<>();
+            args.add("start");
+            args.add("-D");
+            args.add(dataDirectory.toString());
+            args.add("-l");
+            args.add(dataDirectory.resolveSibling(name() + ".log").toString());
+            args.add("-w");
+            args.add("-t");
+            args.add(String.valueOf(START_TIMEOUT_SECONDS));
+            if (serverOptions != null) {
+                args.add("-o");
+                args.add(serverOptions);
+            }
+            pgCtl(args.toArray(String[]::new));
+        } finally {
+            SandboxTimings.record(SandboxPhase.START_SERVER, name(), start);
+        }
+    }
+
+    private void pgCtl(String... args) throws IOException {
+        List<String> command = new ArrayList<>();
+        command.add(pgCtl.toString());
+        command.addAll(List.of(args));
+        exec(command);
+    }
+
+    /** Copies {@code from} to the new directory {@code to}, sharing extents where possible. */
+    private static void copy(Path from, Path to) throws IOException {
+        exec(List.of("cp", "-a", "--reflink=auto", from.toString(), to.toString()));
+    }
+
+    private static void exec(List<String> command) throws IOException {
+        ExternalProcess.run(new ProcessBuilder(command));
+    }
+
+    /** Deletes used data directories a previous run did not get to. */
+    private void deleteLeftovers() throws IOException {
+        Path parent = dataDirectory.getParent();
+        if (parent == null) {
+            return;
+        }
+        try (DirectoryStream<Path> leftovers =
+                Files.newDirectoryStream(parent, name() + TRASH_SUFFIX + "*")) {
+            for (Path leftover : leftovers) {
+                deleteQuietly(leftover);
+            }
+        }
+    }
+
+    private void deleteQuietly(Path dir) {
+        try {
+            deleteTree(dir);
+        } catch (IOException | UncheckedIOException e) {
+            log.warn("Could not delete used data directory “{}”: {}", dir, e.getMessage());
+        }
+    }
+
+    private static void deleteTree(Path dir) throws IOException {
+        Files.walkFileTree(
+                dir,
+                new SimpleFileVisitor<>() {
+                    @Override
+                    public FileVisitResult visitFile(Path file, BasicFileAttributes attrs)
+                            throws IOException {
+                        Files.delete(file);
+                        return FileVisitResult.CONTINUE;
+                    }
+
+                    @Override
+                    public FileVisitResult postVisitDirectory(Path d, IOException e)
+                            throws IOException {
+                        if (e != null) {
+                            throw e;
+                        }
+                        Files.delete(d);
+                        return FileVisitResult.CONTINUE;
+                    }
+                });
+    }
+
+    private String name() {
+        return dataDirectory.getFileName().toString();
+    }
+}
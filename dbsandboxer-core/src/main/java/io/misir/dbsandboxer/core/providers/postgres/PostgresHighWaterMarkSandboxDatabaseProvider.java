@@ -0,0 +1,251 @@
+package io.misir.dbsandboxer.core.providers.postgres;
+
+/**
+ * PostgreSQL provider for tests that only add rows: it deletes the rows above each table's
+ * high-water mark instead of recreating the database.
+ *
+ * <p>{@link #prepareSandbox()} copies the template to {@code <template>_hwm} and installs a {@code
+ * dbsandboxer} schema into the copy. It records the highest primary key of every table keyed by a
+ * single integer column, the initial value of every sequence, and statement-level triggers that use
+ * transition tables to check which rows a statement touched. The copy is reused across runs until
+ * the template is rebuilt, and full clones of the sandbox are made from it like {@link
+ * PostgresSandboxDatabaseProvider} does, so they come with the schema installed. Later rebuilds
+ * delete the rows above the recorded marks from the tables that were inserted into, one {@code
+ * DELETE} per table, and reset all sequences, in a single server-side call. No row of the template
+ * is copied.
+ *
+ * <p>The rebuild falls back to a full clone when a test updated or deleted a template row, inserted
+ * a row at or below a mark, truncated a table, wrote to a table without such a key, or changed the
+ * schema. Use {@link PostgresTableResetSandboxDatabaseProvider} for tests that modify fixture data
+ * routinely.
+ *
+ * <p>The admin user must be a superuser: the reset disables triggers and foreign key checks with
+ * {@code session_replication_role}, and event triggers require superuser rights. Call {@link
+ * #close()} to release the session held on the sandbox database.
+ *
+ * @author Fethullah Misir
+ */
+public final class PostgresHighWaterMarkSandboxDatabaseProvider
+        extends TrackingPostgresSandboxDatabaseProvider {
+
+    private static final String INSTALL_TRACKING =
+            """
+            CREATE SCHEMA dbsandboxer;
+
+            -- tables whose template rows changed; relid 0 marks a schema change
+            CREATE TABLE dbsandboxer.modified_tables (relid oid PRIMARY KEY);
+
+            CREATE TABLE dbsandboxer.inserted_tables (relid oid PRIMARY KEY);
+
+            CREATE TABLE dbsandboxer.marks (
+                relid  oid PRIMARY KEY,
+                target text NOT NULL,
+                key    name NOT NULL,
+                high   bigint
+            );
+
+            CREATE TABLE dbsandboxer.sequences AS
+                SELECT format('%I.%I', schemaname, sequencename)::regclass AS seq,
+                       start_value,
+                       last_value
+                FROM   pg_sequences
+                WHERE  schemaname NOT IN ('dbsandboxer', 'information_schema')
+                AND    schemaname NOT LIKE 'pg\\_%';
+
+            CREATE FUNCTION dbsandboxer.mark_modified() RETURNS trigger
+            LANGUAGE plpgsql SECURITY DEFINER SET search_path = pg_catalog AS $$
+            BEGIN
+                INSERT INTO dbsandboxer.modified_tables VALUES (TG_RELID) ON CONFLICT DO NOTHING;
+                RETURN NULL;
+            END $$;
+
+            -- a statement touching a row at or below the mark changed the template's rows
+            CREATE FUNCTION dbsandboxer.check_rows() RETURNS trigger
+            LANGUAGE plpgsql SECURITY DEFINER SET search_path = pg_catalog AS $$
+            DECLARE
+                m       dbsandboxer.marks;
+                touched boolean;
+            BEGIN
+                SELECT * INTO m FROM dbsandboxer.marks WHERE relid = TG_RELID;
+                IF TG_OP = 'INSERT' THEN
+                    INSERT INTO dbsandboxer.inserted_tables VALUES (TG_RELID) ON CONFLICT DO NOTHING;
+                END IF;
+                IF TG_OP IN ('UPDATE', 'DELETE') THEN
+                    EXECUTE format('SELECT EXISTS (SELECT 1 FROM old_rows WHERE %I <= $1)', m.key)
+                        INTO touched USING m.high;
+                END IF;
+                IF TG_OP IN ('INSERT', 'UPDATE') AND touched IS NOT TRUE THEN
+                    EXECUTE format('SELECT EXISTS (SELECT 1 FROM new_rows WHERE %I <= $1)', m.key)
+                        INTO touched USING m.high;
+                END IF;
+                IF touched THEN
+                    INSERT INTO dbsandboxer.modified_tables VALUES (TG_RELID) ON CONFLICT DO NOTHING;
+                END IF;
+                RETURN NULL;
+            END $$;
+
+            CREATE FUNCTION dbsandboxer.mark_ddl() RETURNS event_trigger
+            LANGUAGE plpgsql SECURITY DEFINER SET search_path = pg_catalog AS $$
+            BEGIN
+                INSERT INTO dbsandboxer.modified_tables VALUES (0) ON CONFLICT DO NOTHING;
+            END $$;
+
+            DO $$
+            DECLARE
+                r    record;
+                high bigint;
+            BEGIN
+                FOR r IN
+                    SELECT c.oid,
+                           format('%I.%I', n.nspname, c.relname) AS target,
+                           (SELECT a.attname
+                            FROM   pg_index i
+                            JOIN   pg_attribute a
+                                   ON a.attrelid = i.indrelid AND a.attnum = i.indkey[0]
+                            WHERE  i.indrelid = c.oid AND i.indisprimary AND i.indnatts = 1
+                            AND    a.atttypid IN ('int2'::regtype, 'int4'::regtype, 'int8'::regtype)
+                            AND    c.relkind = 'r' AND NOT c.relispartition) AS key
+                    FROM   pg_class c
+                    JOIN   pg_namespace n ON n.oid = c.relnamespace
+                    WHERE  c.relkind IN ('r', 'p')
+                    AND    n.nspname NOT IN ('dbsandboxer', 'information_schema')
+                    AND    n.nspname NOT LIKE 'pg\\_%'
+                LOOP
+                    IF r.key IS NULL THEN
+                        EXECUTE format(
+                            'CREATE TRIGGER dbsandboxer_hwm'
+                            ' AFTER INSERT OR UPDATE OR DELETE OR TRUNCATE ON %s'
+                            ' FOR EACH STATEMENT EXECUTE FUNCTION dbsandboxer.mark_modified()',
+                            r.target);
+                        CONTINUE;
+                    END IF;
+
+                    EXECUTE format('SELECT max(%I) FROM %s', r.key, r.target) INTO high;
+                    INSERT INTO dbsandboxer.marks VALUES (r.oid, r.target, r.key, high);
+
+                    EXECUTE format(
+                        'CREATE TRIGGER dbsandboxer_hwm_insert AFTER INSERT ON %s'
+                        ' REFERENCING NEW TABLE AS new_rows'
+                        ' FOR EACH STATEMENT EXECUTE FUNCTION dbsandboxer.check_rows()',
+                        r.target);
+                    EXECUTE format(
+                        'CREATE TRIGGER dbsandboxer_hwm_update AFTER UPDATE ON %s'
+                        ' REFERENCING OLD TABLE AS old_rows NEW TABLE AS new_rows'
+                        ' FOR EACH STATEMENT EXECUTE FUNCTION dbsandboxer.check_rows()',
+                        r.target);
+                    EXECUTE format(
+                        'CREATE TRIGGER dbsandboxer_hwm_delete AFTER DELETE ON %s'
+                        ' REFERENCING OLD TABLE AS old_rows'
+                        ' FOR EACH STATEMENT EXECUTE FUNCTION dbsandboxer.check_rows()',
+                        r.target);
+                    EXECUTE format(
+                        'CREATE TRIGGER dbsandboxer_hwm_truncate AFTER TRUNCATE ON %s'
+                        ' FOR EACH STATEMENT EXECUTE FUNCTION dbsandboxer.mark_modified()',
+                        r.target);
+                END LOOP;
+            END $$;
+
+            CREATE FUNCTION dbsandboxer.restore() RETURNS boolean
+            LANGUAGE plpgsql AS $$
+            DECLARE
+                r record;
+            BEGIN
+                IF EXISTS (SELECT 1 FROM dbsandboxer.modified_tables) THEN
+                    RETURN false;
+                END IF;
+
+                SET LOCAL session_replication_role = replica;
+
+                FOR r IN
+                    SELECT m.*
+                    FROM   dbsandboxer.marks m
+                    JOIN   dbsandboxer.inserted_tables USING (relid)
+                LOOP
+                    IF r.high IS NULL THEN
+                        EXECUTE format('DELETE FROM %s', r.target);
+                    ELSE
+                        EXECUTE format('DELETE FROM %s WHERE %I > $1', r.target, r.key)
+                            USING r.high;
+                    END IF;
+                END LOOP;
+
+                PERFORM setval(seq, coalesce(last_value, start_value), last_value IS NOT NULL)
+                FROM    dbsandboxer.sequences;
+
+                TRUNCATE dbsandboxer.inserted_tables;
+                RETURN true;
+            END $$;
+
+            CREATE EVENT TRIGGER dbsandboxer_ddl ON ddl_command_end
+                EXECUTE FUNCTION dbsandboxer.mark_ddl();
+            """;
+
+    /** Clones from the template with the tracking installed, set up on first use. */
+    private PostgresSandboxDatabaseProvider trackedProvider;
+
+    /**
+     * Creates a new high-water mark reset provider.
+     *
+     * @param host the database host
+     * @param port the database port (1-65535)
+     * @param adminDatabaseName the admin/maintenance database name (usually "postgres")
+     * @param adminUser the admin user, a superuser with CREATE DATABASE privileges
+     * @param adminPassword the admin user's password
+     * @param primaryDatabaseName the name of the primary database to sandbox
+     * @param templateDatabaseName the name of the template database to create
+     * @throws IllegalArgumentException if port is out of range, database names are invalid or the
+     *     template name leaves no room for the {@code _hwm} suffix
+     * @throws NullPointerException if any required parameter is null
+     */
+    public PostgresHighWaterMarkSandboxDatabaseProvider(
+            String host,
+            int port,
+            String adminDatabaseName,
+            String adminUser,
+            String adminPassword,
+            String primaryDatabaseName,
+            String templateDatabaseName) {
+        super(
+                host,
+                port,
+                adminDatabaseName,
+                adminUser,
+                adminPassword,
+                primaryDatabaseName,
+                templateDatabaseName,
+                "_hwm");
+    }
+
+    /**
+     * Creates a high-water mark reset provider that falls back to {@code cloneProvider} for full
+     * clones, so its {@code with...} settings apply to them.
+     *
+     * @param cloneProvider the provider that prepares the template and clones the sandbox
+     * @throws IllegalArgumentException if its template name leaves no room for the {@code _hwm}
+     *     suffix
+     */
+    public PostgresHighWaterMarkSandboxDatabaseProvider(
+            PostgresSandboxDatabaseProvider cloneProvider) {
+        super(cloneProvider, "_hwm");
+    }
+
+    @Override
+    public synchronized void prepareSandbox() {
+        super.prepareSandbox();
+        trackedProvider();
+    }
+
+    /** Clones the copy of the template that has the tracking schema and marks installed. */
+    @Override
+    void cloneWithTracking() {
+        trackedProvider().recreateSandbox();
+    }
+
+    private PostgresSandboxDatabaseProvider trackedProvider() {
+        if (trackedProvider == null) {
+            trackedProvider =
+                    cloneProvider.withDerivedTemplate(derivedTemplateName, INSTALL_TRACKING);
+        }
+        return trackedProvider;
+    }
+}
@@ -0,0 +1,428 @@
+package io.misir.dbsandboxer.core.providers.postgres;
+
+import io.misir.dbsandboxer.core.api.SandboxDatabaseProvider;
+import io.misir.dbsandboxer.core.api.SandboxException;
+import io.misir.dbsandboxer.core.api.SandboxLease;
+import io.misir.dbsandboxer.core.api.SandboxPhase;
+import io.misir.dbsandboxer.core.api.SandboxTimings;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.*;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * PostgreSQL provider that spreads sandboxes over several servers.
+ *
+ * <p>Every {@code CREATE DATABASE ... TEMPLATE} on a server takes a lock on its template, so forks
+ * sharing one server clone one at a time. This provider keeps a copy of the template on each of a
+ * list of endpoints, e.g. several local PostgreSQL instances on different ports, and puts each
+ * caller on the least busy one.
+ *
+ * <p>{@link #prepareSandbox()} prepares the template on the first endpoint as {@link
+ * PostgresSandboxDatabaseProvider} does, from the primary database or its template builder. Other
+ * endpoints lacking the template get a copy of it through {@code pg_dump} and {@code pg_restore},
+ * unless a template builder is set, which then builds the template on each endpoint. The primary
+ * database only has to exist on the first endpoint.
+ *
+ * <p>{@link #rebuildSandbox()} rebuilds the sandbox on the endpoint this provider was assigned on
+ * first use: the one with the fewest client connections. Forks starting at the same time pick from
+ * different endpoints on ties. Use {@link #getJdbcUrl()} to point the application at it. {@link
+ * #acquire()} picks an endpoint per lease instead, preferring those with fewer leases of this
+ * provider.
+ *
+ * @author Fethullah Misir
+ */
+public final class PostgresMultiNodeSandboxDatabaseProvider
+        implements SandboxDatabaseProvider, AutoCloseable {
+
+    private static final Logger log =
+            LoggerFactory.getLogger(PostgresMultiNodeSandboxDatabaseProvider.class);
+
+    private static final int DEFAULT_PORT = 5432;
+
+    /** Parallel jobs of {@code pg_dump} when copying the template to other endpoints. */
+    private static final int DUMP_JOBS = 4;
+
+    private static final String CLIENT_BACKENDS =
+            """
+              SELECT count(*) FROM pg_stat_activity WHERE backend_type = 'client backend'
+            """;
+
+    private final List<PostgresSandboxDatabaseProvider> nodes;
+    private final List<String> endpoints;
+    private final Path pgDump;
+
+    /** Leases of this provider that are open, per endpoint. */
+    private final AtomicIntegerArray leases;
+
+    /** The endpoint {@link #rebuildSandbox()} uses, picked on first use. */
+    private volatile PostgresSandboxDatabaseProvider assigned;
+
+    /**
+     * Creates a new multi-node PostgreSQL sandbox database provider.
+     *
+     * @param endpoints the servers, as {@code host:port} or {@code host}; the primary database must
+     *     exist on the first
+     * @param adminDatabaseName the admin/maintenance database name (usually "postgres")
+     * @param adminUser the admin user with CREATE DATABASE privileges on every server
+     * @param adminPassword the admin user's password
+     * @param primaryDatabaseName the name of the primary database to sandbox
+     * @param templateDatabaseName the name of the template database to create
+     * @throws IllegalArgumentException if there are no endpoints, a port is out of range or
+     *     database names are invalid
+     * @throws NullPointerException if any required parameter is null
+     */
+    public PostgresMultiNodeSandboxDatabaseProvider(
+            List<String> endpoints,
+            String adminDatabaseName,
+            String adminUser,
+            String adminPassword,
+            String primaryDatabaseName,
+            String templateDatabaseName) {
+        this(
+                new PostgresSandboxDatabaseProvider(
+                        host(first(endpoints)),
+                        port(first(endpoints)),
+                        adminDatabaseName,
+                        adminUser,
+                        adminPassword,
+                        primaryDatabaseName,
+                        templateDatabaseName),
+                endpoints);
+    }
+
+    /**
+     * Creates a multi-node provider with the names, credentials and settings of {@code prototype}.
+     *
+     * <p>The prototype's own host and port are not used unless listed in {@code endpoints}; its
+     * {@code with...} settings apply on every endpoint.
+     *
+     * @param prototype the provider to replicate on each endpoint
+     * @param endpoints the servers, as {@code host:port} or {@code host}; the primary database must
+     *     exist on the first
+     * @throws IllegalArgumentException if there are no endpoints or a port is out of range
+     * @throws NullPointerException if any parameter is null
+     */
+    public PostgresMultiNodeSandboxDatabaseProvider(
+            PostgresSandboxDatabaseProvider prototype, List<String> endpoints) {
+        this(nodes(prototype, endpoints), List.copyOf(endpoints), Path.of("pg_dump"));
+    }
+
+    private PostgresMultiNodeSandboxDatabaseProvider(
+            List<PostgresSandboxDatabaseProvider> nodes, List<String> endpoints, Path pgDump) {
+        this.nodes = nodes;
+        this.endpoints = endpoints;
+        this.pgDump = pgDump;
+        this.leases = new AtomicIntegerArray(nodes.size());
+    }
+
+    /**
+     * Returns a provider that copies the template with the given {@code pg_dump} executable.
+     *
+     * <p>Defaults to {@code pg_dump} on the {@code PATH}. Its major version must not be older than
+     * the servers'.
+     *
+     * @param executable the {@code pg_dump} executable
+     * @return a provider with the given setting
+     * @throws NullPointerException if executable is null
+     */
+    public PostgresMultiNodeSandboxDatabaseProvider withPgDump(Path executable) {
+        return new PostgresMultiNodeSandboxDatabaseProvider(
+                nodes, endpoints, Objects.requireNonNull(executable, "executable cannot be null"));
+    }
+
+    /**
+     * Returns the endpoints this provider spreads sandboxes over.
+     *
+     * @return the endpoints, in the order given
+     */
+    public List<String> getEndpoints() {
+        return endpoints;
+    }
+
+    /**
+     * Returns a JDBC URL for the sandbox this provider rebuilds, without credentials.
+     *
+     * <p>The endpoint is assigned on the first call to this method or {@link #rebuildSandbox()}.
+     *
+     * @return the JDBC URL of the sandbox on the assigned endpoint
+     */
+    public String getJdbcUrl() {
+        PostgresSandboxDatabaseProvider node = assigned();
+        return node.admin().url(node.getSandboxDatabaseName());
+    }
+
+    /**
+     * Prepares the template on every endpoint, once per JVM.
+     *
+     * <p>The first endpoint is prepared first; the other endpoints are then prepared concurrently.
+     */
+    @Override
+    public void prepareSandbox() {
+        PostgresSandboxDatabaseProvider source = nodes.get(0);
+        source.prepareSandbox();
+        List<PostgresSandboxDatabaseProvider> others = nodes.subList(1, nodes.size());
+        if (others.isEmpty()) {
+            return;
+        }
+        boolean copy =
+                source.templateBuilder() == null
+                        && others.stream().anyMatch(PostgresSandboxDatabaseProvider::needsTemplate);
+        if (!copy) {
+            forEach(others, PostgresSandboxDatabaseProvider::prepareSandbox);
+            return;
+        }
+        long start = SandboxTimings.start();
+        Path dir = null;
+        try {
+            dir = Files.createTempDirectory("dbsandboxer-dump");
+            Path dump = dir.resolve(source.templateName());
+            log.info(
+                    "Copying template “{}” from {} to the other endpoints.",
+                    source.templateName(),
+                    endpoints.get(0));
+            source.admin()
+                    .runTool(
+                            List.of(
+                                    pgDump.toString(),
+                                    "--format=directory",
+                                    "--jobs=" + DUMP_JOBS,
+                                    "--no-owner",
+                                    "--no-privileges",
+                                    "--file=" + dump,
+                                    source.templateName()));
+            PostgresTemplateBuilder restore =
+                    new PostgresTemplateBuilder().withPgDumpDirectory(dump);
+            forEach(others, node -> node.withTemplateBuilder(restore).prepareSandbox());
+        } catch (IOException e) {
+            throw new SandboxException("Failed to copy template " + source.templateName(), e);
+        } finally {
+            deleteRecursively(dir);
+            SandboxTimings.record(SandboxPhase.PREPARE, source.templateName(), start);
+        }
+    }
+
+    /**
+     * Drops the sandbox on the assigned endpoint and recreates it from that endpoint's template.
+     */
+    @Override
+    public void rebuildSandbox() {
+        assigned().rebuildSandbox();
+    }
+
+    /**
+     * Rebuilds a sandbox on the endpoint with the fewest open leases of this provider and leases
+     * it.
+     *
+     * <p>Endpoints with as many leases are ranked by their client connections. The lease waits if
+     * the sandbox on the chosen endpoint is still leased.
+     */
+    @Override
+    public SandboxLease acquire() {
+        int index;
+        synchronized (leases) {
+            index = leastLoaded(true);
+            leases.incrementAndGet(index);
+        }
+        SandboxLease lease;
+        try {
+            lease = nodes.get(index).acquire();
+        } catch (RuntimeException e) {
+            leases.decrementAndGet(index);
+            throw e;
+        }
+        return new NodeLease(lease, () -> leases.decrementAndGet(index));
+    }
+
+    @Override
+    public boolean isSandboxModified() {
+        return assigned().isSandboxModified();
+    }
+
+    /** Closes the idle admin sessions to every endpoint. */
+    @Override
+    public void close() {
+        nodes.forEach(PostgresSandboxDatabaseProvider::close);
+    }
+
+    private PostgresSandboxDatabaseProvider assigned() {
+        PostgresSandboxDatabaseProvider node = assigned;
+        if (node == null) {
+            synchronized (leases) {
+                if (assigned == null) {
+                    int index = leastLoaded(false);
+                    log.info("Sandboxes of this JVM use endpoint {}.", endpoints.get(index));
+                    assigned = nodes.get(index);
+                }
+                node = assigned;
+            }
+        }
+        return node;
+    }
+
+    /**
+     * The index of the endpoint with the fewest client connections, after the fewest leases if
+     * {@code byLeases}. Ties go to the first endpoint from an offset given by the process id, so
+     * forks starting together pick different endpoints.
+     */
+    private int leastLoaded(boolean byLeases) {
+        int size = nodes.size();
+        int offset = (int) (ProcessHandle.current().pid() % size);
+        List<Load> loads = new ArrayList<>(size);
+        for (int k = 0; k < size; k++) {
+            int index = (offset + k) % size;
+            loads.add(
+                    new Load(
+                            index,
+                            byLeases ? leases.get(index) : 0,
+                            clientBackends(nodes.get(index))));
+        }
+        return loads.stream()
+                .min(Comparator.comparingInt(Load::leases).thenComparingLong(Load::clientBackends))
+                .orElseThrow()
+                .index();
+    }
+
+    private long clientBackends(PostgresSandboxDatabaseProvider node) {
+        try {
+            return node.admin()
+                    .call(
+                            c -> {
+                                try (Statement stmt = c.createStatement();
+                                        ResultSet rs = stmt.executeQuery(CLIENT_BACKENDS)) {
+                                    rs.next();
+                                    return rs.getLong(1);
+                                }
+                            });
+        } catch (SQLException e) {
+            throw new SandboxException("Failed to read the load of " + node.admin().adminUrl(), e);
+        }
+    }
+
+    /** Runs {@code work} for each node concurrently, rethrowing the first failure. */
+    private static void forEach(
+            List<PostgresSandboxDatabaseProvider> nodes,
+            Consumer<PostgresSandboxDatabaseProvider> work) {
+        ExecutorService executor =
+                Executors.newFixedThreadPool(
+                        nodes.size(),
+                        r -> {
+                            Thread t = new Thread(r, "dbsandboxer-prepare");
+                            t.setDaemon(true);
+                            return t;
+                        });
+        try {
+            CompletableFuture.allOf(
+                            nodes.stream()
+                                    .map(
+                                            node ->
+                                                    CompletableFuture.runAsync(
+                                                            () -> work.accept(node), executor))
+                                    .toArray(CompletableFuture[]::new))
+                    .join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw e;
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private static void deleteRecursively(Path dir) {
+        if (dir == null) {
+            return;
+        }
+        try (Stream<Path> files = Files.walk(dir)) {
+            files.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+        } catch (IOException e) {
+            log.warn("Could not delete {}: {}", dir, e.getMessage());
+        }
+    }
+
+    private static List<PostgresSandboxDatabaseProvider> nodes(
+            PostgresSandboxDatabaseProvider prototype, List<String> endpoints) {
+        Objects.requireNonNull(prototype, "prototype cannot be null");
+        first(endpoints);
+        List<PostgresSandboxDatabaseProvider> nodes = new ArrayList<>(endpoints.size());
+        for (String endpoint : endpoints) {
+            nodes.add(prototype.onServer(host(endpoint), port(endpoint)));
+        }
+        return List.copyOf(nodes);
+    }
+
+    private static String first(List<String> endpoints) {
+        Objects.requireNonNull(endpoints, "endpoints cannot be null");
+        if (endpoints.isEmpty()) {
+            throw new IllegalArgumentException("endpoints cannot be empty");
+        }
+        return endpoints.get(0);
+    }
+
+    private static String host(String endpoint) {
+        Objects.requireNonNull(endpoint, "endpoint cannot be null");
+        int colon = endpoint.lastIndexOf(':');
+        return colon < 0 ? endpoint : endpoint.substring(0, colon);
+    }
+
+    private static int port(String endpoint) {
+        Objects.requireNonNull(endpoint, "endpoint cannot be null");
+        int colon = endpoint.lastIndexOf(':');
+        if (colon < 0) {
+            return DEFAULT_PORT;
+        }
+        try {
+            return Integer.parseInt(endpoint.substring(colon + 1));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid port in endpoint: " + endpoint, e);
+        }
+    }
+
+    private record Load(int index, int leases, long clientBackends) {}
+
+    /** A lease on one endpoint that also hands back its slot in {@link #leases}. */
+    private static final class NodeLease implements SandboxLease {
+
+        private final SandboxLease lease;
+        private final Runnable onClose;
+        private final AtomicBoolean closed = new AtomicBoolean();
+
+        NodeLease(SandboxLease lease, Runnable onClose) {
+            this.lease = lease;
+            this.onClose = onClose;
+        }
+
+        @Override
+        public String getDatabaseName() {
+            return lease.getDatabaseName();
+        }
+
+        @Override
+        public String getJdbcUrl() {
+            return lease.getJdbcUrl();
+        }
+
+        @Override
+        public void close() {
+            if (closed.compareAndSet(false, true)) {
+                lease.close();
+                onClose.run();
+            }
+        }
+    }
+}
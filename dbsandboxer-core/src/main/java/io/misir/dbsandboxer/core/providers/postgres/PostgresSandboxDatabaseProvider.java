@@ -2,9 +2,15 @@ package io.misir.dbsandboxer.core.providers.postgres;
 
 import io.misir.dbsandboxer.core.api.SandboxDatabaseProvider;
 import io.misir.dbsandboxer.core.api.SandboxException;
+import io.misir.dbsandboxer.core.api.SandboxLease;
+import io.misir.dbsandboxer.core.api.SandboxPhase;
+import io.misir.dbsandboxer.core.api.SandboxTimings;
 import java.sql.*;
+import java.util.HashSet;
 import java.util.Objects;
-import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.regex.Pattern;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -21,24 +27,60 @@ import org.slf4j.LoggerFactory;
  *
  * @author Fethullah Misir
  */
-public final class PostgresSandboxDatabaseProvider implements SandboxDatabaseProvider {
+public final class PostgresSandboxDatabaseProvider
+        implements SandboxDatabaseProvider, AutoCloseable {
 
     private static final Logger log =
             LoggerFactory.getLogger(PostgresSandboxDatabaseProvider.class);
 
-    private static final AtomicBoolean TEMPLATE_READY = new AtomicBoolean(false);
-    private static final Pattern SAFE_DB_NAME = Pattern.compile("^[a-zA-Z_][a-zA-Z0-9_]*$");
-    private static final int MIN_PORT = 1;
-    private static final int MAX_PORT = 65535;
+    /**
+     * Templates known to exist, keyed by admin URL and template name. Building them is coordinated
+     * across JVMs by an advisory lock on the template name.
+     */
+    private static final Set<String> TEMPLATE_READY = ConcurrentHashMap.newKeySet();
+
+    /** From PostgreSQL 15 on, backends flush their statistics before they disappear. */
+    private static final int STATS_FLUSHED_ON_EXIT_VERSION = 15;
+
+    private static final long TERMINATE_WAIT_MILLIS = 5_000;
+
+    /** {@code CREATE DATABASE ... STRATEGY} was added in PostgreSQL 15. */
+    private static final int CLONE_STRATEGY_VERSION = 15;
+
+    /** Prefix of the database comment that stamps a template with its fingerprint. */
+    private static final String FINGERPRINT_COMMENT_PREFIX = "dbsandboxer:fingerprint=";
+
+    /** Prefix of the comment that stamps a derived template with the OID of its source. */
+    private static final String DERIVED_COMMENT_PREFIX = "dbsandboxer:source=";
 
-    private final String host;
-    private final int port;
-    private final String adminDatabase;
-    private final String adminUser;
-    private final String adminPassword;
+    private static final Pattern SAFE_FINGERPRINT = Pattern.compile("^[A-Za-z0-9._:+/=-]{1,256}$");
+
+    /** Space reserved for the {@code _trash_<pid>_<n>} suffix of renamed sandboxes. */
+    private static final int TOMBSTONE_SUFFIX_RESERVE = 28;
+
+    private static final AtomicLong TOMBSTONES = new AtomicLong();
+
+    /** Sandboxes whose tombstones from earlier runs were handed to the reaper, by admin URL. */
+    private static final Set<String> TOMBSTONES_SWEPT = ConcurrentHashMap.newKeySet();
+
+    /** Template size from which {@link CloneStrategy#AUTO} copies files instead of WAL-logging. */
+    static final long FILE_COPY_MIN_TEMPLATE_BYTES = 64L * 1024 * 1024;
+
+    private final PostgresAdmin admin;
 
     private final String primaryDatabaseName;
     private final String templateName;
+    private final String sandboxName;
+    private final Settings settings;
+
+    /** Options appended to {@code CREATE DATABASE}, resolved on the first clone. */
+    private volatile String cloneOptions;
+
+    /** Write counters of the sandbox right after it was cloned, used to skip clean rebuilds. */
+    private volatile DatabaseActivity baseline;
+
+    /** Whether {@link #isSandboxModified()} was called, so clones record their baseline. */
+    private volatile boolean trackModifications;
 
     /**
      * Creates a new PostgreSQL sandbox database provider.
@@ -61,116 +103,845 @@ public final class PostgresSandboxDatabaseProvider implements SandboxDatabasePro
             String adminPassword,
             String primaryDatabaseName,
             String templateDatabaseName) {
-        this.host = Objects.requireNonNull(host, "host cannot be null");
+        this(
+                new PostgresAdmin(host, port, adminDatabaseName, adminUser, adminPassword),
+                primaryDatabaseName,
+                templateDatabaseName);
+    }
+
+    PostgresSandboxDatabaseProvider(
+            PostgresAdmin admin, String primaryDatabaseName, String templateDatabaseName) {
+        this(
+                admin,
+                primaryDatabaseName,
+                templateDatabaseName,
+                new Settings(
+                        primaryDatabaseName, false, CloneStrategy.AUTO, null, null, null, false));
+    }
 
-        if (port < MIN_PORT || port > MAX_PORT) {
+    private PostgresSandboxDatabaseProvider(
+            PostgresAdmin admin,
+            String primaryDatabaseName,
+            String templateDatabaseName,
+            Settings settings) {
+        this.admin = admin;
+        this.primaryDatabaseName =
+                PostgresAdmin.validateDatabaseName(primaryDatabaseName, "primaryDatabaseName");
+        this.templateName =
+                PostgresAdmin.validateDatabaseName(templateDatabaseName, "templateDatabaseName");
+        this.sandboxName =
+                PostgresAdmin.validateDatabaseName(settings.sandboxName(), "sandboxDatabaseName");
+        if (settings.tablespace() != null) {
+            PostgresAdmin.validateDatabaseName(settings.tablespace(), "tablespace");
+        }
+        if (settings.deferredDrop()
+                && sandboxName.length()
+                        > PostgresAdmin.MAX_IDENTIFIER_LENGTH - TOMBSTONE_SUFFIX_RESERVE) {
             throw new IllegalArgumentException(
-                    "Port must be between " + MIN_PORT + " and " + MAX_PORT + ", got: " + port);
+                    "sandboxDatabaseName is too long for deferred drops (max "
+                            + (PostgresAdmin.MAX_IDENTIFIER_LENGTH - TOMBSTONE_SUFFIX_RESERVE)
+                            + " characters): "
+                            + sandboxName);
         }
-        this.port = port;
+        this.settings = settings;
+    }
 
-        this.adminDatabase = validateDatabaseName(adminDatabaseName, "adminDatabaseName");
-        this.adminUser = Objects.requireNonNull(adminUser, "adminUser cannot be null");
-        this.adminPassword = Objects.requireNonNull(adminPassword, "adminPassword cannot be null");
-        this.primaryDatabaseName = validateDatabaseName(primaryDatabaseName, "primaryDatabaseName");
-        this.templateName = validateDatabaseName(templateDatabaseName, "templateDatabaseName");
+    /**
+     * Returns a provider that rebuilds {@code sandboxDatabaseName} instead of the primary database.
+     *
+     * <p>The returned provider shares the template with this one, which is still built from the
+     * primary database. This allows several sandboxes, e.g. one per parallel test worker, to be
+     * cloned from the same template without interfering with each other.
+     *
+     * @param sandboxDatabaseName the name of the database to rebuild from the template
+     * @return a provider for the given sandbox database
+     * @throws IllegalArgumentException if the database name is invalid
+     */
+    public PostgresSandboxDatabaseProvider withSandboxDatabase(String sandboxDatabaseName) {
+        return new PostgresSandboxDatabaseProvider(
+                admin,
+                primaryDatabaseName,
+                templateName,
+                settings.withSandboxName(sandboxDatabaseName));
     }
 
-    private static String validateDatabaseName(String name, String paramName) {
-        Objects.requireNonNull(name, paramName + " cannot be null");
-        if (!SAFE_DB_NAME.matcher(name).matches()) {
-            throw new IllegalArgumentException(
-                    paramName
-                            + " contains invalid characters. "
-                            + "Only alphanumeric characters and underscores are allowed: "
-                            + name);
+    /**
+     * Returns a provider that skips the rebuild when nothing was written to the sandbox since it
+     * was cloned.
+     *
+     * <p>Right after each clone the provider records the sandbox's {@code tup_inserted}, {@code
+     * tup_updated} and {@code tup_deleted} counters from {@code pg_stat_database}. Before the next
+     * rebuild it compares the counters again; if they are unchanged the drop and clone are skipped.
+     * Connections still open on a sandbox whose counters did not move are terminated and waited for
+     * first, so the writes they have not reported yet are counted too. Schema changes and {@code
+     * TRUNCATE} are detected through the catalog rows they write. Sequence advances through {@code
+     * nextval()} without any row written are not.
+     *
+     * <p>Requires PostgreSQL 15 or later, where backends flush their statistics when they exit. On
+     * older servers the sandbox is always rebuilt.
+     *
+     * @param skipCleanRebuilds whether to skip rebuilds of unmodified sandboxes
+     * @return a provider with the given setting
+     */
+    public PostgresSandboxDatabaseProvider withSkipCleanRebuilds(boolean skipCleanRebuilds) {
+        return new PostgresSandboxDatabaseProvider(
+                admin,
+                primaryDatabaseName,
+                templateName,
+                settings.withSkipCleanRebuilds(skipCleanRebuilds));
+    }
+
+    /**
+     * Returns a provider that clones the sandbox with the given {@code CREATE DATABASE} strategy.
+     *
+     * <p>By default ({@link CloneStrategy#AUTO}) the strategy is chosen from the size of the
+     * template on the first clone. Ignored on servers older than PostgreSQL 15.
+     *
+     * @param cloneStrategy the strategy to clone with
+     * @return a provider with the given setting
+     * @throws NullPointerException if cloneStrategy is null
+     */
+    public PostgresSandboxDatabaseProvider withCloneStrategy(CloneStrategy cloneStrategy) {
+        return new PostgresSandboxDatabaseProvider(
+                admin,
+                primaryDatabaseName,
+                templateName,
+                settings.withCloneStrategy(
+                        Objects.requireNonNull(cloneStrategy, "cloneStrategy cannot be null")));
+    }
+
+    /**
+     * Returns a provider that creates the sandbox in the given tablespace instead of the
+     * template's.
+     *
+     * <p>A tablespace on a RAM-backed file system, such as tmpfs, takes disk I/O out of the clone.
+     * The tablespace must exist and the admin user must have CREATE privilege on it.
+     *
+     * @param tablespace the tablespace name, or null for the template's tablespace
+     * @return a provider with the given setting
+     * @throws IllegalArgumentException if the tablespace name is invalid
+     */
+    public PostgresSandboxDatabaseProvider withTablespace(String tablespace) {
+        return new PostgresSandboxDatabaseProvider(
+                admin, primaryDatabaseName, templateName, settings.withTablespace(tablespace));
+    }
+
+    /**
+     * Returns a provider that stamps the template with {@code fingerprint} and rebuilds it when the
+     * stamp does not match.
+     *
+     * <p>Without a fingerprint, an existing template is reused as long as its name matches, even if
+     * the schema or fixtures have changed since it was built. With one, the template is reused
+     * across JVM runs only if it was built with the same fingerprint, e.g. a hash of the migration
+     * scripts and fixture files computed with {@link
+     * io.misir.dbsandboxer.core.api.TemplateFingerprint}. Otherwise it is dropped and built again
+     * from the primary database. The fingerprint is stored as the template's database comment.
+     *
+     * <p>Without a {@link #withTemplateBuilder(PostgresTemplateBuilder) template builder}, the
+     * primary database must then be clean when the next run starts: call {@link #rebuildSandbox()}
+     * once more after the last test if the sandbox is the primary database, so its writes do not
+     * end up in the rebuilt template.
+     *
+     * @param fingerprint the fingerprint of the template's contents, or null to match by name only
+     * @return a provider with the given setting
+     * @throws IllegalArgumentException if the fingerprint contains characters other than letters,
+     *     digits and {@code ._:+/=-}, or is longer than 256 characters
+     */
+    public PostgresSandboxDatabaseProvider withTemplateFingerprint(String fingerprint) {
+        if (fingerprint != null && !SAFE_FINGERPRINT.matcher(fingerprint).matches()) {
+            throw new IllegalArgumentException("Invalid template fingerprint: " + fingerprint);
         }
-        return name;
+        return new PostgresSandboxDatabaseProvider(
+                admin,
+                primaryDatabaseName,
+                templateName,
+                settings.withTemplateFingerprint(fingerprint));
+    }
+
+    /**
+     * Returns a provider that builds the template with {@code builder} instead of copying the
+     * primary database.
+     *
+     * <p>The primary database then does not need to exist before the first rebuild, which creates
+     * it from the template. Combine with {@link #withTemplateFingerprint(String)}, e.g. over the
+     * schema script and fixture files, so the template is rebuilt when they change.
+     *
+     * @param builder the template builder, or null to copy the primary database
+     * @return a provider with the given setting
+     */
+    public PostgresSandboxDatabaseProvider withTemplateBuilder(PostgresTemplateBuilder builder) {
+        return new PostgresSandboxDatabaseProvider(
+                admin, primaryDatabaseName, templateName, settings.withTemplateBuilder(builder));
+    }
+
+    /**
+     * Returns a provider that renames the used sandbox out of the way instead of dropping it.
+     *
+     * <p>{@code DROP DATABASE} unlinks every file of the database, a large part of a rebuild on
+     * file systems with many small files. With this setting, a rebuild renames the sandbox to a
+     * tombstone, {@code <sandbox>_trash_<pid>_<n>}, and clones the new sandbox right away. A
+     * background thread per server drops the tombstones in batches on a session of its own.
+     * Tombstones left by runs that did not finish are handed to it on the first rebuild, and {@link
+     * #close()} waits for the pending ones.
+     *
+     * <p>Until they are dropped, tombstones take up disk space.
+     *
+     * @param deferredDrop whether to drop used sandboxes in the background
+     * @return a provider with the given setting
+     * @throws IllegalArgumentException if the sandbox name leaves no room for the tombstone suffix
+     */
+    public PostgresSandboxDatabaseProvider withDeferredDrop(boolean deferredDrop) {
+        return new PostgresSandboxDatabaseProvider(
+                admin, primaryDatabaseName, templateName, settings.withDeferredDrop(deferredDrop));
+    }
+
+    /**
+     * Returns the name of the database this provider rebuilds.
+     *
+     * @return the sandbox database name, the primary database unless set through {@link
+     *     #withSandboxDatabase(String)}
+     */
+    public String getSandboxDatabaseName() {
+        return sandboxName;
+    }
+
+    PostgresAdmin admin() {
+        return admin;
+    }
+
+    /** This provider on another server, with the same names and settings. */
+    PostgresSandboxDatabaseProvider onServer(String host, int port) {
+        return new PostgresSandboxDatabaseProvider(
+                admin.onServer(host, port), primaryDatabaseName, templateName, settings);
+    }
+
+    /**
+     * This provider cloning from {@code derivedTemplate} instead, a copy of the template that
+     * {@code install} was run on.
+     *
+     * <p>The copy is stamped with the OID of the template it was made from and made again, under an
+     * advisory lock on its name, once the template was rebuilt. JVMs sharing the server then build
+     * it once, and sandboxes cloned from it inherit whatever {@code install} set up.
+     */
+    PostgresSandboxDatabaseProvider withDerivedTemplate(String derivedTemplate, String install) {
+        final String sql =
+                """
+                  SELECT t.oid, shobj_description(d.oid, 'pg_database'), d.oid IS NOT NULL
+                  FROM   pg_database t
+                  LEFT   JOIN pg_database d ON d.datname = ?
+                  WHERE  t.datname = ?
+                """;
+        String derived = PostgresAdmin.validateDatabaseName(derivedTemplate, "derivedTemplate");
+        long start = SandboxTimings.start();
+        try {
+            admin.runLocked(
+                    derived,
+                    c -> {
+                        String stamp;
+                        String comment;
+                        boolean exists;
+                        try (PreparedStatement ps = c.prepareStatement(sql)) {
+                            ps.setString(1, derived);
+                            ps.setString(2, templateName);
+                            try (ResultSet rs = ps.executeQuery()) {
+                                if (!rs.next()) {
+                                    throw new SQLException("No template " + templateName);
+                                }
+                                stamp = DERIVED_COMMENT_PREFIX + rs.getLong(1);
+                                comment = rs.getString(2);
+                                exists = rs.getBoolean(3);
+                            }
+                        }
+                        if (stamp.equals(comment)) {
+                            return;
+                        }
+                        log.info("Building template “{}” from “{}”…", derived, templateName);
+                        try (Statement s = c.createStatement()) {
+                            if (exists) {
+                                PostgresAdmin.terminateConnections(c, derived);
+                                s.execute("ALTER DATABASE " + derived + " IS_TEMPLATE false;");
+                                s.execute("DROP DATABASE " + derived + ';');
+                            }
+                            s.execute(
+                                    "CREATE DATABASE "
+                                            + derived
+                                            + " TEMPLATE "
+                                            + templateName
+                                            + ';');
+                        }
+                        try (Connection d = admin.connect(derived);
+                                Statement s = d.createStatement()) {
+                            s.execute(install);
+                        }
+                        try (Statement s = c.createStatement()) {
+                            s.execute("ALTER DATABASE " + derived + " IS_TEMPLATE true;");
+                            s.execute("COMMENT ON DATABASE " + derived + " IS '" + stamp + "';");
+                        }
+                    });
+        } catch (SQLException e) {
+            throw new SandboxException("Failed to build template " + derived, e);
+        } finally {
+            SandboxTimings.record(SandboxPhase.TEMPLATE, derived, start);
+        }
+        return new PostgresSandboxDatabaseProvider(admin, primaryDatabaseName, derived, settings);
+    }
+
+    PostgresTemplateBuilder templateBuilder() {
+        return settings.templateBuilder();
+    }
+
+    /** Whether {@link #prepareSandbox()} would build the template, ignoring the JVM's cache. */
+    boolean needsTemplate() {
+        return !templateExists() || isStale();
+    }
+
+    String primaryDatabaseName() {
+        return primaryDatabaseName;
+    }
+
+    String templateName() {
+        return templateName;
     }
 
     @Override
     public void prepareSandbox() {
-        if (TEMPLATE_READY.get()) {
+        String key = admin.adminUrl() + '/' + templateName + '#' + settings.templateFingerprint();
+        if (TEMPLATE_READY.contains(key)) {
             return;
         }
-        synchronized (TEMPLATE_READY) {
-            if (TEMPLATE_READY.get()) {
-                return;
-            }
-            if (!templateExists()) {
-                createTemplate();
-            }
-            TEMPLATE_READY.set(true);
+        long start = SandboxTimings.start();
+        try {
+            admin.runLocked(
+                    templateName,
+                    c -> {
+                        if (TEMPLATE_READY.contains(key)) {
+                            return;
+                        }
+                        if (!templateExists()) {
+                            createTemplate();
+                        } else if (isStale()) {
+                            log.info("Template “{}” does not match the fingerprint.", templateName);
+                            dropTemplate();
+                            createTemplate();
+                        } else if (settings.templateFingerprint() != null) {
+                            log.info("Reusing template “{}”, fingerprint matches.", templateName);
+                        }
+                        TEMPLATE_READY.add(key);
+                    });
+        } catch (SQLException e) {
+            throw new SandboxException("Failed to lock template " + templateName, e);
+        } finally {
+            SandboxTimings.record(SandboxPhase.PREPARE, templateName, start);
         }
     }
 
     /**
-     * Drops the application database and recreates it from the template.
+     * Creates the sandbox database as a copy of the primary database, unless it already exists.
+     *
+     * <p>Lets a sandbox other than the primary database, e.g. one per test JVM, start out with the
+     * primary database's schema and data before the application uses it, so the template can later
+     * be built from it. Connections to the primary database are terminated for the copy. Without a
+     * primary database, the sandbox is created empty.
+     */
+    public void createSandboxIfMissing() {
+        final String sql = "SELECT datname FROM pg_database WHERE datname IN (?, ?)";
+        try {
+            admin.runLocked(
+                    sandboxName,
+                    c -> {
+                        Set<String> existing = new HashSet<>();
+                        try (PreparedStatement ps = c.prepareStatement(sql)) {
+                            ps.setString(1, sandboxName);
+                            ps.setString(2, primaryDatabaseName);
+                            try (ResultSet rs = ps.executeQuery()) {
+                                while (rs.next()) {
+                                    existing.add(rs.getString(1));
+                                }
+                            }
+                        }
+                        if (existing.contains(sandboxName)) {
+                            return;
+                        }
+                        log.info("Creating sandbox “{}”.", sandboxName);
+                        try (Statement s = c.createStatement()) {
+                            if (existing.contains(primaryDatabaseName)) {
+                                PostgresAdmin.terminateConnections(c, primaryDatabaseName);
+                                s.execute(
+                                        "CREATE DATABASE "
+                                                + sandboxName
+                                                + " TEMPLATE "
+                                                + primaryDatabaseName
+                                                + ';');
+                            } else {
+                                s.execute("CREATE DATABASE " + sandboxName + ';');
+                            }
+                        }
+                    });
+        } catch (SQLException e) {
+            throw new SandboxException("Failed to create sandbox " + sandboxName, e);
+        }
+    }
+
+    /**
+     * Drops the sandbox database and recreates it from the template.
      *
      * <p>Very fast (milliseconds) because PostgreSQL copies the physical files instead of replaying
      * migrations.
      */
     @Override
     public void rebuildSandbox() {
-        try (Connection admin = DriverManager.getConnection(adminUrl(), adminUser, adminPassword);
-                Statement s = admin.createStatement()) {
-
-            terminateConnections(s, primaryDatabaseName);
-            s.execute("DROP DATABASE IF EXISTS " + primaryDatabaseName + ';');
-            s.execute("CREATE DATABASE " + primaryDatabaseName + " TEMPLATE " + templateName + ';');
+        long start = SandboxTimings.start();
+        try {
+            recreateSandbox();
+        } finally {
+            SandboxTimings.record(SandboxPhase.REBUILD, sandboxName, start);
+        }
+    }
 
+    /**
+     * Drops the sandbox database, e.g. a copy made through {@link #withSandboxDatabase(String)}
+     * that is no longer needed. Its connections are terminated first.
+     *
+     * @throws IllegalStateException if the sandbox is the primary database
+     */
+    public void dropSandbox() {
+        if (sandboxName.equals(primaryDatabaseName)) {
+            throw new IllegalStateException(
+                    "Cannot drop the primary database " + primaryDatabaseName);
+        }
+        long start = SandboxTimings.start();
+        try {
+            admin.run(
+                    c -> {
+                        PostgresAdmin.terminateConnections(c, sandboxName);
+                        try (Statement s = c.createStatement()) {
+                            s.execute("DROP DATABASE IF EXISTS " + sandboxName + ';');
+                        }
+                    });
         } catch (SQLException e) {
-            throw new SandboxException(e);
+            throw new SandboxException("Failed to drop sandbox " + sandboxName, e);
+        } finally {
+            SandboxTimings.record(SandboxPhase.DROP, sandboxName, start);
         }
     }
 
-    private boolean templateExists() {
-        final String sql = "SELECT 1 FROM pg_database WHERE datname = ? AND datistemplate";
-        try (Connection admin = DriverManager.getConnection(adminUrl(), adminUser, adminPassword);
-                PreparedStatement ps = admin.prepareStatement(sql)) {
+    /** Leases the sandbox once no other lease on the same database is open. */
+    @Override
+    public SandboxLease acquire() {
+        return PostgresSandboxLease.acquire(admin, sandboxName, this);
+    }
 
-            ps.setString(1, templateName);
-            return ps.executeQuery().next();
+    /** {@link #rebuildSandbox()} for providers that build on this one and time it themselves. */
+    void recreateSandbox() {
+        try {
+            admin.run(
+                    c -> {
+                        if (settings.skipCleanRebuilds() && isUnchanged(c)) {
+                            log.debug("Sandbox “{}” unchanged, skipping rebuild.", sandboxName);
+                            return;
+                        }
+                        PostgresAdmin.terminateConnections(c, sandboxName);
+                        if (settings.deferredDrop()) {
+                            burySandbox(c);
+                        } else {
+                            long start = SandboxTimings.start();
+                            try (Statement s = c.createStatement()) {
+                                s.execute("DROP DATABASE IF EXISTS " + sandboxName + ';');
+                            } finally {
+                                SandboxTimings.record(SandboxPhase.DROP, sandboxName, start);
+                            }
+                        }
+                        cloneTemplate(c, sandboxName);
+                        if (settings.skipCleanRebuilds() || trackModifications) {
+                            baseline = readActivity(c);
+                        }
+                    });
+        } catch (SQLException e) {
+            throw new SandboxException(e);
+        }
+    }
 
+    /**
+     * Compares the sandbox's write counters with those taken after the last clone, as described for
+     * {@link #withSkipCleanRebuilds(boolean)}.
+     *
+     * <p>The sandbox's connections are only terminated, to flush their statistics, if the counters
+     * did not move while connections are open. The first call only starts recording the counters
+     * and returns {@code true}, as do calls on servers older than PostgreSQL 15.
+     */
+    @Override
+    public boolean isSandboxModified() {
+        trackModifications = true;
+        try {
+            return !admin.call(this::isUnchanged);
         } catch (SQLException e) {
             throw new SandboxException(e);
         }
     }
 
-    private void createTemplate() {
-        log.info("Building template database “{}”…", templateName);
-        try (Connection admin = DriverManager.getConnection(adminUrl(), adminUser, adminPassword);
-                Statement s = admin.createStatement()) {
+    /**
+     * Renames the sandbox to a tombstone and hands it to the reaper, together with the tombstones
+     * of earlier runs the first time.
+     */
+    private void burySandbox(Connection c) throws SQLException {
+        PostgresTombstoneReaper reaper = PostgresTombstoneReaper.of(admin);
+        if (TOMBSTONES_SWEPT.add(admin.adminUrl() + '/' + sandboxName)) {
+            try (PreparedStatement ps =
+                    c.prepareStatement("SELECT datname FROM pg_database WHERE datname LIKE ?")) {
+                ps.setString(1, sandboxName + "\\_trash\\_%");
+                try (ResultSet rs = ps.executeQuery()) {
+                    while (rs.next()) {
+                        reaper.bury(rs.getString(1));
+                    }
+                }
+            }
+        }
+        String tombstone =
+                sandboxName
+                        + "_trash_"
+                        + ProcessHandle.current().pid()
+                        + '_'
+                        + TOMBSTONES.getAndIncrement();
+        long start = SandboxTimings.start();
+        try (Statement s = c.createStatement()) {
+            s.execute("ALTER DATABASE " + sandboxName + " RENAME TO " + tombstone + ';');
+        } catch (SQLException e) {
+            if ("3D000".equals(e.getSQLState())) { // invalid_catalog_name: no sandbox yet
+                return;
+            }
+            throw e;
+        } finally {
+            SandboxTimings.record(SandboxPhase.SWAP, sandboxName, start);
+        }
+        reaper.bury(tombstone);
+    }
 
-            terminateConnections(s, primaryDatabaseName);
+    /** Creates {@code database} as a copy of the template with the configured clone options. */
+    void cloneTemplate(Connection c, String database) throws SQLException {
+        String options = cloneOptions(c);
+        long start = SandboxTimings.start();
+        try (Statement s = c.createStatement()) {
+            s.execute("CREATE DATABASE " + database + " TEMPLATE " + templateName + options + ';');
+        } finally {
+            SandboxTimings.record(SandboxPhase.CLONE, database, start);
+        }
+    }
 
-            s.execute("ALTER DATABASE " + primaryDatabaseName + " IS_TEMPLATE true;");
-            s.execute("CREATE DATABASE " + templateName + " TEMPLATE " + primaryDatabaseName + ';');
-            s.execute("ALTER DATABASE " + primaryDatabaseName + " IS_TEMPLATE false;");
-            s.execute("ALTER DATABASE " + templateName + " IS_TEMPLATE true;");
+    private String cloneOptions(Connection c) throws SQLException {
+        String options = cloneOptions;
+        if (options == null) {
+            options = resolveCloneOptions(c);
+            cloneOptions = options;
+        }
+        return options;
+    }
 
-        } catch (SQLException e) {
-            throw new IllegalStateException(e);
+    private String resolveCloneOptions(Connection c) throws SQLException {
+        StringBuilder options = new StringBuilder();
+        if (c.getMetaData().getDatabaseMajorVersion() >= CLONE_STRATEGY_VERSION) {
+            CloneStrategy strategy = settings.cloneStrategy();
+            if (strategy == CloneStrategy.AUTO) {
+                strategy =
+                        templateSize(c) >= FILE_COPY_MIN_TEMPLATE_BYTES
+                                ? CloneStrategy.FILE_COPY
+                                : CloneStrategy.WAL_LOG;
+            }
+            log.debug("Cloning “{}” with strategy {}.", templateName, strategy);
+            options.append(" STRATEGY ").append(strategy.name());
+        }
+        if (settings.tablespace() != null) {
+            options.append(" TABLESPACE ").append(settings.tablespace());
+        }
+        return options.toString();
+    }
+
+    private long templateSize(Connection c) throws SQLException {
+        try (PreparedStatement ps = c.prepareStatement("SELECT pg_database_size(?)")) {
+            ps.setString(1, templateName);
+            try (ResultSet rs = ps.executeQuery()) {
+                rs.next();
+                return rs.getLong(1);
+            }
         }
-        log.info("Template “{}” ready.", templateName);
     }
 
-    /** JDBC URL for the admin database. */
-    private String adminUrl() {
-        return "jdbc:postgresql://" + host + ':' + port + '/' + adminDatabase;
+    /**
+     * Closes the idle admin sessions to the server, after waiting for used sandboxes to be dropped
+     * if {@link #withDeferredDrop(boolean) deferred drops} are enabled.
+     *
+     * <p>Providers connecting as the same user share these sessions; a provider used after this
+     * call simply opens new ones.
+     */
+    @Override
+    public void close() {
+        if (settings.deferredDrop()) {
+            PostgresTombstoneReaper.awaitDropped(admin);
+        }
+        admin.close();
     }
 
     /**
-     * Terminates all connections to {@code db} except our own, so we can drop/alter the database
-     * safely.
+     * Compares the sandbox's write counters with the baseline taken after the last clone.
+     *
+     * <p>Counters that already moved settle it without touching the sandbox's connections. Only if
+     * they have not and connections are still open, whose statistics may not be flushed yet, are
+     * the connections terminated and waited for before the counters are read again.
      */
-    private static void terminateConnections(Statement s, String db) throws SQLException {
-        s.execute(
+    private boolean isUnchanged(Connection c) throws SQLException {
+        DatabaseActivity previous = baseline;
+        if (previous == null) {
+            return false;
+        }
+        if (c.getMetaData().getDatabaseMajorVersion() < STATS_FLUSHED_ON_EXIT_VERSION) {
+            return false;
+        }
+        long start = SandboxTimings.start();
+        try {
+            // Checked first: a session leaving meanwhile may not have flushed its counters yet
+            boolean connected = hasConnections(c);
+            if (!previous.equals(readActivity(c))) {
+                return false;
+            }
+            if (!connected) {
+                return true;
+            }
+            PostgresAdmin.terminateConnections(c, sandboxName, TERMINATE_WAIT_MILLIS);
+            return previous.equals(readActivity(c));
+        } finally {
+            SandboxTimings.record(SandboxPhase.DIRTY_CHECK, sandboxName, start);
+        }
+    }
+
+    private boolean hasConnections(Connection c) throws SQLException {
+        final String sql =
                 """
-                  SELECT pg_terminate_backend(pid)
+                  SELECT 1
                   FROM   pg_stat_activity
-                  WHERE  datname = '%s' AND pid <> pg_backend_pid()
+                  WHERE  datname = ? AND pid <> pg_backend_pid()
+                """;
+        try (PreparedStatement ps = c.prepareStatement(sql)) {
+            ps.setString(1, sandboxName);
+            try (ResultSet rs = ps.executeQuery()) {
+                return rs.next();
+            }
+        }
+    }
+
+    private DatabaseActivity readActivity(Connection c) throws SQLException {
+        final String sql =
+                """
+                  SELECT datid, tup_inserted, tup_updated, tup_deleted
+                  FROM   pg_stat_database
+                  WHERE  datname = ?
+                """;
+        try (PreparedStatement ps = c.prepareStatement(sql)) {
+            ps.setString(1, sandboxName);
+            try (ResultSet rs = ps.executeQuery()) {
+                if (!rs.next()) {
+                    return null;
+                }
+                return new DatabaseActivity(
+                        rs.getLong(1), rs.getLong(2), rs.getLong(3), rs.getLong(4));
+            }
+        }
+    }
+
+    private boolean templateExists() {
+        final String sql = "SELECT 1 FROM pg_database WHERE datname = ? AND datistemplate";
+        try {
+            return admin.call(
+                    c -> {
+                        try (PreparedStatement ps = c.prepareStatement(sql)) {
+                            ps.setString(1, templateName);
+                            return ps.executeQuery().next();
+                        }
+                    });
+        } catch (SQLException e) {
+            throw new SandboxException(e);
+        }
+    }
+
+    private boolean isStale() {
+        final String sql =
                 """
-                        .formatted(db));
+                  SELECT shobj_description(oid, 'pg_database')
+                  FROM   pg_database
+                  WHERE  datname = ?
+                """;
+        String fingerprint = settings.templateFingerprint();
+        if (fingerprint == null) {
+            return false;
+        }
+        try {
+            String comment =
+                    admin.call(
+                            c -> {
+                                try (PreparedStatement ps = c.prepareStatement(sql)) {
+                                    ps.setString(1, templateName);
+                                    try (ResultSet rs = ps.executeQuery()) {
+                                        return rs.next() ? rs.getString(1) : null;
+                                    }
+                                }
+                            });
+            return !(FINGERPRINT_COMMENT_PREFIX + fingerprint).equals(comment);
+        } catch (SQLException e) {
+            throw new SandboxException(e);
+        }
+    }
+
+    private void dropTemplate() {
+        try {
+            admin.run(
+                    c -> {
+                        PostgresAdmin.terminateConnections(c, templateName);
+                        try (Statement s = c.createStatement()) {
+                            s.execute("ALTER DATABASE " + templateName + " IS_TEMPLATE false;");
+                            s.execute("DROP DATABASE " + templateName + ';');
+                        }
+                    });
+        } catch (SQLException e) {
+            throw new SandboxException(e);
+        }
     }
+
+    private void createTemplate() {
+        log.info("Building template database “{}”…", templateName);
+        long start = SandboxTimings.start();
+        try {
+            PostgresTemplateBuilder builder = settings.templateBuilder();
+            if (builder != null) {
+                builder.build(admin, templateName);
+            }
+            admin.run(
+                    c -> {
+                        try (Statement s = c.createStatement()) {
+                            if (builder == null) {
+                                PostgresAdmin.terminateConnections(c, primaryDatabaseName);
+                                s.execute(
+                                        "ALTER DATABASE "
+                                                + primaryDatabaseName
+                                                + " IS_TEMPLATE true;");
+                                s.execute(
+                                        "CREATE DATABASE "
+                                                + templateName
+                                                + " TEMPLATE "
+                                                + primaryDatabaseName
+                                                + ';');
+                                s.execute(
+                                        "ALTER DATABASE "
+                                                + primaryDatabaseName
+                                                + " IS_TEMPLATE false;");
+                            } else {
+                                PostgresAdmin.terminateConnections(c, templateName);
+                            }
+                            s.execute("ALTER DATABASE " + templateName + " IS_TEMPLATE true;");
+                            if (settings.templateFingerprint() != null) {
+                                s.execute(
+                                        "COMMENT ON DATABASE "
+                                                + templateName
+                                                + " IS '"
+                                                + FINGERPRINT_COMMENT_PREFIX
+                                                + settings.templateFingerprint()
+                                                + "';");
+                            }
+                        }
+                    });
+        } catch (SQLException e) {
+            throw new IllegalStateException(e);
+        } finally {
+            SandboxTimings.record(SandboxPhase.TEMPLATE, templateName, start);
+        }
+        log.info("Template “{}” ready.", templateName);
+    }
+
+    /** Optional behaviour, carried over by the {@code with...} methods. */
+    private record Settings(
+            String sandboxName,
+            boolean skipCleanRebuilds,
+            CloneStrategy cloneStrategy,
+            String tablespace,
+            String templateFingerprint,
+            PostgresTemplateBuilder templateBuilder,
+            boolean deferredDrop) {
+
+        Settings withSandboxName(String name) {
+            return new Settings(
+                    name,
+                    skipCleanRebuilds,
+                    cloneStrategy,
+                    tablespace,
+                    templateFingerprint,
+                    templateBuilder,
+                    deferredDrop);
+        }
+
+        Settings withSkipCleanRebuilds(boolean skip) {
+            return new Settings(
+                    sandboxName,
+                    skip,
+                    cloneStrategy,
+                    tablespace,
+                    templateFingerprint,
+                    templateBuilder,
+                    deferredDrop);
+        }
+
+        Settings withCloneStrategy(CloneStrategy strategy) {
+            return new Settings(
+                    sandboxName,
+                    skipCleanRebuilds,
+                    strategy,
+                    tablespace,
+                    templateFingerprint,
+                    templateBuilder,
+                    deferredDrop);
+        }
+
+        Settings withTablespace(String name) {
+            return new Settings(
+                    sandboxName,
+                    skipCleanRebuilds,
+                    cloneStrategy,
+                    name,
+                    templateFingerprint,
+                    templateBuilder,
+                    deferredDrop);
+        }
+
+        Settings withTemplateFingerprint(String fingerprint) {
+            return new Settings(
+                    sandboxName,
+                    skipCleanRebuilds,
+                    cloneStrategy,
+                    tablespace,
+                    fingerprint,
+                    templateBuilder,
+                    deferredDrop);
+        }
+
+        Settings withTemplateBuilder(PostgresTemplateBuilder builder) {
+            return new Settings(
+                    sandboxName,
+                    skipCleanRebuilds,
+                    cloneStrategy,
+                    tablespace,
+                    templateFingerprint,
+                    builder,
+                    deferredDrop);
+        }
+
+        Settings withDeferredDrop(boolean deferred) {
+            return new Settings(
+                    sandboxName,
+                    skipCleanRebuilds,
+                    cloneStrategy,
+                    tablespace,
+                    templateFingerprint,
+                    templateBuilder,
+                    deferred);
+        }
+    }
+
+    /** Write counters of a database; a new database OID means it was recreated. */
+    private record DatabaseActivity(long oid, long inserted, long updated, long deleted) {}
 }
@@ -0,0 +1,61 @@
+package io.misir.dbsandboxer.core.providers.postgres;
+
+import io.misir.dbsandboxer.core.api.ExclusiveSandboxLease;
+import io.misir.dbsandboxer.core.api.SandboxDatabaseProvider;
+import io.misir.dbsandboxer.core.api.SandboxLease;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Lease on a PostgreSQL sandbox database that runs a release action once when closed.
+ *
+ * @author Fethullah Misir
+ */
+final class PostgresSandboxLease implements SandboxLease {
+
+    private final String databaseName;
+    private final String jdbcUrl;
+    private final Runnable release;
+    private final AtomicBoolean closed = new AtomicBoolean();
+
+    PostgresSandboxLease(PostgresAdmin admin, String databaseName, Runnable release) {
+        this.databaseName = databaseName;
+        this.jdbcUrl = admin.url(databaseName);
+        this.release = release;
+    }
+
+    /**
+     * Leases {@code sandboxName} through {@link ExclusiveSandboxLease}, keyed by the server's admin
+     * URL and the sandbox name, so providers resetting the same database in different ways wait for
+     * each other.
+     */
+    static SandboxLease acquire(
+            PostgresAdmin admin, String sandboxName, SandboxDatabaseProvider provider) {
+        return ExclusiveSandboxLease.acquire(
+                provider,
+                admin.adminUrl() + '/' + sandboxName,
+                sandboxName,
+                admin.url(sandboxName));
+    }
+
+    @Override
+    public String getDatabaseName() {
+        return databaseName;
+    }
+
+    @Override
+    public String getJdbcUrl() {
+        return jdbcUrl;
+    }
+
+    @Override
+    public void close() {
+        if (closed.compareAndSet(false, true)) {
+            release.run();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "SandboxLease[" + databaseName + ']';
+    }
+}
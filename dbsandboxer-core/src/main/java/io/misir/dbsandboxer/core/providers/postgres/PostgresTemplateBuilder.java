@@ -0,0 +1,444 @@
+package io.misir.dbsandboxer.core.providers.postgres;
+
+import io.misir.dbsandboxer.core.api.SandboxException;
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Array;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPInputStream;
+import org.postgresql.PGConnection;
+import org.postgresql.copy.CopyManager;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Builds a template database from a schema script and fixture files, so the template no longer has
+ * to be derived from a primary database the application has migrated and seeded.
+ *
+ * <p>Set on a provider through {@link PostgresSandboxDatabaseProvider#withTemplateBuilder}, the
+ * builder runs whenever the provider would otherwise clone the primary database into the template.
+ * It creates an empty database and fills it in this order:
+ *
+ * <ol>
+ *   <li>the {@link #withSchemaScript(Path) schema script}, plain SQL without {@code COPY ... FROM
+ *       stdin};
+ *   <li>a {@link #withPgDumpDirectory(Path) pg_dump directory-format archive}, restored with {@code
+ *       pg_restore --jobs}, which loads tables in parallel and builds indexes and constraints after
+ *       the data;
+ *   <li>the {@link #withCsvFixtures(Path) CSV fixtures}, streamed into their tables over several
+ *       connections at once with the driver's {@link CopyManager}. Indexes that do not back a
+ *       constraint are dropped before and created again after the load, also in parallel.
+ * </ol>
+ *
+ * <p>CSV files are named after their table, {@code <table>.csv} or {@code <schema>.<table>.csv},
+ * optionally gzipped ({@code .csv.gz}), and start with a header naming the columns. They are loaded
+ * with {@code session_replication_role = replica}, so foreign keys and triggers do not fire and
+ * tables can be loaded in any order; this requires a superuser. Sequences owned by columns are then
+ * advanced to the columns' maximum, and the database is analyzed so that sandboxes start with
+ * planner statistics.
+ *
+ * <p>Requires the PostgreSQL JDBC driver at runtime, and {@code pg_restore} for dump archives.
+ *
+ * @author Fethullah Misir
+ */
+public final class PostgresTemplateBuilder {
+
+    private static final Logger log = LoggerFactory.getLogger(PostgresTemplateBuilder.class);
+
+    private static final String CSV_SUFFIX = ".csv";
+    private static final String CSV_GZ_SUFFIX = ".csv.gz";
+
+    private static final int DEFAULT_PARALLELISM = 4;
+
+    /** Table names taken from file names, optionally schema-qualified. */
+    private static final Pattern SAFE_TABLE_NAME =
+            Pattern.compile("^[A-Za-z_][A-Za-z0-9_$]*(\\.[A-Za-z_][A-Za-z0-9_$]*)?$");
+
+    private static final Pattern SIMPLE_COLUMN_NAME = Pattern.compile("^[A-Za-z_][A-Za-z0-9_$]*$");
+
+    private static final String DEFERRABLE_INDEXES =
+            """
+              SELECT format('%I.%I', n.nspname, c.relname), pg_get_indexdef(i.indexrelid)
+              FROM   pg_index i
+              JOIN   pg_class c ON c.oid = i.indexrelid
+              JOIN   pg_namespace n ON n.oid = c.relnamespace
+              WHERE  i.indrelid = ANY (?::text[]::regclass[])
+              AND    NOT EXISTS (SELECT 1 FROM pg_constraint k WHERE k.conindid = i.indexrelid)
+            """;
+
+    /** Moves serial and identity sequences past the values loaded into their columns. */
+    private static final String ADVANCE_SEQUENCES =
+            """
+              DO $$
+              DECLARE
+                r record;
+                m bigint;
+              BEGIN
+                FOR r IN
+                  SELECT d.objid::regclass AS seq, d.refobjid::regclass AS tbl, a.attname
+                  FROM   pg_depend d
+                  JOIN   pg_class s ON s.oid = d.objid AND s.relkind = 'S'
+                  JOIN   pg_attribute a ON a.attrelid = d.refobjid AND a.attnum = d.refobjsubid
+                  WHERE  d.classid = 'pg_class'::regclass
+                  AND    d.refclassid = 'pg_class'::regclass
+                  AND    d.deptype IN ('a', 'i')
+                LOOP
+                  EXECUTE format('SELECT max(%I) FROM %s', r.attname, r.tbl) INTO m;
+                  IF m IS NOT NULL THEN
+                    PERFORM setval(r.seq, m);
+                  END IF;
+                END LOOP;
+              END $$
+            """;
+
+    private final Path schemaScript;
+    private final Path pgDumpDirectory;
+    private final Path csvDirectory;
+    private final Path pgRestore;
+    private final int parallelism;
+
+    /** Creates a builder for an empty template; add sources with the {@code with...} methods. */
+    public PostgresTemplateBuilder() {
+        this(null, null, null, Path.of("pg_restore"), DEFAULT_PARALLELISM);
+    }
+
+    private PostgresTemplateBuilder(
+            Path schemaScript,
+            Path pgDumpDirectory,
+            Path csvDirectory,
+            Path pgRestore,
+            int parallelism) {
+        this.schemaScript = schemaScript;
+        this.pgDumpDirectory = pgDumpDirectory;
+        this.csvDirectory = csvDirectory;
+        this.pgRestore = pgRestore;
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * Returns a builder that runs {@code script} first, typically to create the tables.
+     *
+     * @param script a file of SQL statements
+     * @return a builder with the given setting
+     * @throws NullPointerException if script is null
+     */
+    public PostgresTemplateBuilder withSchemaScript(Path script) {
+        Objects.requireNonNull(script, "script cannot be null");
+        return new PostgresTemplateBuilder(
+                script, pgDumpDirectory, csvDirectory, pgRestore, parallelism);
+    }
+
+    /**
+     * Returns a builder that restores the {@code pg_dump --format=directory} archive in {@code
+     * directory}, without owners or privileges.
+     *
+     * @param directory the archive directory, containing {@code toc.dat}
+     * @return a builder with the given setting
+     * @throws NullPointerException if directory is null
+     */
+    public PostgresTemplateBuilder withPgDumpDirectory(Path directory) {
+        Objects.requireNonNull(directory, "directory cannot be null");
+        return new PostgresTemplateBuilder(
+                schemaScript, directory, csvDirectory, pgRestore, parallelism);
+    }
+
+    /**
+     * Returns a builder that loads every {@code .csv} and {@code .csv.gz} file in {@code directory}
+     * into the table it is named after.
+     *
+     * @param directory the directory holding the CSV files
+     * @return a builder with the given setting
+     * @throws NullPointerException if directory is null
+     */
+    public PostgresTemplateBuilder withCsvFixtures(Path directory) {
+        Objects.requireNonNull(directory, "directory cannot be null");
+        return new PostgresTemplateBuilder(
+                schemaScript, pgDumpDirectory, directory, pgRestore, parallelism);
+    }
+
+    /**
+     * Returns a builder that restores dump archives with the given {@code pg_restore}, which should
+     * not be older than the {@code pg_dump} that wrote them. Defaults to {@code pg_restore} on the
+     * {@code PATH}.
+     *
+     * @param executable the pg_restore executable
+     * @return a builder with the given setting
+     * @throws NullPointerException if executable is null
+     */
+    public PostgresTemplateBuilder withPgRestore(Path executable) {
+        Objects.requireNonNull(executable, "executable cannot be null");
+        return new PostgresTemplateBuilder(
+                schemaScript, pgDumpDirectory, csvDirectory, executable, parallelism);
+    }
+
+    /**
+     * Returns a builder that loads tables and builds indexes over {@code parallelism} connections
+     * at once, also passed to {@code pg_restore --jobs}. Defaults to 4.
+     *
+     * @param parallelism the number of connections, at least 1
+     * @return a builder with the given setting
+     * @throws IllegalArgumentException if parallelism is below 1
+     */
+    public PostgresTemplateBuilder withParallelism(int parallelism) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException(
+                    "parallelism must be at least 1, got: " + parallelism);
+        }
+        return new PostgresTemplateBuilder(
+                schemaScript, pgDumpDirectory, csvDirectory, pgRestore, parallelism);
+    }
+
+    /**
+     * Creates {@code database} and fills it from the configured sources, replacing a database of
+     * that name left by a failed build.
+     */
+    void build(PostgresAdmin admin, String database) throws SQLException {
+        admin.run(
+                c -> {
+                    PostgresAdmin.terminateConnections(c, database);
+                    try (Statement s = c.createStatement()) {
+                        s.execute("DROP DATABASE IF EXISTS " + database + ';');
+                        s.execute("CREATE DATABASE " + database + ';');
+                    }
+                });
+        ExecutorService executor =
+                Executors.newFixedThreadPool(
+                        parallelism,
+                        r -> {
+                            Thread t = new Thread(r, "dbsandboxer-load-" + database);
+                            t.setDaemon(true);
+                            return t;
+                        });
+        try (Connection c = admin.connect(database)) {
+            if (schemaScript != null) {
+                log.info("Running schema script “{}”.", schemaScript);
+                try (Statement s = c.createStatement()) {
+                    s.execute(Files.readString(schemaScript));
+                }
+            }
+            if (pgDumpDirectory != null) {
+                restore(admin, database);
+            }
+            if (csvDirectory != null) {
+                loadCsvFixtures(admin, database, c, executor);
+            }
+            try (Statement s = c.createStatement()) {
+                s.execute(ADVANCE_SEQUENCES);
+                s.execute("ANALYZE;");
+            }
+        } catch (IOException e) {
+            throw new SandboxException("Failed to build template " + database, e);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private void restore(PostgresAdmin admin, String database) throws IOException {
+        log.info("Restoring “{}” with {} jobs.", pgDumpDirectory, parallelism);
+        List<String> command =
+                List.of(
+                        pgRestore.toString(),
+                        "--no-owner",
+                        "--no-privileges",
+                        "--exit-on-error",
+                        "--jobs=" + parallelism,
+                        "--dbname=" + database,
+                        pgDumpDirectory.toString());
+        admin.runTool(command);
+    }
+
+    private void loadCsvFixtures(
+            PostgresAdmin admin, String database, Connection c, ExecutorService executor)
+            throws SQLException, IOException {
+        List<CsvFixture> fixtures = csvFixtures();
+        if (fixtures.isEmpty()) {
+            log.warn("No CSV fixtures found in “{}”.", csvDirectory);
+            return;
+        }
+        List<String> indexes = dropDeferrableIndexes(c, fixtures);
+        log.info(
+                "Loading {} CSV fixtures with {} connections, then {} indexes.",
+                fixtures.size(),
+                parallelism,
+                indexes.size());
+        runAll(
+                fixtures.stream().map(f -> (SqlTask) () -> f.load(admin, database)).toList(),
+                executor);
+        runAll(
+                indexes.stream()
+                        .map(
+                                definition ->
+                                        (SqlTask)
+                                                () -> {
+                                                    try (Connection ic = admin.connect(database);
+                                                            Statement s = ic.createStatement()) {
+                                                        s.execute(definition);
+                                                    }
+                                                })
+                        .toList(),
+                executor);
+    }
+
+    /** The CSV files in the fixture directory, largest first so they do not finish last. */
+    private List<CsvFixture> csvFixtures() throws IOException {
+        List<CsvFixture> fixtures = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(csvDirectory)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                String table;
+                if (name.endsWith(CSV_GZ_SUFFIX)) {
+                    table = name.substring(0, name.length() - CSV_GZ_SUFFIX.length());
+                } else if (name.endsWith(CSV_SUFFIX)) {
+                    table = name.substring(0, name.length() - CSV_SUFFIX.length());
+                } else {
+                    continue;
+                }
+                if (!SAFE_TABLE_NAME.matcher(table).matches()) {
+                    throw new IllegalArgumentException(
+                            "CSV fixture name is not a table name: " + file);
+                }
+                fixtures.add(new CsvFixture(file, table, Files.size(file)));
+            }
+        }
+        fixtures.sort(Comparator.comparingLong(CsvFixture::size).reversed());
+        return fixtures;
+    }
+
+    /** Drops the indexes of the fixture tables that no constraint needs and returns their DDL. */
+    private static List<String> dropDeferrableIndexes(Connection c, List<CsvFixture> fixtures)
+            throws SQLException {
+        List<String> names = new ArrayList<>();
+        List<String> definitions = new ArrayList<>();
+        Array tables = c.createArrayOf("text", fixtures.stream().map(CsvFixture::table).toArray());
+        try (PreparedStatement ps = c.prepareStatement(DEFERRABLE_INDEXES)) {
+            ps.setArray(1, tables);
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    names.add(rs.getString(1));
+                    definitions.add(rs.getString(2));
+                }
+            }
+        }
+        try (Statement s = c.createStatement()) {
+            for (String name : names) {
+                s.execute("DROP INDEX " + name + ';');
+            }
+        }
+        return definitions;
+    }
+
+    private static void runAll(List<SqlTask> tasks, ExecutorService executor) throws SQLException {
+        List<CompletableFuture<Void>> runs = new ArrayList<>(tasks.size());
+        for (SqlTask task : tasks) {
+            runs.add(
+                    CompletableFuture.runAsync(
+                            () -> {
+                                try {
+                                    task.run();
+                                } catch (SQLException e) {
+                                    throw new CompletionException(e);
+                                } catch (IOException e) {
+                                    throw new SandboxException(e);
+                                }
+                            },
+                            executor));
+        }
+        try {
+            CompletableFuture.allOf(runs.toArray(CompletableFuture[]::new)).join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof SQLException cause) {
+                throw cause;
+            }
+            if (e.getCause() instanceof SandboxException cause) {
+                throw cause;
+            }
+            throw e;
+        }
+    }
+
+    /** Work on a connection of its own. */
+    @FunctionalInterface
+    private interface SqlTask {
+        void run() throws SQLException, IOException;
+    }
+
+    private record CsvFixture(Path file, String table, long size) {
+
+        /** Streams the file into its table with {@code COPY FROM STDIN} on a new connection. */
+        void load(PostgresAdmin admin, String database) throws SQLException, IOException {
+            try (Connection c = admin.connect(database);
+                    InputStream in = open()) {
+                try (Statement s = c.createStatement()) {
+                    s.execute("SET session_replication_role = replica;");
+                }
+                String columns = columnList(readLine(in));
+                CopyManager copy = c.unwrap(PGConnection.class).getCopyAPI();
+                long rows =
+                        copy.copyIn(
+                                "COPY " + table + " (" + columns + ") FROM STDIN (FORMAT csv)", in);
+                log.debug("Loaded {} rows into “{}”.", rows, table);
+            }
+        }
+
+        private InputStream open() throws IOException {
+            InputStream in = Files.newInputStream(file);
+            if (file.getFileName().toString().endsWith(CSV_GZ_SUFFIX)) {
+                in = new GZIPInputStream(in, 1 << 16);
+            }
+            return new BufferedInputStream(in, 1 << 16);
+        }
+
+        /** Reads the header line, leaving the stream at the first row. */
+        private String readLine(InputStream in) throws IOException {
+            ByteArrayOutputStream line = new ByteArrayOutputStream();
+            for (int b = in.read(); b != -1 && b != '\n'; b = in.read()) {
+                if (b != '\r') {
+                    line.write(b);
+                }
+            }
+            String header = line.toString(StandardCharsets.UTF_8);
+            if (header.startsWith("\uFEFF")) {
+                header = header.substring(1);
+            }
+            if (header.isBlank()) {
+                throw new SandboxException("CSV fixture has no header line: " + file);
+            }
+            return header;
+        }
+
+        /** The header's column names as SQL; names that are not simple identifiers are quoted. */
+        private static String columnList(String header) {
+            List<String> columns = new ArrayList<>();
+            for (String column : header.split(",")) {
+                String name = column.strip();
+                if (name.length() >= 2 && name.startsWith("\"") && name.endsWith("\"")) {
+                    name = name.substring(1, name.length() - 1).replace("\"\"", "\"");
+                } else if (SIMPLE_COLUMN_NAME.matcher(name).matches()) {
+                    columns.add(name);
+                    continue;
+                }
+                columns.add('"' + name.replace("\"", "\"\"") + '"');
+            }
+            return String.join(", ", columns);
+        }
+    }
+}
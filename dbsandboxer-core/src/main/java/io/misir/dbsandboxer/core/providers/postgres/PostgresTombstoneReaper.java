@@ -0,0 +1,145 @@
+package io.misir.dbsandboxer.core.providers.postgres;
+
+import io.misir.dbsandboxer.core.api.SandboxPhase;
+import io.misir.dbsandboxer.core.api.SandboxTimings;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Drops used sandboxes that were renamed out of the way, in the background.
+ *
+ * <p>One daemon thread per server and admin user collects the tombstones handed to {@link
+ * #bury(String)} for a short while and then drops them one after another on a session of its own,
+ * kept open between batches. {@code DROP DATABASE} has to unlink every file of the database, which
+ * no longer delays the next test this way.
+ *
+ * @author Fethullah Misir
+ */
+final class PostgresTombstoneReaper {
+
+    private static final Logger log = LoggerFactory.getLogger(PostgresTombstoneReaper.class);
+
+    private static final Map<String, PostgresTombstoneReaper> REAPERS = new ConcurrentHashMap<>();
+
+    /** How long a batch collects tombstones before they are dropped. */
+    private static final long BATCH_WINDOW_MILLIS = 200;
+
+    private static final long CLOSE_TIMEOUT_MILLIS = 60_000;
+
+    private final PostgresAdmin admin;
+    private final BlockingQueue<String> tombstones = new LinkedBlockingQueue<>();
+
+    /** Tombstones buried and not dropped yet; guarded by {@code this}. */
+    private int pending;
+
+    private Connection session;
+
+    private PostgresTombstoneReaper(PostgresAdmin admin) {
+        this.admin = admin;
+        Thread t = new Thread(this::reap, "dbsandboxer-reaper-" + admin.adminUrl());
+        t.setDaemon(true);
+        t.start();
+    }
+
+    /** The reaper for the server and admin user of {@code admin}, started on first use. */
+    static PostgresTombstoneReaper of(PostgresAdmin admin) {
+        return REAPERS.computeIfAbsent(admin.sessionKey(), k -> new PostgresTombstoneReaper(admin));
+    }
+
+    /** Queues {@code database} to be dropped. */
+    void bury(String database) {
+        synchronized (this) {
+            pending++;
+        }
+        tombstones.add(database);
+    }
+
+    /**
+     * Waits, for up to a minute, until the tombstones buried on the server of {@code admin} are
+     * dropped. Those still left are dropped by the first rebuild of the next run.
+     */
+    static void awaitDropped(PostgresAdmin admin) {
+        PostgresTombstoneReaper reaper = REAPERS.get(admin.sessionKey());
+        if (reaper == null) {
+            return;
+        }
+        try {
+            if (!reaper.awaitEmpty()) {
+                log.warn("Used sandboxes are still being dropped, leaving them to the next run.");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private synchronized boolean awaitEmpty() throws InterruptedException {
+        long deadline = System.currentTimeMillis() + CLOSE_TIMEOUT_MILLIS;
+        while (pending > 0) {
+            long left = deadline - System.currentTimeMillis();
+            if (left <= 0) {
+                return false;
+            }
+            wait(left);
+        }
+        return true;
+    }
+
+    private void reap() {
+        List<String> batch = new ArrayList<>();
+        while (true) {
+            try {
+                batch.add(tombstones.take());
+                Thread.sleep(BATCH_WINDOW_MILLIS);
+            } catch (InterruptedException e) {
+                return;
+            }
+            tombstones.drainTo(batch);
+            for (String database : batch) {
+                drop(database);
+            }
+            synchronized (this) {
+                pending -= batch.size();
+                notifyAll();
+            }
+            batch.clear();
+        }
+    }
+
+    private void drop(String database) {
+        long start = SandboxTimings.start();
+        try {
+            if (session == null || !session.isValid(1)) {
+                closeSession();
+                session = admin.connect();
+            }
+            PostgresAdmin.terminateConnections(session, database);
+            try (Statement s = session.createStatement()) {
+                s.execute("DROP DATABASE IF EXISTS " + database + ';');
+            }
+        } catch (SQLException e) {
+            log.warn("Could not drop used sandbox “{}”: {}", database, e.getMessage());
+            closeSession();
+        } finally {
+            SandboxTimings.record(SandboxPhase.DROP, database, start);
+        }
+    }
+
+    private void closeSession() {
+        if (session != null) {
+            try {
+                session.close();
+            } catch (SQLException ignore) {
+            }
+            session = null;
+        }
+    }
+}
@@ -0,0 +1,185 @@
+package io.misir.dbsandboxer.core.providers.postgres;
+
+import io.misir.dbsandboxer.core.api.SandboxDatabaseProvider;
+import io.misir.dbsandboxer.core.api.SandboxException;
+import io.misir.dbsandboxer.core.api.SandboxLease;
+import io.misir.dbsandboxer.core.api.SandboxPhase;
+import io.misir.dbsandboxer.core.api.SandboxTimings;
+import java.sql.*;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Base of the PostgreSQL providers that install a {@code dbsandboxer} schema into the sandbox to
+ * record what tests change, and undo those changes with {@code dbsandboxer.restore()} instead of
+ * cloning the sandbox again.
+ *
+ * <p>The restore runs over a session held on the sandbox database, after terminating every other
+ * connection. It returns false when the recorded changes cannot be undone, and the sandbox is then
+ * cloned again through {@link #cloneWithTracking()}. Subclasses decide how the schema gets into the
+ * clone.
+ *
+ * @author Fethullah Misir
+ */
+abstract class TrackingPostgresSandboxDatabaseProvider
+        implements SandboxDatabaseProvider, AutoCloseable {
+
+    private static final Logger log =
+            LoggerFactory.getLogger(TrackingPostgresSandboxDatabaseProvider.class);
+
+    private static final int VALIDATION_TIMEOUT_SECONDS = 2;
+
+    private static final String TERMINATE_OTHER_CONNECTIONS =
+            """
+              SELECT pg_terminate_backend(pid)
+              FROM   pg_stat_activity
+              WHERE  datname = current_database() AND pid <> pg_backend_pid()
+            """;
+
+    final PostgresAdmin admin;
+    final PostgresSandboxDatabaseProvider cloneProvider;
+
+    /** Name of the copy of the template that subclasses install the tracking schema into. */
+    final String derivedTemplateName;
+
+    private Connection session;
+    private boolean installed;
+
+    TrackingPostgresSandboxDatabaseProvider(
+            String host,
+            int port,
+            String adminDatabaseName,
+            String adminUser,
+            String adminPassword,
+            String primaryDatabaseName,
+            String templateDatabaseName,
+            String derivedTemplateSuffix) {
+        this(
+                new PostgresSandboxDatabaseProvider(
+                        host,
+                        port,
+                        adminDatabaseName,
+                        adminUser,
+                        adminPassword,
+                        primaryDatabaseName,
+                        templateDatabaseName),
+                derivedTemplateSuffix);
+    }
+
+    TrackingPostgresSandboxDatabaseProvider(
+            PostgresSandboxDatabaseProvider cloneProvider, String derivedTemplateSuffix) {
+        this.admin = cloneProvider.admin();
+        this.cloneProvider = cloneProvider;
+        this.derivedTemplateName = cloneProvider.templateName() + derivedTemplateSuffix;
+        if (derivedTemplateName.length() > PostgresAdmin.MAX_IDENTIFIER_LENGTH) {
+            throw new IllegalArgumentException(
+                    "templateDatabaseName is too long for the tracking template (max "
+                            + (PostgresAdmin.MAX_IDENTIFIER_LENGTH - derivedTemplateSuffix.length())
+                            + " characters): "
+                            + cloneProvider.templateName());
+        }
+    }
+
+    @Override
+    public synchronized void prepareSandbox() {
+        cloneProvider.prepareSandbox();
+    }
+
+    /**
+     * Undoes the changes recorded since the last rebuild, or clones the whole sandbox on the first
+     * call and when they cannot be undone.
+     */
+    @Override
+    public synchronized void rebuildSandbox() {
+        long start = SandboxTimings.start();
+        try {
+            if (installed && restore()) {
+                return;
+            }
+            closeSession();
+            installed = false;
+            cloneWithTracking();
+            installed = true;
+        } catch (SQLException e) {
+            closeSession();
+            throw new SandboxException(e);
+        } finally {
+            SandboxTimings.record(SandboxPhase.REBUILD, sandboxName(), start);
+        }
+    }
+
+    /** Leases the sandbox once no other lease on the same database is open. */
+    @Override
+    public SandboxLease acquire() {
+        return PostgresSandboxLease.acquire(admin, sandboxName(), this);
+    }
+
+    /** Closes the session held on the sandbox database and the idle admin sessions. */
+    @Override
+    public synchronized void close() {
+        closeSession();
+        admin.close();
+    }
+
+    /** Clones the sandbox from the template and makes sure the tracking schema is installed. */
+    abstract void cloneWithTracking() throws SQLException;
+
+    /** The session on the sandbox database, reopened if the server closed it. */
+    Connection session() throws SQLException {
+        if (session != null && !session.isValid(VALIDATION_TIMEOUT_SECONDS)) {
+            closeSession();
+        }
+        if (session == null) {
+            session = admin.connect(sandboxName());
+        }
+        return session;
+    }
+
+    String sandboxName() {
+        return cloneProvider.getSandboxDatabaseName();
+    }
+
+    /**
+     * Runs the restore on the sandbox.
+     *
+     * @return false if the recorded changes cannot be undone and the sandbox needs a full clone
+     */
+    private boolean restore() throws SQLException {
+        Connection c = session();
+        try (Statement s = c.createStatement()) {
+            long start = SandboxTimings.start();
+            try {
+                s.execute(TERMINATE_OTHER_CONNECTIONS);
+            } finally {
+                SandboxTimings.record(SandboxPhase.TERMINATE_CONNECTIONS, sandboxName(), start);
+            }
+            start = SandboxTimings.start();
+            try (ResultSet rs = s.executeQuery("SELECT dbsandboxer.restore()")) {
+                rs.next();
+                if (rs.getBoolean(1)) {
+                    return true;
+                }
+            } finally {
+                SandboxTimings.record(SandboxPhase.RESTORE, sandboxName(), start);
+            }
+        } catch (SQLException e) {
+            // undefined_function / invalid_schema_name: the sandbox was recreated by someone else
+            if (!"42883".equals(e.getSQLState()) && !"3F000".equals(e.getSQLState())) {
+                throw e;
+            }
+        }
+        log.debug("Changes to “{}” cannot be undone, cloning it again.", sandboxName());
+        return false;
+    }
+
+    private void closeSession() {
+        if (session == null) {
+            return;
+        }
+        try {
+            session.close();
+        } catch (SQLException ignore) {
+        }
+        session = null;
+    }
+}
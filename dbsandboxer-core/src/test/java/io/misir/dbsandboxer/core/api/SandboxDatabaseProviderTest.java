@@ -0,0 +1,66 @@
+package io.misir.dbsandboxer.core.api;
+
+import static org.assertj.core.api.Assertions.*;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.*;
+
+@DisplayName("SandboxDatabaseProvider Tests")
+class SandboxDatabaseProviderTest {
+
+    @Test
+    @DisplayName("Should prepare and rebuild the sandbox for a default lease")
+    void shouldRebuildForDefaultLease() {
+        CountingProvider provider = new CountingProvider();
+
+        try (SandboxLease lease = provider.acquire()) {
+            assertThat(provider.prepared).hasValue(1);
+            assertThat(provider.rebuilt).hasValue(1);
+            assertThat(lease.getDatabaseName()).isNull();
+            assertThat(lease.getJdbcUrl()).isNull();
+        }
+    }
+
+    @Test
+    @DisplayName("Should make a second default lease wait until the first is closed")
+    void shouldExcludeConcurrentDefaultLeases() throws Exception {
+        CountingProvider provider = new CountingProvider();
+        SandboxLease first = provider.acquire();
+
+        CompletableFuture<SandboxLease> second = CompletableFuture.supplyAsync(provider::acquire);
+
+        assertThatThrownBy(() -> second.get(200, TimeUnit.MILLISECONDS))
+                .isInstanceOf(TimeoutException.class);
+        first.close();
+        second.get(5, TimeUnit.SECONDS).close();
+        assertThat(provider.rebuilt).hasValue(2);
+    }
+
+    @Test
+    @DisplayName("Should not make default leases of different providers wait for each other")
+    void shouldNotExcludeOtherProviders() {
+        try (SandboxLease first = new CountingProvider().acquire();
+                SandboxLease second = new CountingProvider().acquire()) {
+            assertThat(second).isNotSameAs(first);
+        }
+    }
+
+    private static final class CountingProvider implements SandboxDatabaseProvider {
+
+        final AtomicInteger prepared = new AtomicInteger();
+        final AtomicInteger rebuilt = new AtomicInteger();
+
+        @Override
+        public void prepareSandbox() {
+            prepared.incrementAndGet();
+        }
+
+        @Override
+        public void rebuildSandbox() {
+            rebuilt.incrementAndGet();
+        }
+    }
+}
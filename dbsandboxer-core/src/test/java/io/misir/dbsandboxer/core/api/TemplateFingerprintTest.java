@@ -0,0 +1,59 @@
+package io.misir.dbsandboxer.core.api;
+
+import static org.assertj.core.api.Assertions.*;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import org.junit.jupiter.api.*;
+import org.junit.jupiter.api.io.TempDir;
+
+@DisplayName("TemplateFingerprint Tests")
+class TemplateFingerprintTest {
+
+    @TempDir Path migrations;
+
+    @Test
+    @DisplayName("Should not depend on the order entries are added in")
+    void shouldIgnoreOrder() {
+        String forward =
+                new TemplateFingerprint().add("a", bytes("1")).add("b", bytes("2")).value();
+        String backward =
+                new TemplateFingerprint().add("b", bytes("2")).add("a", bytes("1")).value();
+
+        assertThat(forward).isEqualTo(backward).hasSize(64);
+    }
+
+    @Test
+    @DisplayName("Should change when content or names change")
+    void shouldChangeWithContentAndNames() {
+        String original = new TemplateFingerprint().add("V1.sql", bytes("CREATE")).value();
+
+        assertThat(new TemplateFingerprint().add("V1.sql", bytes("ALTER")).value())
+                .isNotEqualTo(original);
+        assertThat(new TemplateFingerprint().add("V2.sql", bytes("CREATE")).value())
+                .isNotEqualTo(original);
+    }
+
+    @Test
+    @DisplayName("Should hash files below a directory by relative path")
+    void shouldHashDirectory() throws IOException {
+        Files.createDirectories(migrations.resolve("v1"));
+        Files.writeString(migrations.resolve("v1/V1__init.sql"), "CREATE TABLE t (id INT)");
+        Files.writeString(migrations.resolve("fixtures.csv"), "1");
+
+        String fingerprint = new TemplateFingerprint().addPath(migrations).value();
+
+        assertThat(fingerprint)
+                .isEqualTo(
+                        new TemplateFingerprint()
+                                .add("v1/V1__init.sql", bytes("CREATE TABLE t (id INT)"))
+                                .add("fixtures.csv", bytes("1"))
+                                .value());
+    }
+
+    private static byte[] bytes(String s) {
+        return s.getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,32 @@
+package io.misir.dbsandboxer.core.metrics;
+
+import static org.assertj.core.api.Assertions.*;
+
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.misir.dbsandboxer.core.api.SandboxPhase;
+import org.junit.jupiter.api.*;
+
+@DisplayName("MicrometerSandboxTimingListener Tests")
+class MicrometerSandboxTimingListenerTest {
+
+    @Test
+    @DisplayName("Should keep one timer per phase whatever the database is called")
+    void shouldNotTagDatabase() {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        MicrometerSandboxTimingListener listener = new MicrometerSandboxTimingListener(registry);
+
+        for (int i = 0; i < 10; i++) {
+            listener.phaseCompleted(SandboxPhase.DROP, "app_trash_4711_" + i, 1_000_000);
+        }
+        listener.phaseCompleted(SandboxPhase.CLONE, "app", 2_000_000);
+
+        assertThat(registry.find(MicrometerSandboxTimingListener.METRIC_NAME).timers()).hasSize(2);
+        Timer drop =
+                registry.get(MicrometerSandboxTimingListener.METRIC_NAME)
+                        .tag("phase", "drop")
+                        .timer();
+        assertThat(drop.count()).isEqualTo(10);
+        assertThat(drop.getId().getTag("database")).isNull();
+    }
+}
@@ -0,0 +1,162 @@
+package io.misir.dbsandboxer.core.providers.file;
+
+import static org.assertj.core.api.Assertions.*;
+
+import io.misir.dbsandboxer.core.api.SandboxException;
+import io.misir.dbsandboxer.core.api.SandboxLease;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.*;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+@DisplayName("FileSandboxDatabaseProvider Tests")
+class FileSandboxDatabaseProviderTest {
+
+    @TempDir Path dir;
+
+    private Path database;
+
+    @BeforeEach
+    void createDatabase() throws IOException {
+        database = dir.resolve("app.db");
+        Files.writeString(database, "template state");
+    }
+
+    @ParameterizedTest(name = "in-memory limit {0}")
+    @ValueSource(longs = {0, FileSandboxDatabaseProvider.DEFAULT_IN_MEMORY_TEMPLATE_LIMIT})
+    @DisplayName("Should restore the database file to the template")
+    void shouldRestoreDatabaseFile(long limit) throws IOException {
+        FileSandboxDatabaseProvider provider =
+                new FileSandboxDatabaseProvider(database).withInMemoryTemplateLimit(limit);
+        provider.prepareSandbox();
+
+        Files.writeString(database, "modified by a test, and longer than before");
+        provider.rebuildSandbox();
+        assertThat(database).hasContent("template state");
+
+        Files.delete(database);
+        provider.rebuildSandbox();
+        assertThat(database).hasContent("template state");
+    }
+
+    @Test
+    @DisplayName("Should not carry the last test's writes into the next run's template")
+    void shouldLeaveDatabaseFileClean() throws IOException {
+        FileSandboxDatabaseProvider firstRun = new FileSandboxDatabaseProvider(database);
+        firstRun.prepareSandbox();
+        Files.writeString(database, "written by the last test");
+        firstRun.close();
+
+        assertThat(database).hasContent("template state");
+
+        FileSandboxDatabaseProvider secondRun = new FileSandboxDatabaseProvider(database);
+        secondRun.prepareSandbox();
+        Files.writeString(database, "written by a test of the second run");
+        secondRun.rebuildSandbox();
+
+        assertThat(database).hasContent("template state");
+    }
+
+    @Test
+    @DisplayName("Should cap the in-memory limit at the largest buffer")
+    void shouldCapInMemoryLimit() throws IOException {
+        FileSandboxDatabaseProvider provider =
+                new FileSandboxDatabaseProvider(database).withInMemoryTemplateLimit(Long.MAX_VALUE);
+        provider.prepareSandbox();
+
+        Files.writeString(database, "modified");
+        provider.rebuildSandbox();
+
+        assertThat(provider.inMemoryTemplateLimit()).isEqualTo(Integer.MAX_VALUE);
+        assertThat(database).hasContent("template state");
+    }
+
+    @Test
+    @DisplayName("Should keep the template in the given file")
+    void shouldUseTemplateFile() throws IOException {
+        Path template = Files.createDirectories(dir.resolve("templates")).resolve("app.db");
+
+        new FileSandboxDatabaseProvider(database, template).prepareSandbox();
+
+        assertThat(template).hasContent("template state");
+    }
+
+    @Test
+    @DisplayName("Should copy SQLite journals and drop the shared-memory file")
+    void shouldHandleSqliteCompanionFiles() throws IOException {
+        Path wal = dir.resolve("app.db-wal");
+        Path shm = dir.resolve("app.db-shm");
+        Path journal = dir.resolve("app.db-journal");
+        Files.writeString(wal, "template wal");
+        FileSandboxDatabaseProvider provider = new FileSandboxDatabaseProvider(database);
+        provider.prepareSandbox();
+
+        Files.writeString(wal, "modified wal");
+        Files.writeString(shm, "index");
+        Files.writeString(journal, "hot journal");
+        provider.rebuildSandbox();
+
+        assertThat(wal).hasContent("template wal");
+        assertThat(shm).doesNotExist();
+        assertThat(journal).doesNotExist();
+    }
+
+    @Test
+    @DisplayName("Should lease the database file to one caller at a time")
+    void shouldLeaseExclusively() throws Exception {
+        FileSandboxDatabaseProvider provider = new FileSandboxDatabaseProvider(database);
+        SandboxLease lease = provider.acquire();
+        Files.writeString(database, "modified by the lease holder");
+
+        assertThat(lease.getDatabaseName()).isEqualTo(database.toString());
+        assertThat(lease.getJdbcUrl()).isEqualTo("jdbc:sqlite:" + database);
+        // another provider of the same file waits for the lease, then rebuilds
+        CompletableFuture<SandboxLease> next =
+                CompletableFuture.supplyAsync(new FileSandboxDatabaseProvider(database)::acquire);
+        Thread.sleep(200);
+        assertThat(next).isNotDone();
+
+        lease.close();
+        lease.close();
+        try (SandboxLease second = next.get(5, TimeUnit.SECONDS)) {
+            assertThat(database).hasContent("template state");
+        }
+    }
+
+    @Test
+    @DisplayName("Should lease H2 files with an H2 URL")
+    void shouldLeaseH2File() throws IOException {
+        Path h2 = dir.resolve("app.mv.db");
+        Files.writeString(h2, "template state");
+
+        try (SandboxLease lease = new FileSandboxDatabaseProvider(h2).acquire()) {
+            assertThat(lease.getJdbcUrl()).isEqualTo("jdbc:h2:file:" + dir.resolve("app"));
+        }
+    }
+
+    @Test
+    @DisplayName("Should fail if the database file does not exist")
+    void shouldFailWithoutDatabaseFile() {
+        FileSandboxDatabaseProvider provider =
+                new FileSandboxDatabaseProvider(dir.resolve("missing.db"));
+
+        assertThatThrownBy(provider::prepareSandbox).isInstanceOf(SandboxException.class);
+    }
+
+    @Test
+    @DisplayName("Should reject the database file as template")
+    void shouldRejectSameFiles() {
+        assertThatThrownBy(() -> new FileSandboxDatabaseProvider(database, database))
+                .isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(
+                        () ->
+                                new FileSandboxDatabaseProvider(database)
+                                        .withInMemoryTemplateLimit(-1))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+}
@@ -0,0 +1,185 @@
+package io.misir.dbsandboxer.core.providers.mysql;
+
+import static org.assertj.core.api.Assertions.*;
+
+import io.misir.dbsandboxer.core.api.SandboxLease;
+import java.sql.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.*;
+import org.testcontainers.containers.MySQLContainer;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+
+@Testcontainers
+@DisplayName("MySqlSandboxDatabaseProvider Integration Tests")
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+class MySqlSandboxDatabaseProviderTest {
+
+    @Container
+    static MySQLContainer<?> mysql = new MySQLContainer<>("mysql:8.0").withUsername("root");
+
+    private static final String PRIMARY_DB = "shop";
+    private static final String TEMPLATE_NAME = "shop_template";
+    private static final String CREATED_AT = "2001-02-03 04:05:06";
+
+    private MySqlSandboxDatabaseProvider provider;
+
+    @BeforeAll
+    void setUp() throws Exception {
+        try (Connection c = adminConnection();
+                Statement stmt = c.createStatement()) {
+            stmt.execute("CREATE DATABASE " + PRIMARY_DB);
+            stmt.execute(
+                    """
+                        CREATE TABLE shop.customers (
+                            id INT AUTO_INCREMENT PRIMARY KEY,
+                            name VARCHAR(100) NOT NULL,
+                            upper_name VARCHAR(100) AS (UPPER(name)),
+                            created_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP
+                        )
+                    """);
+            stmt.execute(
+                    """
+                        CREATE TABLE shop.orders (
+                            id INT AUTO_INCREMENT PRIMARY KEY,
+                            customer_id INT NOT NULL,
+                            FOREIGN KEY (customer_id) REFERENCES customers (id)
+                        )
+                    """);
+            stmt.execute(
+                    "INSERT INTO shop.customers (id, name, created_at)"
+                            + " VALUES (0, 'Zero', '"
+                            + CREATED_AT
+                            + "'), (1, 'Alice', '"
+                            + CREATED_AT
+                            + "')");
+            stmt.execute("INSERT INTO shop.orders (customer_id) VALUES (1)");
+        }
+
+        provider =
+                new MySqlSandboxDatabaseProvider(
+                                mysql.getHost(),
+                                mysql.getMappedPort(3306),
+                                mysql.getUsername(),
+                                mysql.getPassword(),
+                                PRIMARY_DB,
+                                TEMPLATE_NAME)
+                        .withParallelism(2);
+        provider.prepareSandbox();
+    }
+
+    @AfterAll
+    void tearDown() {
+        provider.close();
+    }
+
+    @Test
+    @DisplayName("Should restore the schema to the template state")
+    void shouldRestoreTemplateState() throws SQLException {
+        try (Connection c = appConnection();
+                Statement stmt = c.createStatement()) {
+            stmt.execute("INSERT INTO customers (name) VALUES ('Bob')");
+            stmt.execute("DELETE FROM orders");
+            stmt.execute("CREATE TABLE scratch (id INT)");
+        }
+
+        provider.rebuildSandbox();
+
+        assertThat(count("SELECT COUNT(*) FROM customers")).isEqualTo(2);
+        assertThat(count("SELECT COUNT(*) FROM customers WHERE id = 0")).isEqualTo(1);
+        assertThat(count("SELECT COUNT(*) FROM orders")).isEqualTo(1);
+        assertThat(
+                        count(
+                                "SELECT COUNT(*) FROM information_schema.tables"
+                                        + " WHERE table_schema = DATABASE()"))
+                .isEqualTo(2);
+    }
+
+    @Test
+    @DisplayName("Should keep generated columns, foreign keys and auto-increment counters")
+    void shouldKeepTableDefinitions() throws SQLException {
+        provider.rebuildSandbox();
+
+        assertThat(count("SELECT COUNT(*) FROM customers WHERE upper_name = 'ALICE'")).isEqualTo(1);
+        try (Connection c = appConnection();
+                Statement stmt = c.createStatement()) {
+            assertThatThrownBy(() -> stmt.execute("INSERT INTO orders (customer_id) VALUES (42)"))
+                    .isInstanceOf(SQLException.class);
+            stmt.execute("INSERT INTO customers (name) VALUES ('Carol')");
+        }
+        assertThat(count("SELECT MAX(id) FROM customers")).isEqualTo(2);
+    }
+
+    @Test
+    @DisplayName("Should copy the values of columns with a default expression")
+    void shouldCopyDefaultGeneratedColumns() throws SQLException {
+        provider.rebuildSandbox();
+
+        assertThat(count("SELECT COUNT(*) FROM customers WHERE created_at = '" + CREATED_AT + "'"))
+                .isEqualTo(2);
+    }
+
+    @Test
+    @DisplayName("Should terminate connections to the sandbox")
+    void shouldTerminateConnections() throws SQLException {
+        try (Connection open = appConnection()) {
+            provider.rebuildSandbox();
+
+            assertThatThrownBy(() -> open.createStatement().execute("SELECT 1"))
+                    .isInstanceOf(SQLException.class);
+        }
+    }
+
+    @Test
+    @DisplayName("Should lease the primary schema to one caller at a time")
+    void shouldLeaseExclusively() throws Exception {
+        SandboxLease first = provider.acquire();
+        assertThat(first.getDatabaseName()).isEqualTo(PRIMARY_DB);
+        assertThat(first.getJdbcUrl()).endsWith("/" + PRIMARY_DB);
+
+        try (MySqlSandboxDatabaseProvider other = provider.withParallelism(1)) {
+            CompletableFuture<SandboxLease> second = CompletableFuture.supplyAsync(other::acquire);
+            Thread.sleep(500);
+            assertThat(second).isNotDone();
+
+            first.close();
+            second.get(60, TimeUnit.SECONDS).close();
+        }
+    }
+
+    @Test
+    @DisplayName("Should reject a parallelism below one")
+    void shouldRejectInvalidParallelism() {
+        assertThatThrownBy(() -> provider.withParallelism(0))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    private int count(String sql) throws SQLException {
+        try (Connection c = appConnection();
+                Statement stmt = c.createStatement();
+                ResultSet rs = stmt.executeQuery(sql)) {
+            rs.next();
+            return rs.getInt(1);
+        }
+    }
+
+    private Connection adminConnection() throws SQLException {
+        return DriverManager.getConnection(
+                "jdbc:mysql://" + mysql.getHost() + ":" + mysql.getMappedPort(3306) + "/",
+                mysql.getUsername(),
+                mysql.getPassword());
+    }
+
+    private Connection appConnection() throws SQLException {
+        return DriverManager.getConnection(
+                "jdbc:mysql://"
+                        + mysql.getHost()
+                        + ":"
+                        + mysql.getMappedPort(3306)
+                        + "/"
+                        + PRIMARY_DB,
+                mysql.getUsername(),
+                mysql.getPassword());
+    }
+}
@@ -0,0 +1,252 @@
+package io.misir.dbsandboxer.core.providers.postgres;
+
+import static org.assertj.core.api.Assertions.*;
+
+import io.misir.dbsandboxer.core.api.SandboxLease;
+import java.sql.*;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.*;
+import org.testcontainers.containers.PostgreSQLContainer;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+
+@Testcontainers
+@DisplayName("PooledPostgresSandboxDatabaseProvider Integration Tests")
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+class PooledPostgresSandboxDatabaseProviderTest {
+
+    @Container
+    static PostgreSQLContainer<?> postgres = new PostgreSQLContainer<>("postgres:16-alpine");
+
+    private static final String PRIMARY_DB = "pooled";
+    private static final String TEMPLATE_NAME = "pooled_template";
+    private static final int POOL_SIZE = 2;
+
+    private PooledPostgresSandboxDatabaseProvider provider;
+    private Connection adminConnection;
+
+    @BeforeAll
+    void setUp() throws Exception {
+        adminConnection =
+                DriverManager.getConnection(
+                        postgres.getJdbcUrl(), postgres.getUsername(), postgres.getPassword());
+
+        try (Statement stmt = adminConnection.createStatement()) {
+            stmt.execute("CREATE DATABASE " + PRIMARY_DB);
+        }
+
+        try (Connection appDb = createAppConnection();
+                Statement stmt = appDb.createStatement()) {
+            stmt.execute("CREATE TABLE users (id SERIAL PRIMARY KEY, name VARCHAR(100))");
+            stmt.execute("INSERT INTO users (name) VALUES ('Alice'), ('Bob')");
+        }
+
+        provider =
+                new PooledPostgresSandboxDatabaseProvider(
+                        postgres.getHost(),
+                        postgres.getMappedPort(5432),
+                        postgres.getDatabaseName(),
+                        postgres.getUsername(),
+                        postgres.getPassword(),
+                        PRIMARY_DB,
+                        TEMPLATE_NAME,
+                        POOL_SIZE);
+        provider.prepareSandbox();
+    }
+
+    @AfterAll
+    void tearDown() throws SQLException {
+        provider.close();
+        adminConnection.close();
+    }
+
+    @Test
+    @DisplayName("Should restore database to template state")
+    void shouldRestoreDatabaseToTemplateState() throws SQLException {
+        provider.rebuildSandbox();
+        insertUser("Charlie");
+        assertThat(getUserCount()).isEqualTo(3);
+
+        provider.rebuildSandbox();
+
+        assertThat(getUserCount()).isEqualTo(2);
+    }
+
+    @Test
+    @DisplayName("Should keep the configured number of copies ready")
+    void shouldKeepPoolFilled() throws Exception {
+        for (int i = 0; i < 5; i++) {
+            provider.rebuildSandbox();
+        }
+
+        awaitDatabases(PRIMARY_DB + "\\_sandbox\\_%", POOL_SIZE);
+        awaitDatabases(PRIMARY_DB + "\\_used\\_%", 0);
+    }
+
+    @Test
+    @DisplayName("Should only drop leftover copies of providers that are gone")
+    void shouldKeepCopiesOfOtherProviders() throws Exception {
+        String dead = PRIMARY_DB + "_sandbox_99999999_0";
+        String live = PRIMARY_DB + "_sandbox_" + backendPid() + "_0";
+        try (Statement stmt = adminConnection.createStatement()) {
+            stmt.execute("CREATE DATABASE " + dead);
+            stmt.execute("CREATE DATABASE " + live);
+        }
+        awaitDatabases(PRIMARY_DB + "\\_sandbox\\_%", POOL_SIZE + 2);
+
+        try (PooledPostgresSandboxDatabaseProvider other =
+                new PooledPostgresSandboxDatabaseProvider(
+                        postgres.getHost(),
+                        postgres.getMappedPort(5432),
+                        postgres.getDatabaseName(),
+                        postgres.getUsername(),
+                        postgres.getPassword(),
+                        PRIMARY_DB,
+                        TEMPLATE_NAME,
+                        POOL_SIZE)) {
+            other.prepareSandbox();
+
+            assertThat(listDatabases(dead)).isEmpty();
+            assertThat(listDatabases(live)).containsExactly(live);
+            awaitDatabases(PRIMARY_DB + "\\_sandbox\\_%", 2 * POOL_SIZE + 1);
+        } finally {
+            try (Statement stmt = adminConnection.createStatement()) {
+                stmt.execute("DROP DATABASE " + live);
+            }
+        }
+
+        provider.rebuildSandbox();
+        assertThat(getUserCount()).isEqualTo(2);
+    }
+
+    @Test
+    @DisplayName("Should lease a different copy to each caller")
+    void shouldLeaseDistinctCopies() throws Exception {
+        try (SandboxLease first = provider.acquire();
+                SandboxLease second = provider.acquire()) {
+            assertThat(first.getDatabaseName())
+                    .startsWith(PRIMARY_DB + "_sandbox_")
+                    .isNotEqualTo(second.getDatabaseName());
+            insertUser(first, "Charlie");
+
+            assertThat(getUserCount(first)).isEqualTo(3);
+            assertThat(getUserCount(second)).isEqualTo(2);
+        }
+    }
+
+    @Test
+    @DisplayName("Should drop a copy once its lease is closed")
+    void shouldDropReleasedCopy() throws Exception {
+        SandboxLease lease = provider.acquire();
+        String copy = lease.getDatabaseName();
+
+        lease.close();
+
+        awaitDatabases(copy, 0);
+        awaitDatabases(PRIMARY_DB + "\\_sandbox\\_%", POOL_SIZE);
+    }
+
+    @Test
+    @DisplayName("Should reject a pool size below one")
+    void shouldRejectInvalidPoolSize() {
+        assertThatThrownBy(
+                        () ->
+                                new PooledPostgresSandboxDatabaseProvider(
+                                        "localhost",
+                                        5432,
+                                        "postgres",
+                                        "user",
+                                        "pass",
+                                        PRIMARY_DB,
+                                        TEMPLATE_NAME,
+                                        0))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    private void awaitDatabases(String pattern, int expected) throws Exception {
+        List<String> found = new ArrayList<>();
+        for (int attempt = 0; attempt < 100; attempt++) {
+            found = listDatabases(pattern);
+            if (found.size() == expected) {
+                return;
+            }
+            Thread.sleep(100);
+        }
+        assertThat(found).hasSize(expected);
+    }
+
+    private int backendPid() throws SQLException {
+        try (Statement stmt = adminConnection.createStatement();
+                ResultSet rs = stmt.executeQuery("SELECT pg_backend_pid()")) {
+            rs.next();
+            return rs.getInt(1);
+        }
+    }
+
+    private List<String> listDatabases(String pattern) throws SQLException {
+        List<String> names = new ArrayList<>();
+        try (PreparedStatement ps =
+                adminConnection.prepareStatement(
+                        "SELECT datname FROM pg_database WHERE datname LIKE ?")) {
+            ps.setString(1, pattern);
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    names.add(rs.getString(1));
+                }
+            }
+        }
+        return names;
+    }
+
+    private void insertUser(String name) throws SQLException {
+        try (Connection appDb = createAppConnection();
+                PreparedStatement ps =
+                        appDb.prepareStatement("INSERT INTO users (name) VALUES (?)")) {
+            ps.setString(1, name);
+            ps.executeUpdate();
+        }
+    }
+
+    private void insertUser(SandboxLease lease, String name) throws SQLException {
+        try (Connection c = connect(lease);
+                PreparedStatement ps = c.prepareStatement("INSERT INTO users (name) VALUES (?)")) {
+            ps.setString(1, name);
+            ps.executeUpdate();
+        }
+    }
+
+    private int getUserCount(SandboxLease lease) throws SQLException {
+        try (Connection c = connect(lease);
+                Statement stmt = c.createStatement();
+                ResultSet rs = stmt.executeQuery("SELECT COUNT(*) FROM users")) {
+            rs.next();
+            return rs.getInt(1);
+        }
+    }
+
+    private Connection connect(SandboxLease lease) throws SQLException {
+        return DriverManager.getConnection(
+                lease.getJdbcUrl(), postgres.getUsername(), postgres.getPassword());
+    }
+
+    private int getUserCount() throws SQLException {
+        try (Connection appDb = createAppConnection();
+                Statement stmt = appDb.createStatement();
+                ResultSet rs = stmt.executeQuery("SELECT COUNT(*) FROM users")) {
+            rs.next();
+            return rs.getInt(1);
+        }
+    }
+
+    private Connection createAppConnection() throws SQLException {
+        String url =
+                "jdbc:postgresql://"
+                        + postgres.getHost()
+                        + ":"
+                        + postgres.getMappedPort(5432)
+                        + "/"
+                        + PRIMARY_DB;
+        return DriverManager.getConnection(url, postgres.getUsername(), postgres.getPassword());
+    }
+}
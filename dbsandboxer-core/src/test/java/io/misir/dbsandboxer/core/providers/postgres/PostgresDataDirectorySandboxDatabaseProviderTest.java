@@ -0,0 +1,165 @@
+package io.misir.dbsandboxer.core.providers.postgres;
+
+import static org.assertj.core.api.Assertions.*;
+
+import io.misir.dbsandboxer.core.api.SandboxException;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.*;
+import org.junit.jupiter.api.*;
+import org.junit.jupiter.api.condition.EnabledIfEnvironmentVariable;
+import org.junit.jupiter.api.io.TempDir;
+
+@DisplayName("PostgresDataDirectorySandboxDatabaseProvider Tests")
+class PostgresDataDirectorySandboxDatabaseProviderTest {
+
+    @Test
+    @DisplayName("Should reject the data directory as snapshot directory")
+    void shouldRejectSameDirectories(@TempDir Path dir) {
+        assertThatThrownBy(
+                        () ->
+                                new PostgresDataDirectorySandboxDatabaseProvider(
+                                        dir.resolve("data"), dir.resolve("./data")))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    @DisplayName("Should reject null directories")
+    void shouldRejectNullDirectories(@TempDir Path dir) {
+        assertThatThrownBy(() -> new PostgresDataDirectorySandboxDatabaseProvider(null, dir))
+                .isInstanceOf(NullPointerException.class);
+        assertThatThrownBy(() -> new PostgresDataDirectorySandboxDatabaseProvider(dir, null))
+                .isInstanceOf(NullPointerException.class);
+    }
+
+    /** Needs a local PostgreSQL installation; set PG_BIN to the directory holding pg_ctl. */
+    @Nested
+    @DisplayName("With a local cluster")
+    @EnabledIfEnvironmentVariable(named = "PG_BIN", matches = ".+")
+    @TestInstance(TestInstance.Lifecycle.PER_CLASS)
+    class LocalClusterTests {
+
+        @TempDir Path dir;
+
+        private Path bin;
+        private int port;
+        private PostgresDataDirectorySandboxDatabaseProvider provider;
+
+        @BeforeAll
+        void setUp() throws Exception {
+            bin = Path.of(System.getenv("PG_BIN"));
+            port = freePort();
+            Path data = dir.resolve("data");
+            run(
+                    bin.resolve("initdb").toString(),
+                    "-D",
+                    data.toString(),
+                    "-U",
+                    "postgres",
+                    "--auth=trust");
+
+            provider =
+                    new PostgresDataDirectorySandboxDatabaseProvider(data, dir.resolve("snapshot"))
+                            .withPgCtl(bin.resolve("pg_ctl"))
+                            .withServerOptions("-p " + port + " -k " + dir);
+            run(
+                    bin.resolve("pg_ctl").toString(),
+                    "start",
+                    "-D",
+                    data.toString(),
+                    "-w",
+                    "-l",
+                    dir.resolve("setup.log").toString(),
+                    "-o",
+                    "-p " + port + " -k " + dir);
+
+            try (Connection c = connect();
+                    Statement stmt = c.createStatement()) {
+                stmt.execute("CREATE TABLE users (id SERIAL PRIMARY KEY, name VARCHAR(100))");
+                stmt.execute("INSERT INTO users (name) VALUES ('Alice'), ('Bob')");
+            }
+            provider.prepareSandbox();
+        }
+
+        @AfterAll
+        void tearDown() throws Exception {
+            provider.close();
+            run(
+                    bin.resolve("pg_ctl").toString(),
+                    "stop",
+                    "-D",
+                    dir.resolve("data").toString(),
+                    "-m",
+                    "immediate");
+        }
+
+        @Test
+        @DisplayName("Should restore the cluster to the snapshot")
+        void shouldRestoreSnapshot() throws SQLException {
+            try (Connection c = connect();
+                    Statement stmt = c.createStatement()) {
+                stmt.execute("INSERT INTO users (name) VALUES ('Charlie')");
+                stmt.execute("CREATE TABLE scratch (id INT)");
+            }
+
+            provider.rebuildSandbox();
+
+            try (Connection c = connect();
+                    Statement stmt = c.createStatement();
+                    ResultSet rs =
+                            stmt.executeQuery(
+                                    "SELECT (SELECT COUNT(*) FROM users),"
+                                            + " to_regclass('scratch') IS NULL")) {
+                rs.next();
+                assertThat(rs.getInt(1)).isEqualTo(2);
+                assertThat(rs.getBoolean(2)).isTrue();
+            }
+        }
+
+        @Test
+        @DisplayName("Should keep the cluster running when the restore fails")
+        void shouldRecoverFromFailedRestore() throws Exception {
+            try (Connection c = connect();
+                    Statement stmt = c.createStatement()) {
+                stmt.execute("INSERT INTO users (name) VALUES ('Dave')");
+            }
+            Path snapshot = dir.resolve("snapshot");
+            Path hidden = dir.resolve("snapshot-hidden");
+            Files.move(snapshot, hidden); // makes the copy fail
+            try {
+                assertThatThrownBy(provider::rebuildSandbox).isInstanceOf(SandboxException.class);
+            } finally {
+                Files.move(hidden, snapshot);
+            }
+
+            try (Connection c = connect();
+                    Statement stmt = c.createStatement();
+                    ResultSet rs =
+                            stmt.executeQuery("SELECT COUNT(*) FROM users WHERE name = 'Dave'")) {
+                rs.next();
+                assertThat(rs.getInt(1)).isEqualTo(1);
+            }
+
+            provider.rebuildSandbox();
+        }
+
+        private Connection connect() throws SQLException {
+            return DriverManager.getConnection(
+                    "jdbc:postgresql://localhost:" + port + "/postgres", "postgres", "");
+        }
+
+        private static int freePort() throws IOException {
+            try (ServerSocket s = new ServerSocket(0)) {
+                return s.getLocalPort();
+            }
+        }
+
+        private static void run(String... command) throws Exception {
+            Process p = new ProcessBuilder(command).redirectErrorStream(true).start();
+            String output = new String(p.getInputStream().readAllBytes());
+            assertThat(p.waitFor()).as(output).isZero();
+        }
+    }
+}
@@ -0,0 +1,201 @@
+package io.misir.dbsandboxer.core.providers.postgres;
+
+import static org.assertj.core.api.Assertions.*;
+
+import java.sql.*;
+import org.junit.jupiter.api.*;
+import org.testcontainers.containers.PostgreSQLContainer;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+
+@Testcontainers
+@DisplayName("PostgresHighWaterMarkSandboxDatabaseProvider Integration Tests")
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+class PostgresHighWaterMarkSandboxDatabaseProviderTest {
+
+    @Container
+    static PostgreSQLContainer<?> postgres = new PostgreSQLContainer<>("postgres:16-alpine");
+
+    private static final String PRIMARY_DB = "hwm";
+    private static final String TEMPLATE_NAME = "hwm_template";
+
+    private PostgresHighWaterMarkSandboxDatabaseProvider provider;
+    private Connection adminConnection;
+
+    @BeforeAll
+    void setUp() throws Exception {
+        adminConnection =
+                DriverManager.getConnection(
+                        postgres.getJdbcUrl(), postgres.getUsername(), postgres.getPassword());
+
+        try (Statement stmt = adminConnection.createStatement()) {
+            stmt.execute("CREATE DATABASE " + PRIMARY_DB);
+        }
+
+        try (Connection appDb = createAppConnection();
+                Statement stmt = appDb.createStatement()) {
+            stmt.execute("CREATE TABLE users (id SERIAL PRIMARY KEY, name VARCHAR(100))");
+            stmt.execute(
+                    "CREATE TABLE orders (id SERIAL PRIMARY KEY,"
+                            + " user_id INT NOT NULL REFERENCES users (id))");
+            stmt.execute("CREATE TABLE events (id BIGSERIAL PRIMARY KEY, payload TEXT)");
+            stmt.execute("CREATE TABLE settings (name TEXT PRIMARY KEY, value TEXT)");
+            stmt.execute("INSERT INTO users (name) VALUES ('Alice'), ('Bob')");
+            stmt.execute("INSERT INTO orders (user_id) VALUES (1), (2)");
+            stmt.execute("INSERT INTO settings VALUES ('locale', 'en')");
+        }
+
+        provider =
+                new PostgresHighWaterMarkSandboxDatabaseProvider(
+                        postgres.getHost(),
+                        postgres.getMappedPort(5432),
+                        postgres.getDatabaseName(),
+                        postgres.getUsername(),
+                        postgres.getPassword(),
+                        PRIMARY_DB,
+                        TEMPLATE_NAME);
+        provider.prepareSandbox();
+    }
+
+    @AfterAll
+    void tearDown() throws SQLException {
+        provider.close();
+        adminConnection.close();
+    }
+
+    @BeforeEach
+    void rebuild() {
+        provider.rebuildSandbox();
+    }
+
+    @Test
+    @DisplayName("Should delete added rows without cloning")
+    void shouldDeleteAddedRows() throws SQLException {
+        long oid = getDatabaseOid();
+        execute("INSERT INTO users (name) VALUES ('Charlie')");
+        execute("INSERT INTO orders (user_id) VALUES (3)");
+        execute("INSERT INTO events (payload) VALUES ('signup')");
+
+        provider.rebuildSandbox();
+
+        assertThat(getDatabaseOid()).isEqualTo(oid);
+        assertThat(queryInt("SELECT COUNT(*) FROM users")).isEqualTo(2);
+        assertThat(queryInt("SELECT COUNT(*) FROM orders")).isEqualTo(2);
+        assertThat(queryInt("SELECT COUNT(*) FROM events")).isZero();
+    }
+
+    @Test
+    @DisplayName("Should reset sequences")
+    void shouldResetSequences() throws SQLException {
+        execute("INSERT INTO users (name) VALUES ('Charlie')");
+
+        provider.rebuildSandbox();
+        execute("INSERT INTO users (name) VALUES ('Dave')");
+
+        assertThat(queryInt("SELECT id FROM users WHERE name = 'Dave'")).isEqualTo(3);
+    }
+
+    @Test
+    @DisplayName("Should allow changes to added rows")
+    void shouldAllowChangesToAddedRows() throws SQLException {
+        long oid = getDatabaseOid();
+        execute("INSERT INTO users (name) VALUES ('Charlie')");
+        execute("UPDATE users SET name = 'Chuck' WHERE name = 'Charlie'");
+        execute("DELETE FROM users WHERE name = 'Chuck'");
+
+        provider.rebuildSandbox();
+
+        assertThat(getDatabaseOid()).isEqualTo(oid);
+    }
+
+    @Test
+    @DisplayName("Should clone again after template rows changed")
+    void shouldCloneAfterTemplateRowChange() throws SQLException {
+        long oid = getDatabaseOid();
+        execute("UPDATE users SET name = 'Mallory' WHERE id = 1");
+
+        provider.rebuildSandbox();
+
+        assertThat(getDatabaseOid()).isNotEqualTo(oid);
+        assertThat(queryInt("SELECT COUNT(*) FROM users WHERE name = 'Mallory'")).isZero();
+    }
+
+    @Test
+    @DisplayName("Should clone again after writes to a table without integer key")
+    void shouldCloneAfterKeylessWrite() throws SQLException {
+        long oid = getDatabaseOid();
+        execute("INSERT INTO settings VALUES ('theme', 'dark')");
+
+        provider.rebuildSandbox();
+
+        assertThat(getDatabaseOid()).isNotEqualTo(oid);
+        assertThat(queryInt("SELECT COUNT(*) FROM settings")).isEqualTo(1);
+    }
+
+    @Test
+    @DisplayName("Should clone again after a schema change")
+    void shouldCloneAfterSchemaChange() throws SQLException {
+        long oid = getDatabaseOid();
+        execute("ALTER TABLE users ADD COLUMN email TEXT");
+
+        provider.rebuildSandbox();
+
+        assertThat(getDatabaseOid()).isNotEqualTo(oid);
+    }
+
+    @Test
+    @DisplayName("Should clone from a template with the tracking installed once")
+    void shouldInstallTrackingIntoTemplate() throws SQLException {
+        long templateOid = getDatabaseOid(TEMPLATE_NAME + "_hwm");
+        execute("UPDATE users SET name = 'Mallory' WHERE id = 1");
+
+        provider.rebuildSandbox();
+        provider.prepareSandbox();
+
+        assertThat(getDatabaseOid(TEMPLATE_NAME + "_hwm")).isEqualTo(templateOid);
+        assertThat(queryInt("SELECT max(high) FROM dbsandboxer.marks")).isEqualTo(2);
+        assertThat(queryInt("SELECT COUNT(*) FROM dbsandboxer.modified_tables")).isZero();
+    }
+
+    private long getDatabaseOid() throws SQLException {
+        return getDatabaseOid(PRIMARY_DB);
+    }
+
+    private long getDatabaseOid(String database) throws SQLException {
+        try (PreparedStatement ps =
+                adminConnection.prepareStatement("SELECT oid FROM pg_database WHERE datname = ?")) {
+            ps.setString(1, database);
+            try (ResultSet rs = ps.executeQuery()) {
+                rs.next();
+                return rs.getLong(1);
+            }
+        }
+    }
+
+    private void execute(String sql) throws SQLException {
+        try (Connection appDb = createAppConnection();
+                Statement stmt = appDb.createStatement()) {
+            stmt.execute(sql);
+        }
+    }
+
+    private int queryInt(String sql) throws SQLException {
+        try (Connection appDb = createAppConnection();
+                Statement stmt = appDb.createStatement();
+                ResultSet rs = stmt.executeQuery(sql)) {
+            rs.next();
+            return rs.getInt(1);
+        }
+    }
+
+    private Connection createAppConnection() throws SQLException {
+        String url =
+                "jdbc:postgresql://"
+                        + postgres.getHost()
+                        + ":"
+                        + postgres.getMappedPort(5432)
+                        + "/"
+                        + PRIMARY_DB;
+        return DriverManager.getConnection(url, postgres.getUsername(), postgres.getPassword());
+    }
+}
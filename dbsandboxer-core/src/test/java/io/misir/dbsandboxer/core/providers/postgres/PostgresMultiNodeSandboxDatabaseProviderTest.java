@@ -0,0 +1,179 @@
+package io.misir.dbsandboxer.core.providers.postgres;
+
+import static org.assertj.core.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+import io.misir.dbsandboxer.core.api.SandboxLease;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.*;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.jupiter.api.*;
+import org.junit.jupiter.api.io.TempDir;
+import org.testcontainers.containers.PostgreSQLContainer;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+
+@Testcontainers
+@DisplayName("PostgresMultiNodeSandboxDatabaseProvider Integration Tests")
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+class PostgresMultiNodeSandboxDatabaseProviderTest {
+
+    @Container
+    static PostgreSQLContainer<?> first = new PostgreSQLContainer<>("postgres:16-alpine");
+
+    @Container
+    static PostgreSQLContainer<?> second = new PostgreSQLContainer<>("postgres:16-alpine");
+
+    private static final String SANDBOX_DB = "shop";
+    private static final String TEMPLATE_NAME = "shop_template";
+
+    @TempDir Path dir;
+
+    private PostgresMultiNodeSandboxDatabaseProvider provider;
+
+    @BeforeAll
+    void setUp() throws IOException {
+        Path schema = dir.resolve("schema.sql");
+        Files.writeString(
+                schema,
+                """
+                    CREATE TABLE items (id SERIAL PRIMARY KEY, name TEXT NOT NULL);
+                    INSERT INTO items (name) VALUES ('template');
+                """);
+        provider =
+                new PostgresMultiNodeSandboxDatabaseProvider(
+                        new PostgresSandboxDatabaseProvider(
+                                        first.getHost(),
+                                        first.getMappedPort(5432),
+                                        first.getDatabaseName(),
+                                        first.getUsername(),
+                                        first.getPassword(),
+                                        SANDBOX_DB,
+                                        TEMPLATE_NAME)
+                                .withTemplateBuilder(
+                                        new PostgresTemplateBuilder().withSchemaScript(schema)),
+                        List.of(endpoint(first), endpoint(second)));
+        provider.prepareSandbox();
+    }
+
+    @AfterAll
+    void tearDown() {
+        provider.close();
+    }
+
+    @Test
+    @DisplayName("Should rebuild the sandbox on the assigned endpoint")
+    void shouldRebuildOnAssignedEndpoint() throws SQLException {
+        provider.rebuildSandbox();
+        String url = provider.getJdbcUrl();
+        execute(url, "INSERT INTO items (name) VALUES ('test')");
+
+        provider.rebuildSandbox();
+
+        assertThat(provider.getJdbcUrl()).isEqualTo(url);
+        assertThat(count(url)).isEqualTo(1);
+    }
+
+    @Test
+    @DisplayName("Should spread concurrent leases over the endpoints")
+    void shouldSpreadLeases() throws SQLException {
+        try (SandboxLease a = provider.acquire();
+                SandboxLease b = provider.acquire()) {
+            assertThat(a.getJdbcUrl()).isNotEqualTo(b.getJdbcUrl());
+            assertThat(count(a.getJdbcUrl())).isEqualTo(1);
+            assertThat(count(b.getJdbcUrl())).isEqualTo(1);
+        }
+    }
+
+    @Test
+    @DisplayName("Should copy a template built from the primary database to the other endpoints")
+    void shouldCopyTemplateWithoutBuilder() throws SQLException {
+        assumeTrue(onPath("pg_dump") && onPath("pg_restore"), "pg_dump and pg_restore required");
+        execute(first.getJdbcUrl(), "CREATE DATABASE warehouse");
+        String primary = first.getJdbcUrl().replace("/" + first.getDatabaseName(), "/warehouse");
+        execute(
+                primary,
+                """
+                    CREATE TABLE items (id SERIAL PRIMARY KEY, name TEXT NOT NULL);
+                    INSERT INTO items (name) VALUES ('first'), ('second');
+                """);
+
+        try (PostgresMultiNodeSandboxDatabaseProvider copying =
+                new PostgresMultiNodeSandboxDatabaseProvider(
+                        new PostgresSandboxDatabaseProvider(
+                                first.getHost(),
+                                first.getMappedPort(5432),
+                                first.getDatabaseName(),
+                                first.getUsername(),
+                                first.getPassword(),
+                                "warehouse",
+                                "warehouse_template"),
+                        List.of(endpoint(first), endpoint(second)))) {
+            copying.prepareSandbox();
+
+            try (SandboxLease a = copying.acquire();
+                    SandboxLease b = copying.acquire()) {
+                assertThat(a.getJdbcUrl()).isNotEqualTo(b.getJdbcUrl());
+                assertThat(count(a.getJdbcUrl())).isEqualTo(2);
+                assertThat(count(b.getJdbcUrl())).isEqualTo(2);
+            }
+        }
+    }
+
+    @Test
+    @DisplayName("Should reject invalid endpoints")
+    void shouldRejectInvalidEndpoints() {
+        PostgresSandboxDatabaseProvider prototype =
+                new PostgresSandboxDatabaseProvider(
+                        "localhost", 5432, "postgres", "user", "pw", SANDBOX_DB, TEMPLATE_NAME);
+
+        assertThatThrownBy(() -> new PostgresMultiNodeSandboxDatabaseProvider(prototype, List.of()))
+                .isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(
+                        () ->
+                                new PostgresMultiNodeSandboxDatabaseProvider(
+                                        prototype, List.of("localhost:abc")))
+                .isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(
+                        () ->
+                                new PostgresMultiNodeSandboxDatabaseProvider(
+                                        prototype, List.of("localhost:70000")))
+                .isInstanceOf(IllegalArgumentException.class);
+        assertThat(
+                        new PostgresMultiNodeSandboxDatabaseProvider(
+                                        prototype, List.of("db1", "db2:5433"))
+                                .getEndpoints())
+                .containsExactly("db1", "db2:5433");
+    }
+
+    private static String endpoint(PostgreSQLContainer<?> container) {
+        return container.getHost() + ":" + container.getMappedPort(5432);
+    }
+
+    private static boolean onPath(String tool) {
+        return Arrays.stream(System.getenv("PATH").split(File.pathSeparator))
+                .anyMatch(dir -> Files.isExecutable(Path.of(dir, tool)));
+    }
+
+    private static void execute(String url, String sql) throws SQLException {
+        try (Connection c =
+                        DriverManager.getConnection(url, first.getUsername(), first.getPassword());
+                Statement stmt = c.createStatement()) {
+            stmt.execute(sql);
+        }
+    }
+
+    private static int count(String url) throws SQLException {
+        try (Connection c =
+                        DriverManager.getConnection(url, first.getUsername(), first.getPassword());
+                Statement stmt = c.createStatement();
+                ResultSet rs = stmt.executeQuery("SELECT count(*) FROM items")) {
+            rs.next();
+            return rs.getInt(1);
+        }
+    }
+}
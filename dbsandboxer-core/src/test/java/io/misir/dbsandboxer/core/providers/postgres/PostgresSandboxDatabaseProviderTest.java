@@ -3,14 +3,20 @@ package io.misir.dbsandboxer.core.providers.postgres;
 import static org.assertj.core.api.Assertions.*;
 
 import io.misir.dbsandboxer.core.api.SandboxException;
+import io.misir.dbsandboxer.core.api.SandboxLease;
+import io.misir.dbsandboxer.core.api.SandboxPhase;
+import io.misir.dbsandboxer.core.api.SandboxTimingListener;
+import io.misir.dbsandboxer.core.api.SandboxTimings;
 import java.lang.reflect.Field;
 import java.sql.*;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Set;
 import java.util.concurrent.*;
-import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 import org.junit.jupiter.api.*;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
 import org.testcontainers.containers.PostgreSQLContainer;
 import org.testcontainers.junit.jupiter.Container;
 import org.testcontainers.junit.jupiter.Testcontainers;
@@ -157,6 +163,40 @@ class PostgresSandboxDatabaseProviderTest {
             assertThat(exceptionCount.get()).isZero();
             assertThat(templateExists()).isTrue();
         }
+
+        @Test
+        @DisplayName("Should wait while another JVM builds the template")
+        void shouldWaitForTemplateLock() throws Exception {
+            clearTemplateReady();
+            advisoryLock("pg_advisory_lock", TEMPLATE_NAME);
+            CompletableFuture<Void> prepare = CompletableFuture.runAsync(provider::prepareSandbox);
+            try {
+                Thread.sleep(500);
+                assertThat(prepare).isNotDone();
+            } finally {
+                advisoryLock("pg_advisory_unlock", TEMPLATE_NAME);
+            }
+
+            prepare.get(30, TimeUnit.SECONDS);
+            assertThat(templateExists()).isTrue();
+        }
+
+        @Test
+        @DisplayName("Should create a missing sandbox from the primary database once")
+        void shouldCreateMissingSandbox() throws SQLException {
+            try (Statement stmt = adminConnection.createStatement()) {
+                stmt.execute("DROP DATABASE IF EXISTS public_f1");
+            }
+            PostgresSandboxDatabaseProvider fork = provider.withSandboxDatabase("public_f1");
+
+            fork.createSandboxIfMissing();
+            long oid = getDatabaseOid("public_f1");
+            fork.createSandboxIfMissing();
+
+            assertThat(getDatabaseOid("public_f1")).isEqualTo(oid);
+            assertThat(getTableRowCount("public_f1", "users"))
+                    .isEqualTo(getTableRowCount(PRIMARY_DB, "users"));
+        }
     }
 
     @Nested
@@ -223,6 +263,79 @@ class PostgresSandboxDatabaseProviderTest {
             assertThat(conn2Invalid).isTrue();
         }
 
+        @Test
+        @DisplayName("Should rebuild a separate sandbox from the same template")
+        void shouldRebuildSeparateSandbox() throws SQLException {
+            PostgresSandboxDatabaseProvider worker = provider.withSandboxDatabase("public_w0");
+            insertTestData();
+
+            worker.rebuildSandbox();
+
+            assertThat(worker.getSandboxDatabaseName()).isEqualTo("public_w0");
+            assertThat(getTableRowCount("public_w0", "users")).isEqualTo(2);
+            assertThat(getTableRowCount(PRIMARY_DB, "users")).isGreaterThan(2);
+        }
+
+        @Test
+        @DisplayName("Should drop a separate sandbox but not the primary database")
+        void shouldDropSeparateSandbox() throws SQLException {
+            PostgresSandboxDatabaseProvider worker = provider.withSandboxDatabase("public_w1");
+            worker.rebuildSandbox();
+
+            worker.dropSandbox();
+
+            assertThat(databaseExists("public_w1")).isFalse();
+            assertThatThrownBy(provider::dropSandbox).isInstanceOf(IllegalStateException.class);
+            assertThat(databaseExists(PRIMARY_DB)).isTrue();
+        }
+
+        @Test
+        @DisplayName("Should reuse the admin session across rebuilds")
+        void shouldReuseAdminSession() throws SQLException {
+            provider.rebuildSandbox();
+            List<Integer> sessions = getAdminSessionPids();
+
+            provider.rebuildSandbox();
+            provider.rebuildSandbox();
+
+            assertThat(sessions).isNotEmpty();
+            assertThat(getAdminSessionPids()).containsExactlyInAnyOrderElementsOf(sessions);
+        }
+
+        @Test
+        @DisplayName("Should reconnect when the admin session was terminated")
+        void shouldReconnectAfterAdminSessionTerminated() throws SQLException {
+            provider.rebuildSandbox();
+            try (Statement stmt = adminConnection.createStatement()) {
+                for (int pid : getAdminSessionPids()) {
+                    stmt.execute("SELECT pg_terminate_backend(" + pid + ")");
+                }
+            }
+
+            insertTestData();
+            provider.rebuildSandbox();
+
+            assertThat(getTableRowCount(PRIMARY_DB, "users")).isEqualTo(2);
+        }
+
+        @Test
+        @DisplayName("Should release admin sessions on close and reconnect afterwards")
+        void shouldReleaseAdminSessionsOnClose() throws Exception {
+            provider.rebuildSandbox();
+            assertThat(getAdminSessionPids()).isNotEmpty();
+
+            provider.close();
+
+            for (int attempt = 0; attempt < 50 && !getAdminSessionPids().isEmpty(); attempt++) {
+                Thread.sleep(100);
+            }
+            assertThat(getAdminSessionPids()).isEmpty();
+
+            insertTestData();
+            provider.rebuildSandbox();
+            assertThat(getTableRowCount(PRIMARY_DB, "users")).isEqualTo(2);
+        }
+
         @Test
         @DisplayName("Should throw SandboxException on database error")
         void shouldThrowSandboxExceptionOnDatabaseError() {
@@ -242,6 +355,379 @@ class PostgresSandboxDatabaseProviderTest {
         }
     }
 
+    @Nested
+    @DisplayName("Skip Clean Rebuilds Tests")
+    class SkipCleanRebuildsTests {
+
+        private PostgresSandboxDatabaseProvider tracking;
+
+        @BeforeEach
+        void prepareTemplate() {
+            provider.prepareSandbox();
+            tracking = provider.withSkipCleanRebuilds(true);
+            tracking.rebuildSandbox();
+        }
+
+        @Test
+        @DisplayName("Should skip rebuild after read-only access")
+        void shouldSkipRebuildAfterReadOnlyAccess() throws SQLException {
+            long oid = getDatabaseOid(PRIMARY_DB);
+            getUserEmails();
+
+            tracking.rebuildSandbox();
+
+            assertThat(getDatabaseOid(PRIMARY_DB)).isEqualTo(oid);
+        }
+
+        @Test
+        @DisplayName("Should rebuild after writes")
+        void shouldRebuildAfterWrites() throws SQLException {
+            long oid = getDatabaseOid(PRIMARY_DB);
+            insertTestData();
+
+            tracking.rebuildSandbox();
+
+            assertThat(getDatabaseOid(PRIMARY_DB)).isNotEqualTo(oid);
+            assertThat(getTableRowCount(PRIMARY_DB, "users")).isEqualTo(2);
+        }
+
+        @Test
+        @DisplayName("Should rebuild after schema changes")
+        void shouldRebuildAfterSchemaChanges() throws SQLException {
+            long oid = getDatabaseOid(PRIMARY_DB);
+            try (Connection appDb = createAppConnection();
+                    Statement stmt = appDb.createStatement()) {
+                stmt.execute("CREATE TABLE scratch (id INT)");
+            }
+
+            tracking.rebuildSandbox();
+
+            assertThat(getDatabaseOid(PRIMARY_DB)).isNotEqualTo(oid);
+        }
+
+        @Test
+        @DisplayName("Should report writes since the last rebuild")
+        void shouldReportModifications() throws SQLException {
+            assertThat(provider.isSandboxModified()).isTrue();
+            provider.rebuildSandbox();
+            getUserEmails();
+
+            assertThat(provider.isSandboxModified()).isFalse();
+
+            insertTestData();
+            assertThat(provider.isSandboxModified()).isTrue();
+        }
+
+        @Test
+        @DisplayName("Should report writes of sessions that are still open")
+        void shouldReportWritesOfOpenSessions() throws SQLException {
+            provider.isSandboxModified();
+            provider.rebuildSandbox();
+
+            try (Connection appDb = createAppConnection();
+                    Statement stmt = appDb.createStatement()) {
+                stmt.execute("INSERT INTO users (name, email) VALUES ('Open', 'open@example.com')");
+
+                assertThat(provider.isSandboxModified()).isTrue();
+            }
+        }
+
+        @Test
+        @DisplayName("Should keep open sessions once the counters show writes")
+        void shouldKeepSessionsOfModifiedSandbox() throws SQLException {
+            provider.isSandboxModified();
+            provider.rebuildSandbox();
+
+            try (Connection appDb = createAppConnection();
+                    Statement stmt = appDb.createStatement()) {
+                stmt.execute("INSERT INTO users (name, email) VALUES ('Open', 'open@example.com')");
+                stmt.execute("SELECT pg_stat_force_next_flush()");
+
+                assertThat(provider.isSandboxModified()).isTrue();
+                assertThat(appDb.isValid(2)).isTrue();
+            }
+        }
+    }
+
+    @Nested
+    @DisplayName("Clone Strategy Tests")
+    class CloneStrategyTests {
+
+        @BeforeEach
+        void prepareTemplate() {
+            provider.prepareSandbox();
+        }
+
+        @ParameterizedTest
+        @EnumSource(CloneStrategy.class)
+        @DisplayName("Should rebuild with every clone strategy")
+        void shouldRebuildWithEveryStrategy(CloneStrategy strategy) throws SQLException {
+            insertTestData();
+
+            provider.withCloneStrategy(strategy).rebuildSandbox();
+
+            assertThat(getTableRowCount(PRIMARY_DB, "users")).isEqualTo(2);
+        }
+
+        @Test
+        @DisplayName("Should create the sandbox in the given tablespace")
+        void shouldCreateSandboxInTablespace() throws Exception {
+            postgres.execInContainer("mkdir", "-p", "/tmp/sandbox_ts");
+            postgres.execInContainer("chown", "postgres", "/tmp/sandbox_ts");
+            try (Statement stmt = adminConnection.createStatement()) {
+                stmt.execute("CREATE TABLESPACE sandbox_ts LOCATION '/tmp/sandbox_ts'");
+            }
+
+            provider.withTablespace("sandbox_ts").rebuildSandbox();
+
+            try (PreparedStatement ps =
+                    adminConnection.prepareStatement(
+                            "SELECT t.spcname FROM pg_database d"
+                                    + " JOIN pg_tablespace t ON t.oid = d.dattablespace"
+                                    + " WHERE d.datname = ?")) {
+                ps.setString(1, PRIMARY_DB);
+                try (ResultSet rs = ps.executeQuery()) {
+                    rs.next();
+                    assertThat(rs.getString(1)).isEqualTo("sandbox_ts");
+                }
+            }
+
+            provider.rebuildSandbox();
+            try (Statement stmt = adminConnection.createStatement()) {
+                stmt.execute("DROP TABLESPACE sandbox_ts");
+            }
+        }
+
+        @Test
+        @DisplayName("Should reject invalid tablespace names")
+        void shouldRejectInvalidTablespace() {
+            assertThatThrownBy(() -> provider.withTablespace("ts; DROP DATABASE x"))
+                    .isInstanceOf(IllegalArgumentException.class);
+        }
+    }
+
+    @Nested
+    @DisplayName("Deferred Drop Tests")
+    class DeferredDropTests {
+
+        @BeforeEach
+        void prepareTemplate() {
+            provider.prepareSandbox();
+        }
+
+        @Test
+        @DisplayName("Should rebuild and drop the used sandboxes in the background")
+        void shouldDropUsedSandboxesInBackground() throws SQLException {
+            try (Statement stmt = adminConnection.createStatement()) {
+                stmt.execute("CREATE DATABASE public_trash_1_0");
+            }
+            PostgresSandboxDatabaseProvider deferred = provider.withDeferredDrop(true);
+
+            for (int i = 0; i < 3; i++) {
+                insertTestData();
+                deferred.rebuildSandbox();
+                assertThat(getTableRowCount(PRIMARY_DB, "users")).isEqualTo(2);
+            }
+            deferred.close();
+
+            assertThat(databaseExists("public_trash_1_0")).isFalse();
+            try (Statement stmt = adminConnection.createStatement();
+                    ResultSet rs =
+                            stmt.executeQuery(
+                                    "SELECT count(*) FROM pg_database"
+                                            + " WHERE datname LIKE 'public\\_trash\\_%'")) {
+                rs.next();
+                assertThat(rs.getInt(1)).isZero();
+            }
+        }
+
+        @Test
+        @DisplayName("Should reject sandbox names too long for tombstones")
+        void shouldRejectLongSandboxNames() {
+            PostgresSandboxDatabaseProvider longName = provider.withSandboxDatabase("s".repeat(40));
+
+            assertThatThrownBy(() -> longName.withDeferredDrop(true))
+                    .isInstanceOf(IllegalArgumentException.class);
+        }
+    }
+
+    @Nested
+    @DisplayName("Timing Tests")
+    class TimingTests {
+
+        private final List<SandboxPhase> phases = new CopyOnWriteArrayList<>();
+        private final SandboxTimingListener listener =
+                (phase, database, durationNanos) -> {
+                    assertThat(durationNanos).isNotNegative();
+                    phases.add(phase);
+                };
+
+        @BeforeEach
+        void addListener() {
+            provider.prepareSandbox();
+            SandboxTimings.addListener(listener);
+        }
+
+        @AfterEach
+        void removeListener() {
+            SandboxTimings.removeListener(listener);
+        }
+
+        @Test
+        @DisplayName("Should report every phase of a rebuild")
+        void shouldReportRebuildPhases() {
+            provider.rebuildSandbox();
+
+            assertThat(phases)
+                    .containsExactly(
+                            SandboxPhase.ADMIN_SESSION,
+                            SandboxPhase.TERMINATE_CONNECTIONS,
+                            SandboxPhase.DROP,
+                            SandboxPhase.CLONE,
+                            SandboxPhase.REBUILD);
+        }
+
+        @Test
+        @DisplayName("Should keep rebuilding when a listener fails")
+        void shouldIgnoreFailingListener() throws SQLException {
+            SandboxTimingListener failing =
+                    (phase, database, durationNanos) -> {
+                        throw new IllegalStateException("boom");
+                    };
+            SandboxTimings.addListener(failing);
+            try {
+                provider.rebuildSandbox();
+            } finally {
+                SandboxTimings.removeListener(failing);
+            }
+
+            assertThat(phases).contains(SandboxPhase.REBUILD);
+            assertThat(getTableRowCount(PRIMARY_DB, "users")).isEqualTo(2);
+        }
+    }
+
+    @Nested
+    @DisplayName("Template Fingerprint Tests")
+    class TemplateFingerprintTests {
+
+        private static final String FINGERPRINTED = "fingerprinted_template";
+
+        @BeforeEach
+        void resetPrimary() {
+            provider.prepareSandbox();
+            provider.rebuildSandbox();
+        }
+
+        @AfterEach
+        void dropTemplate() throws Exception {
+            if (databaseExists(FINGERPRINTED)) {
+                try (Statement stmt = adminConnection.createStatement()) {
+                    stmt.execute("ALTER DATABASE " + FINGERPRINTED + " IS_TEMPLATE false");
+                    stmt.execute("DROP DATABASE " + FINGERPRINTED);
+                }
+            }
+            clearTemplateReady();
+        }
+
+        @Test
+        @DisplayName("Should reuse a template with a matching fingerprint")
+        void shouldReuseMatchingTemplate() throws Exception {
+            fingerprinted("v1").prepareSandbox();
+            long oid = getDatabaseOid(FINGERPRINTED);
+
+            clearTemplateReady();
+            fingerprinted("v1").prepareSandbox();
+
+            assertThat(getDatabaseOid(FINGERPRINTED)).isEqualTo(oid);
+        }
+
+        @Test
+        @DisplayName("Should rebuild a template with a different fingerprint")
+        void shouldRebuildStaleTemplate() throws Exception {
+            fingerprinted("v1").prepareSandbox();
+            long oid = getDatabaseOid(FINGERPRINTED);
+
+            clearTemplateReady();
+            fingerprinted("v2").prepareSandbox();
+
+            assertThat(getDatabaseOid(FINGERPRINTED)).isNotEqualTo(oid);
+            try (PreparedStatement ps =
+                    adminConnection.prepareStatement(
+                            "SELECT shobj_description(oid, 'pg_database') FROM pg_database"
+                                    + " WHERE datname = ?")) {
+                ps.setString(1, FINGERPRINTED);
+                try (ResultSet rs = ps.executeQuery()) {
+                    rs.next();
+                    assertThat(rs.getString(1)).isEqualTo("dbsandboxer:fingerprint=v2");
+                }
+            }
+        }
+
+        @Test
+        @DisplayName("Should rebuild an unstamped template once a fingerprint is set")
+        void shouldRebuildUnstampedTemplate() throws Exception {
+            fingerprinted(null).prepareSandbox();
+            long oid = getDatabaseOid(FINGERPRINTED);
+
+            clearTemplateReady();
+            fingerprinted("v1").prepareSandbox();
+
+            assertThat(getDatabaseOid(FINGERPRINTED)).isNotEqualTo(oid);
+        }
+
+        @Test
+        @DisplayName("Should reject fingerprints that are not safe in a comment")
+        void shouldRejectUnsafeFingerprint() {
+            assertThatThrownBy(() -> provider.withTemplateFingerprint("v1'; DROP DATABASE x"))
+                    .isInstanceOf(IllegalArgumentException.class);
+        }
+
+        private PostgresSandboxDatabaseProvider fingerprinted(String fingerprint) {
+            return new PostgresSandboxDatabaseProvider(
+                            postgres.getHost(),
+                            postgres.getMappedPort(5432),
+                            postgres.getDatabaseName(),
+                            postgres.getUsername(),
+                            postgres.getPassword(),
+                            PRIMARY_DB,
+                            FINGERPRINTED)
+                    .withTemplateFingerprint(fingerprint);
+        }
+    }
+
+    @Nested
+    @DisplayName("acquire Tests")
+    class LeaseTests {
+
+        @Test
+        @DisplayName("Should lease the rebuilt sandbox")
+        void shouldLeaseRebuiltSandbox() throws SQLException {
+            insertTestData();
+
+            try (SandboxLease lease = provider.acquire()) {
+                assertThat(lease.getDatabaseName()).isEqualTo(PRIMARY_DB);
+                assertThat(lease.getJdbcUrl()).endsWith("/" + PRIMARY_DB);
+                assertThat(getTableRowCount(lease.getDatabaseName(), "users")).isEqualTo(2);
+            }
+        }
+
+        @Test
+        @DisplayName("Should block a second caller until the lease is closed")
+        void shouldBlockUntilLeaseClosed() throws Exception {
+            SandboxLease first = provider.acquire();
+            // a different provider instance for the same database waits just as well
+            CompletableFuture<SandboxLease> second =
+                    CompletableFuture.supplyAsync(provider.withSkipCleanRebuilds(false)::acquire);
+
+            Thread.sleep(500);
+            assertThat(second).isNotDone();
+
+            first.close();
+            first.close();
+            second.get(30, TimeUnit.SECONDS).close();
+        }
+    }
+
     @Nested
     @DisplayName("Integration Workflow Tests")
     class IntegrationWorkflowTests {
@@ -272,8 +758,8 @@ class PostgresSandboxDatabaseProviderTest {
             Field templateReadyField =
                     PostgresSandboxDatabaseProvider.class.getDeclaredField("TEMPLATE_READY");
             templateReadyField.setAccessible(true);
-            AtomicBoolean templateReady = (AtomicBoolean) templateReadyField.get(null);
-            templateReady.set(false);
+            Set<?> templateReady = (Set<?>) templateReadyField.get(null);
+            templateReady.clear();
 
             PostgresSandboxDatabaseProvider newProvider =
                     new PostgresSandboxDatabaseProvider(
@@ -306,6 +792,24 @@ class PostgresSandboxDatabaseProviderTest {
         }
     }
 
+    /** Forgets which templates are ready, as a new JVM would. */
+    private static void clearTemplateReady() throws ReflectiveOperationException {
+        Field templateReadyField =
+                PostgresSandboxDatabaseProvider.class.getDeclaredField("TEMPLATE_READY");
+        templateReadyField.setAccessible(true);
+        ((Set<?>) templateReadyField.get(null)).clear();
+    }
+
+    /** Takes or releases the advisory lock the provider takes for {@code name}. */
+    private void advisoryLock(String function, String name) throws SQLException {
+        try (PreparedStatement ps =
+                adminConnection.prepareStatement(
+                        "SELECT " + function + "(x'64627362'::int, hashtext(?))")) {
+            ps.setString(1, name);
+            ps.execute();
+        }
+    }
+
     private boolean templateExists() throws SQLException {
         try (PreparedStatement ps =
                 adminConnection.prepareStatement(
@@ -315,6 +819,33 @@ class PostgresSandboxDatabaseProviderTest {
         }
     }
 
+    private List<Integer> getAdminSessionPids() throws SQLException {
+        List<Integer> pids = new ArrayList<>();
+        try (PreparedStatement ps =
+                adminConnection.prepareStatement(
+                        "SELECT pid FROM pg_stat_activity"
+                                + " WHERE datname = ? AND pid <> pg_backend_pid()")) {
+            ps.setString(1, postgres.getDatabaseName());
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    pids.add(rs.getInt(1));
+                }
+            }
+        }
+        return pids;
+    }
+
+    private long getDatabaseOid(String dbName) throws SQLException {
+        try (PreparedStatement ps =
+                adminConnection.prepareStatement("SELECT oid FROM pg_database WHERE datname = ?")) {
+            ps.setString(1, dbName);
+            try (ResultSet rs = ps.executeQuery()) {
+                rs.next();
+                return rs.getLong(1);
+            }
+        }
+    }
+
     private boolean databaseExists(String dbName) throws SQLException {
         try (PreparedStatement ps =
                 adminConnection.prepareStatement("SELECT 1 FROM pg_database WHERE datname = ?")) {
@@ -0,0 +1,235 @@
+package io.misir.dbsandboxer.core.providers.postgres;
+
+import static org.assertj.core.api.Assertions.*;
+
+import java.sql.*;
+import org.junit.jupiter.api.*;
+import org.testcontainers.containers.PostgreSQLContainer;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+
+@Testcontainers
+@DisplayName("PostgresTableResetSandboxDatabaseProvider Integration Tests")
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+class PostgresTableResetSandboxDatabaseProviderTest {
+
+    @Container
+    static PostgreSQLContainer<?> postgres = new PostgreSQLContainer<>("postgres:16-alpine");
+
+    private static final String PRIMARY_DB = "tables";
+    private static final String TEMPLATE_NAME = "tables_template";
+
+    private PostgresTableResetSandboxDatabaseProvider provider;
+    private Connection adminConnection;
+
+    @BeforeAll
+    void setUp() throws Exception {
+        adminConnection =
+                DriverManager.getConnection(
+                        postgres.getJdbcUrl(), postgres.getUsername(), postgres.getPassword());
+
+        try (Statement stmt = adminConnection.createStatement()) {
+            stmt.execute("CREATE DATABASE " + PRIMARY_DB);
+        }
+
+        try (Connection appDb = createAppConnection();
+                Statement stmt = appDb.createStatement()) {
+            stmt.execute("CREATE TABLE users (id SERIAL PRIMARY KEY, name VARCHAR(100))");
+            stmt.execute(
+                    "CREATE TABLE orders (id SERIAL PRIMARY KEY,"
+                            + " user_id INT NOT NULL REFERENCES users (id))");
+            stmt.execute("CREATE TABLE products (id SERIAL PRIMARY KEY, name VARCHAR(100))");
+            stmt.execute("INSERT INTO users (name) VALUES ('Alice'), ('Bob')");
+            stmt.execute("INSERT INTO orders (user_id) VALUES (1), (2)");
+            stmt.execute("INSERT INTO products (name) VALUES ('Book')");
+        }
+
+        provider =
+                new PostgresTableResetSandboxDatabaseProvider(
+                        postgres.getHost(),
+                        postgres.getMappedPort(5432),
+                        postgres.getDatabaseName(),
+                        postgres.getUsername(),
+                        postgres.getPassword(),
+                        PRIMARY_DB,
+                        TEMPLATE_NAME);
+        provider.prepareSandbox();
+    }
+
+    @AfterAll
+    void tearDown() throws SQLException {
+        provider.close();
+        adminConnection.close();
+    }
+
+    @BeforeEach
+    void rebuild() {
+        provider.rebuildSandbox();
+    }
+
+    @Test
+    @DisplayName("Should restore modified rows")
+    void shouldRestoreModifiedRows() throws SQLException {
+        execute("UPDATE users SET name = 'Mallory'");
+        execute("INSERT INTO users (name) VALUES ('Charlie')");
+
+        provider.rebuildSandbox();
+
+        assertThat(queryInt("SELECT COUNT(*) FROM users WHERE name = 'Mallory'")).isZero();
+        assertThat(queryInt("SELECT COUNT(*) FROM users")).isEqualTo(2);
+    }
+
+    @Test
+    @DisplayName("Should restore tables referencing a modified table")
+    void shouldRestoreReferencingTables() throws SQLException {
+        provider.rebuildSandbox();
+
+        assertThat(queryInt("SELECT COUNT(*) FROM orders")).isEqualTo(2);
+        assertThat(queryInt("SELECT COUNT(*) FROM users")).isEqualTo(2);
+
+        execute("TRUNCATE users CASCADE");
+        provider.rebuildSandbox();
+
+        assertThat(queryInt("SELECT COUNT(*) FROM orders")).isEqualTo(2);
+        assertThat(queryInt("SELECT COUNT(*) FROM users")).isEqualTo(2);
+    }
+
+    @Test
+    @DisplayName("Should reset sequences")
+    void shouldResetSequences() throws SQLException {
+        execute("INSERT INTO users (name) VALUES ('Charlie')");
+
+        provider.rebuildSandbox();
+        execute("INSERT INTO users (name) VALUES ('Dave')");
+
+        assertThat(queryInt("SELECT id FROM users WHERE name = 'Dave'")).isEqualTo(3);
+    }
+
+    @Test
+    @DisplayName("Should leave unmodified tables in place")
+    void shouldLeaveUnmodifiedTables() throws SQLException {
+        int before = queryInt("SELECT relfilenode FROM pg_class WHERE relname = 'products'");
+        String row = queryString("SELECT ctid::text FROM products WHERE name = 'Book'");
+        execute("INSERT INTO users (name) VALUES ('Charlie')");
+
+        provider.rebuildSandbox();
+
+        assertThat(queryInt("SELECT relfilenode FROM pg_class WHERE relname = 'products'"))
+                .isEqualTo(before);
+        assertThat(queryString("SELECT ctid::text FROM products WHERE name = 'Book'"))
+                .isEqualTo(row);
+        assertThat(queryInt("SELECT COUNT(*) FROM products")).isEqualTo(1);
+    }
+
+    @Test
+    @DisplayName("Should clone from a template with the tracking installed once")
+    void shouldInstallTrackingIntoTemplate() throws SQLException {
+        long templateOid = getDatabaseOid(TEMPLATE_NAME + "_tables");
+        execute("ALTER TABLE products ADD COLUMN price INT");
+
+        provider.rebuildSandbox();
+        provider.prepareSandbox();
+
+        assertThat(getDatabaseOid(TEMPLATE_NAME + "_tables")).isEqualTo(templateOid);
+        assertThat(queryInt("SELECT COUNT(*) FROM dbsandboxer.snapshots")).isEqualTo(3);
+        assertThat(queryInt("SELECT COUNT(*) FROM dbsandboxer.dirty_tables")).isZero();
+    }
+
+    @Test
+    @DisplayName("Should clone again after a schema change")
+    void shouldCloneAfterSchemaChange() throws SQLException {
+        long oid = getDatabaseOid();
+        execute("ALTER TABLE products ADD COLUMN price INT");
+
+        provider.rebuildSandbox();
+
+        assertThat(getDatabaseOid()).isNotEqualTo(oid);
+        assertThat(
+                        queryInt(
+                                "SELECT COUNT(*) FROM information_schema.columns"
+                                        + " WHERE table_name = 'products' AND column_name = 'price'"))
+                .isZero();
+    }
+
+    @Test
+    @DisplayName("Should not clone when only rows changed")
+    void shouldNotCloneForRowChanges() throws SQLException {
+        long oid = getDatabaseOid();
+        execute("DELETE FROM orders");
+
+        provider.rebuildSandbox();
+
+        assertThat(getDatabaseOid()).isEqualTo(oid);
+        assertThat(queryInt("SELECT COUNT(*) FROM orders")).isEqualTo(2);
+    }
+
+    @Test
+    @DisplayName("Should reject a template name without room for the suffix")
+    void shouldRejectLongTemplateName() {
+        String templateName = "t".repeat(PostgresAdmin.MAX_IDENTIFIER_LENGTH - 1);
+
+        assertThatThrownBy(
+                        () ->
+                                new PostgresTableResetSandboxDatabaseProvider(
+                                        "localhost",
+                                        5432,
+                                        "postgres",
+                                        "user",
+                                        "pass",
+                                        PRIMARY_DB,
+                                        templateName))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessageContaining(templateName);
+    }
+
+    private long getDatabaseOid() throws SQLException {
+        return getDatabaseOid(PRIMARY_DB);
+    }
+
+    private long getDatabaseOid(String database) throws SQLException {
+        try (PreparedStatement ps =
+                adminConnection.prepareStatement("SELECT oid FROM pg_database WHERE datname = ?")) {
+            ps.setString(1, database);
+            try (ResultSet rs = ps.executeQuery()) {
+                rs.next();
+                return rs.getLong(1);
+            }
+        }
+    }
+
+    private void execute(String sql) throws SQLException {
+        try (Connection appDb = createAppConnection();
+                Statement stmt = appDb.createStatement()) {
+            stmt.execute(sql);
+        }
+    }
+
+    private int queryInt(String sql) throws SQLException {
+        try (Connection appDb = createAppConnection();
+                Statement stmt = appDb.createStatement();
+                ResultSet rs = stmt.executeQuery(sql)) {
+            rs.next();
+            return rs.getInt(1);
+        }
+    }
+
+    private String queryString(String sql) throws SQLException {
+        try (Connection appDb = createAppConnection();
+                Statement stmt = appDb.createStatement();
+                ResultSet rs = stmt.executeQuery(sql)) {
+            rs.next();
+            return rs.getString(1);
+        }
+    }
+
+    private Connection createAppConnection() throws SQLException {
+        String url =
+                "jdbc:postgresql://"
+                        + postgres.getHost()
+                        + ":"
+                        + postgres.getMappedPort(5432)
+                        + "/"
+                        + PRIMARY_DB;
+        return DriverManager.getConnection(url, postgres.getUsername(), postgres.getPassword());
+    }
+}
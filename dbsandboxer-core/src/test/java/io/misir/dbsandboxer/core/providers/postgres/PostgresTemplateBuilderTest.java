@@ -0,0 +1,139 @@
+package io.misir.dbsandboxer.core.providers.postgres;
+
+import static org.assertj.core.api.Assertions.*;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.*;
+import java.util.zip.GZIPOutputStream;
+import org.junit.jupiter.api.*;
+import org.junit.jupiter.api.io.TempDir;
+import org.testcontainers.containers.PostgreSQLContainer;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+
+@Testcontainers
+@DisplayName("PostgresTemplateBuilder Integration Tests")
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+class PostgresTemplateBuilderTest {
+
+    @Container
+    static PostgreSQLContainer<?> postgres = new PostgreSQLContainer<>("postgres:16-alpine");
+
+    private static final String SANDBOX_DB = "shop";
+    private static final String TEMPLATE_NAME = "shop_template";
+
+    @TempDir Path dir;
+
+    private PostgresSandboxDatabaseProvider provider;
+
+    @BeforeAll
+    void setUp() throws IOException {
+        Path schema = dir.resolve("schema.sql");
+        Files.writeString(
+                schema,
+                """
+                    CREATE TABLE customers (
+                        id SERIAL PRIMARY KEY,
+                        name TEXT NOT NULL
+                    );
+                    CREATE TABLE orders (
+                        id BIGINT GENERATED BY DEFAULT AS IDENTITY PRIMARY KEY,
+                        customer_id INT NOT NULL REFERENCES customers (id),
+                        "Total" NUMERIC(10, 2)
+                    );
+                    CREATE INDEX orders_customer_idx ON orders (customer_id);
+                """);
+        Path fixtures = Files.createDirectories(dir.resolve("fixtures"));
+        Files.writeString(fixtures.resolve("customers.csv"), "id,name\n1,Alice\n2,\"Bob, Jr.\"\n");
+        try (OutputStream out =
+                new GZIPOutputStream(
+                        Files.newOutputStream(fixtures.resolve("public.orders.csv.gz")))) {
+            out.write("id,customer_id,\"Total\"\r\n7,2,9.90\r\n".getBytes(StandardCharsets.UTF_8));
+        }
+        Files.writeString(fixtures.resolve("README.txt"), "not a fixture");
+
+        provider =
+                new PostgresSandboxDatabaseProvider(
+                                postgres.getHost(),
+                                postgres.getMappedPort(5432),
+                                postgres.getDatabaseName(),
+                                postgres.getUsername(),
+                                postgres.getPassword(),
+                                SANDBOX_DB,
+                                TEMPLATE_NAME)
+                        .withTemplateBuilder(
+                                new PostgresTemplateBuilder()
+                                        .withSchemaScript(schema)
+                                        .withCsvFixtures(fixtures)
+                                        .withParallelism(2));
+        provider.prepareSandbox();
+        provider.rebuildSandbox();
+    }
+
+    @AfterAll
+    void tearDown() {
+        provider.close();
+    }
+
+    @Test
+    @DisplayName("Should load the fixtures into a sandbox without a primary database")
+    void shouldLoadFixtures() throws SQLException {
+        assertThat(query("SELECT string_agg(name, '|' ORDER BY id) FROM customers"))
+                .isEqualTo("Alice|Bob, Jr.");
+        assertThat(query("SELECT \"Total\" || '@' || customer_id FROM orders")).isEqualTo("9.90@2");
+    }
+
+    @Test
+    @DisplayName("Should build the deferred indexes after the load")
+    void shouldRecreateIndexes() throws SQLException {
+        assertThat(query("SELECT count(*) FROM pg_indexes WHERE indexname = 'orders_customer_idx'"))
+                .isEqualTo("1");
+    }
+
+    @Test
+    @DisplayName("Should advance sequences past the loaded rows")
+    void shouldAdvanceSequences() throws SQLException {
+        try (Connection c = sandboxConnection();
+                Statement stmt = c.createStatement()) {
+            stmt.execute("INSERT INTO customers (name) VALUES ('Carol')");
+            stmt.execute("INSERT INTO orders (customer_id) VALUES (1)");
+        }
+        assertThat(query("SELECT max(id) FROM customers")).isEqualTo("3");
+        assertThat(query("SELECT max(id) FROM orders")).isEqualTo("8");
+        provider.rebuildSandbox();
+    }
+
+    @Test
+    @DisplayName("Should reject invalid settings")
+    void shouldRejectInvalidSettings() {
+        assertThatThrownBy(() -> new PostgresTemplateBuilder().withParallelism(0))
+                .isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> new PostgresTemplateBuilder().withCsvFixtures(null))
+                .isInstanceOf(NullPointerException.class);
+    }
+
+    private String query(String sql) throws SQLException {
+        try (Connection c = sandboxConnection();
+                Statement stmt = c.createStatement();
+                ResultSet rs = stmt.executeQuery(sql)) {
+            rs.next();
+            return rs.getString(1);
+        }
+    }
+
+    private Connection sandboxConnection() throws SQLException {
+        return DriverManager.getConnection(
+                "jdbc:postgresql://"
+                        + postgres.getHost()
+                        + ":"
+                        + postgres.getMappedPort(5432)
+                        + "/"
+                        + SANDBOX_DB,
+                postgres.getUsername(),
+                postgres.getPassword());
+    }
+}
@@ -0,0 +1,106 @@
+package io.misir.dbsandboxer.starter;
+
+import java.util.List;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.test.context.ContextConfigurationAttributes;
+import org.springframework.test.context.ContextCustomizer;
+import org.springframework.test.context.ContextCustomizerFactory;
+import org.springframework.test.context.MergedContextConfiguration;
+import org.springframework.test.context.TestContextAnnotationUtils;
+
+/**
+ * Installs the {@link SandboxDataSource} wrapper into test contexts whose sandbox mode needs to
+ * route connections, e.g. {@link EnableDbSandboxer#parallel()}, the {@link SavepointDataSource}
+ * wrapper into those using {@link ResetStrategy#SAVEPOINT} and the {@link LazyResetDataSource}
+ * wrapper into those using {@link EnableDbSandboxer#lazyReset()}.
+ *
+ * <p>Registered through {@code META-INF/spring.factories}. Contexts of test classes that do not
+ * need routing are left untouched, so they keep sharing the Spring context cache with other tests.
+ *
+ * @author Fethullah Misir
+ */
+public final class DbSandboxContextCustomizerFactory implements ContextCustomizerFactory {
+
+    @Override
+    public ContextCustomizer createContextCustomizer(
+            Class<?> testClass, List<ContextConfigurationAttributes> configAttributes) {
+        EnableDbSandboxer cfg =
+                TestContextAnnotationUtils.findMergedAnnotation(testClass, EnableDbSandboxer.class);
+        if (cfg == null) {
+            return null;
+        }
+        if (cfg.resetStrategy() == ResetStrategy.SAVEPOINT) {
+            return new SavepointCustomizer();
+        }
+        if (cfg.lazyReset()) {
+            return new LazyResetCustomizer();
+        }
+        if (!cfg.parallel()) {
+            return null;
+        }
+        return new RoutingCustomizer();
+    }
+
+    private static final class RoutingCustomizer implements ContextCustomizer {
+
+        @Override
+        public void customizeContext(
+                ConfigurableApplicationContext context, MergedContextConfiguration mergedConfig) {
+            context.getBeanFactory()
+                    .addBeanPostProcessor(
+                            new SandboxDataSourcePostProcessor(SandboxDataSource::new));
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            return other instanceof RoutingCustomizer;
+        }
+
+        @Override
+        public int hashCode() {
+            return RoutingCustomizer.class.hashCode();
+        }
+    }
+
+    private static final class LazyResetCustomizer implements ContextCustomizer {
+
+        @Override
+        public void customizeContext(
+                ConfigurableApplicationContext context, MergedContextConfiguration mergedConfig) {
+            context.getBeanFactory()
+                    .addBeanPostProcessor(
+                            new SandboxDataSourcePostProcessor(LazyResetDataSource::new));
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            return other instanceof LazyResetCustomizer;
+        }
+
+        @Override
+        public int hashCode() {
+            return LazyResetCustomizer.class.hashCode();
+        }
+    }
+
+    private static final class SavepointCustomizer implements ContextCustomizer {
+
+        @Override
+        public void customizeContext(
+                ConfigurableApplicationContext context, MergedContextConfiguration mergedConfig) {
+            context.getBeanFactory()
+                    .addBeanPostProcessor(
+                            new SandboxDataSourcePostProcessor(SavepointDataSource::new));
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            return other instanceof SavepointCustomizer;
+        }
+
+        @Override
+        public int hashCode() {
+            return SavepointCustomizer.class.hashCode();
+        }
+    }
+}
@@ -2,83 +2,956 @@ package io.misir.dbsandboxer.starter;
 
 import io.misir.dbsandboxer.core.api.SandboxDatabaseProvider;
 import io.misir.dbsandboxer.core.api.SandboxException;
+import io.misir.dbsandboxer.core.api.TemplateFingerprint;
+import io.misir.dbsandboxer.core.providers.file.FileSandboxDatabaseProvider;
+import io.misir.dbsandboxer.core.providers.mysql.MySqlSandboxDatabaseProvider;
+import io.misir.dbsandboxer.core.providers.postgres.PooledPostgresSandboxDatabaseProvider;
+import io.misir.dbsandboxer.core.providers.postgres.PostgresHighWaterMarkSandboxDatabaseProvider;
 import io.misir.dbsandboxer.core.providers.postgres.PostgresSandboxDatabaseProvider;
+import io.misir.dbsandboxer.core.providers.postgres.PostgresTableResetSandboxDatabaseProvider;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Method;
+import java.nio.file.Path;
 import java.sql.Connection;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
 import javax.sql.DataSource;
+import org.junit.jupiter.api.extension.AfterAllCallback;
+import org.junit.jupiter.api.extension.AfterEachCallback;
 import org.junit.jupiter.api.extension.BeforeAllCallback;
 import org.junit.jupiter.api.extension.BeforeEachCallback;
 import org.junit.jupiter.api.extension.ExtensionContext;
+import org.junit.platform.commons.support.AnnotationSupport;
 import org.springframework.context.ApplicationContext;
+import org.springframework.context.ApplicationEvent;
+import org.springframework.context.ApplicationListener;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.context.event.ContextClosedEvent;
+import org.springframework.core.io.Resource;
 import org.springframework.test.context.junit.jupiter.SpringExtension;
 
-public final class DbSandboxSpringExtension implements BeforeAllCallback, BeforeEachCallback {
+public final class DbSandboxSpringExtension
+        implements BeforeAllCallback, BeforeEachCallback, AfterEachCallback, AfterAllCallback {
 
-    private SandboxDatabaseProvider provider;
+    private static final ExtensionContext.Namespace NAMESPACE =
+            ExtensionContext.Namespace.create(DbSandboxSpringExtension.class);
+
+    private static final String SQLITE_PREFIX = "jdbc:sqlite:";
+    private static final String H2_PREFIX = "jdbc:h2:";
+    private static final String H2_FILE_SUFFIX = ".mv.db";
+    private static final String POSTGRES_PREFIX = "jdbc:postgresql:";
+    private static final String MYSQL_PREFIX = "jdbc:mysql:";
+    private static final String MARIADB_PREFIX = "jdbc:mariadb:";
+    private static final int POSTGRES_PORT = 5432;
+    private static final int MYSQL_PORT = 3306;
+
+    private static final AtomicInteger WORKERS = new AtomicInteger();
+    private static final ThreadLocal<Integer> WORKER_INDEX =
+            ThreadLocal.withInitial(WORKERS::getAndIncrement);
+
+    /**
+     * The sandbox that last rebuilt its database; a reset done ahead is only valid if unchanged.
+     */
+    private static volatile ResolvedSandbox lastReset;
+
+    /**
+     * The sandbox to reset in the background once Spring is done with the current test, see {@link
+     * SandboxResetTestExecutionListener}.
+     */
+    private static final ThreadLocal<ResolvedSandbox> RESET_AFTER_TEST = new ThreadLocal<>();
+
+    /** The sandbox of the test class running on this thread, for {@link #resetBeforeTest}. */
+    private static final ThreadLocal<ResolvedSandbox> CURRENT = new ThreadLocal<>();
+
+    /** The reset {@link #resetBeforeTest} did for the current test, if any. */
+    private static final ThreadLocal<BeforeTest> RESET_BEFORE_TEST = new ThreadLocal<>();
+
+    private ResolvedSandbox sandbox;
 
     @Override
-    public void beforeAll(ExtensionContext ctx) throws Exception {
+    public void beforeAll(ExtensionContext ctx) throws SQLException {
+        resolveSandbox(ctx);
+    }
+
+    private void resolveSandbox(ExtensionContext ctx) throws SQLException {
         ApplicationContext appCtx = SpringExtension.getApplicationContext(ctx);
-        DataSource ds = appCtx.getBean(DataSource.class);
-        // Prefer an existing DatabaseProvider bean if available
-        SandboxDatabaseProvider p;
+        EnableDbSandboxer cfg = ctx.getRequiredTestClass().getAnnotation(EnableDbSandboxer.class);
+        if (cfg != null && cfg.parallel() && cfg.poolSize() > 0) {
+            throw new SandboxException("poolSize cannot be combined with parallel sandboxes");
+        }
+        if (cfg != null
+                && cfg.resetStrategy() != ResetStrategy.CLONE
+                && (cfg.parallel() || cfg.poolSize() > 0)) {
+            throw new SandboxException(
+                    cfg.resetStrategy() + " reset cannot be combined with poolSize or parallel");
+        }
+        if (cfg != null && cfg.parallel() && cfg.resetAfterEach()) {
+            throw new SandboxException("resetAfterEach cannot be combined with parallel sandboxes");
+        }
+        if (cfg != null
+                && cfg.lazyReset()
+                && (cfg.parallel()
+                        || cfg.resetAfterEach()
+                        || cfg.resetStrategy() == ResetStrategy.SAVEPOINT)) {
+            throw new SandboxException(
+                    "lazyReset cannot be combined with parallel, resetAfterEach or SAVEPOINT reset");
+        }
+        // Test classes sharing a cached Spring context and configuration share the provider
+        SandboxKey key =
+                new SandboxKey(
+                        appCtx.getId() + '@' + Integer.toHexString(System.identityHashCode(appCtx)),
+                        cfg);
+        ExtensionContext.Store store = ctx.getRoot().getStore(NAMESPACE);
+        this.sandbox =
+                store.getOrComputeIfAbsent(
+                        key,
+                        k -> {
+                            ResolvedSandbox resolved = resolve(ctx, appCtx, cfg);
+                            closeWithContext(appCtx, store, k, resolved);
+                            return resolved;
+                        },
+                        ResolvedSandbox.class);
+        sandbox.prepare();
+        CURRENT.set(sandbox);
+    }
+
+    /**
+     * Closes the sandbox and removes it from the store when Spring closes its context, e.g. when
+     * the context cache evicts it, instead of keeping its executors, pools and worker databases
+     * until the end of the run.
+     */
+    private static void closeWithContext(
+            ApplicationContext appCtx,
+            ExtensionContext.Store store,
+            SandboxKey key,
+            ResolvedSandbox sandbox) {
+        if (!(appCtx instanceof ConfigurableApplicationContext configurable)) {
+            return;
+        }
+        ApplicationListener<ApplicationEvent> listener =
+                event -> {
+                    if (event instanceof ContextClosedEvent closed
+                            && closed.getApplicationContext() == appCtx
+                            && !sandbox.isClosed()) { // else closed with the store after the run
+                        store.remove(key, ResolvedSandbox.class);
+                        try {
+                            sandbox.close();
+                        } catch (Exception e) {
+                            throw new SandboxException(e);
+                        }
+                    }
+                };
+        configurable.addApplicationListener(listener);
+    }
+
+    private static ResolvedSandbox resolve(
+            ExtensionContext ctx, ApplicationContext appCtx, EnableDbSandboxer cfg) {
         try {
-            p = appCtx.getBean(SandboxDatabaseProvider.class);
-        } catch (Exception noBean) {
-            // Fallback: derive a PostgresProvider from DataSource URL + annotation config
-            EnableDbSandboxer cfg =
-                    ctx.getRequiredTestClass().getAnnotation(EnableDbSandboxer.class);
-            DbUrlParts url = inspectUrl(ds);
-            p =
-                    new PostgresSandboxDatabaseProvider(
-                            url.host,
-                            url.port,
-                            cfg.maintenanceDb(),
-                            cfg.adminUser(),
-                            cfg.adminPassword(),
-                            url.primaryDatabaseName(),
-                            cfg.templateDatabaseName());
-        }
-        this.provider = p;
-        this.provider.prepareSandbox();
+            List<DataSource> dataSources =
+                    List.copyOf(appCtx.getBeansOfType(DataSource.class).values());
+            if (dataSources.isEmpty()) {
+                throw new SandboxException("No DataSource bean in the application context");
+            }
+            boolean parallel = cfg != null && cfg.parallel();
+            // Prefer existing SandboxDatabaseProvider beans if available
+            List<SandboxDatabaseProvider> providers =
+                    List.copyOf(appCtx.getBeansOfType(SandboxDatabaseProvider.class).values());
+            List<SandboxDatabaseProvider> owned = new ArrayList<>();
+            if (providers.isEmpty()) {
+                // Fallback: derive a provider from each DataSource URL + annotation config
+                providers = createProviders(ctx, appCtx, cfg, dataSources, owned);
+            }
+            if (parallel
+                    && (providers.size() > 1
+                            || !(providers.get(0) instanceof PostgresSandboxDatabaseProvider))) {
+                throw new SandboxException(
+                        "Parallel sandboxes require a single PostgresSandboxDatabaseProvider, got: "
+                                + providers);
+            }
+            List<HikariPoolDrain> poolDrains = new ArrayList<>();
+            if (!parallel && (cfg == null || cfg.drainConnectionPool())) {
+                for (DataSource ds : dataSources) {
+                    HikariPoolDrain poolDrain = HikariPoolDrain.of(ds);
+                    if (poolDrain != null) {
+                        poolDrains.add(poolDrain);
+                    }
+                }
+            }
+            List<SandboxDataSource> routed = new ArrayList<>();
+            if (parallel) {
+                for (DataSource ds : dataSources) {
+                    if (ds.isWrapperFor(SandboxDataSource.class)) {
+                        routed.add(ds.unwrap(SandboxDataSource.class));
+                    }
+                }
+            }
+            List<SavepointDataSource> savepoints = new ArrayList<>();
+            if (cfg != null && cfg.resetStrategy() == ResetStrategy.SAVEPOINT) {
+                for (DataSource ds : dataSources) {
+                    if (!ds.isWrapperFor(SavepointDataSource.class)) {
+                        throw new SandboxException(
+                                "SAVEPOINT reset needs the DataSource wrapped by the dbsandboxer"
+                                        + " context customizer, got: "
+                                        + ds.getClass().getName());
+                    }
+                    savepoints.add(ds.unwrap(SavepointDataSource.class));
+                }
+            }
+            List<LazyResetDataSource> lazyDataSources = new ArrayList<>();
+            if (cfg != null && cfg.lazyReset()) {
+                for (DataSource ds : dataSources) {
+                    if (!ds.isWrapperFor(LazyResetDataSource.class)) {
+                        throw new SandboxException(
+                                "lazyReset needs the DataSource wrapped by the dbsandboxer context"
+                                        + " customizer, got: "
+                                        + ds.getClass().getName());
+                    }
+                    lazyDataSources.add(ds.unwrap(LazyResetDataSource.class));
+                }
+            }
+            int maxConcurrentResets = cfg == null ? 4 : cfg.maxConcurrentResets();
+            if (maxConcurrentResets < 1) {
+                throw new SandboxException(
+                        "maxConcurrentResets must be at least 1, got: " + maxConcurrentResets);
+            }
+            boolean async = cfg != null && cfg.resetAfterEach();
+            // The next run rebuilds a stale template from the primary database, so leave it clean
+            boolean cleanOnClose =
+                    !owned.isEmpty()
+                            && !parallel
+                            && cfg != null
+                            && cfg.templateFingerprintLocations().length > 0;
+            return new ResolvedSandbox(
+                    providers,
+                    owned,
+                    parallel,
+                    async,
+                    cleanOnClose,
+                    maxConcurrentResets,
+                    poolDrains,
+                    routed,
+                    savepoints,
+                    lazyDataSources);
+        } catch (SQLException | IOException e) {
+            throw new SandboxException(e);
+        }
+    }
+
+    /**
+     * One provider per database behind the DataSources, chosen by the JDBC URL: SQLite and H2
+     * files, MySQL and MariaDB, or PostgreSQL. With several server databases, each gets its own
+     * template, {@code <templateDatabaseName>_<database>}. Providers that are not shared through
+     * the root store are added to {@code owned}, for the sandbox to close.
+     *
+     * @throws SandboxException for any other database
+     */
+    private static List<SandboxDatabaseProvider> createProviders(
+            ExtensionContext ctx,
+            ApplicationContext appCtx,
+            EnableDbSandboxer cfg,
+            List<DataSource> dataSources,
+            List<SandboxDatabaseProvider> owned)
+            throws SQLException, IOException {
+        // DataSource beans wrapping the same database share its provider
+        Set<String> urls = new LinkedHashSet<>();
+        for (DataSource ds : dataSources) {
+            urls.add(jdbcUrl(ds));
+        }
+        List<SandboxDatabaseProvider> providers = new ArrayList<>();
+        for (String url : urls) {
+            Path file = embeddedDatabaseFile(url);
+            if (file != null) {
+                SandboxDatabaseProvider provider = createFileProvider(cfg, file);
+                providers.add(provider);
+                owned.add(provider);
+                continue;
+            }
+            boolean mysql = url.startsWith(MYSQL_PREFIX) || url.startsWith(MARIADB_PREFIX);
+            if (!mysql && !url.startsWith(POSTGRES_PREFIX)) {
+                throw new SandboxException(
+                        "Unsupported database URL, declare a SandboxDatabaseProvider bean for it: "
+                                + url);
+            }
+            DbUrlParts parts = inspectUrl(url, mysql ? MYSQL_PORT : POSTGRES_PORT);
+            String template =
+                    urls.size() == 1
+                            ? cfg.templateDatabaseName()
+                            : cfg.templateDatabaseName() + '_' + parts.primaryDatabaseName();
+            if (mysql) {
+                SandboxDatabaseProvider provider = createMySqlProvider(cfg, parts, template);
+                providers.add(provider);
+                owned.add(provider);
+            } else {
+                providers.add(createProvider(ctx, appCtx, cfg, parts, template, owned));
+            }
+        }
+        return List.copyOf(providers);
+    }
+
+    private static SandboxDatabaseProvider createFileProvider(EnableDbSandboxer cfg, Path file) {
+        if (cfg != null && (cfg.resetStrategy() != ResetStrategy.CLONE || cfg.poolSize() > 0)) {
+            throw new SandboxException(
+                    "poolSize and non-clone reset strategies require PostgreSQL, got database file: "
+                            + file);
+        }
+        return new FileSandboxDatabaseProvider(file);
+    }
+
+    private static SandboxDatabaseProvider createMySqlProvider(
+            EnableDbSandboxer cfg, DbUrlParts url, String templateName) {
+        if (cfg.resetStrategy() != ResetStrategy.CLONE || cfg.poolSize() > 0) {
+            throw new SandboxException(
+                    "poolSize and non-clone reset strategies require PostgreSQL, got MySQL database: "
+                            + url.primaryDatabaseName());
+        }
+        return new MySqlSandboxDatabaseProvider(
+                url.host,
+                url.port,
+                cfg.adminUser(),
+                cfg.adminPassword(),
+                url.primaryDatabaseName(),
+                templateName);
+    }
+
+    private static SandboxDatabaseProvider createProvider(
+            ExtensionContext ctx,
+            ApplicationContext appCtx,
+            EnableDbSandboxer cfg,
+            DbUrlParts url,
+            String templateName,
+            List<SandboxDatabaseProvider> owned)
+            throws IOException {
+        PostgresSandboxDatabaseProvider base =
+                new PostgresSandboxDatabaseProvider(
+                                url.host,
+                                url.port,
+                                cfg.maintenanceDb(),
+                                cfg.adminUser(),
+                                cfg.adminPassword(),
+                                url.primaryDatabaseName(),
+                                templateName)
+                        .withSkipCleanRebuilds(cfg.skipCleanRebuilds())
+                        .withCloneStrategy(cfg.cloneStrategy())
+                        .withTablespace(cfg.tablespace().isEmpty() ? null : cfg.tablespace())
+                        .withDeferredDrop(cfg.deferredDrop())
+                        .withTemplateFingerprint(templateFingerprint(appCtx, cfg));
+        if (cfg.resetStrategy() == ResetStrategy.TABLES) {
+            return sharedProvider(
+                    ctx,
+                    url,
+                    templateName,
+                    "tables",
+                    () -> new PostgresTableResetSandboxDatabaseProvider(base));
+        }
+        if (cfg.resetStrategy() == ResetStrategy.HIGH_WATER_MARK) {
+            return sharedProvider(
+                    ctx,
+                    url,
+                    templateName,
+                    "high-water-mark",
+                    () -> new PostgresHighWaterMarkSandboxDatabaseProvider(base));
+        }
+        if (cfg.poolSize() > 0) {
+            return sharedProvider(
+                    ctx,
+                    url,
+                    templateName,
+                    "pool",
+                    () -> new PooledPostgresSandboxDatabaseProvider(base, cfg.poolSize()));
+        }
+        owned.add(base);
+        return base;
     }
 
     @Override
-    public void beforeEach(ExtensionContext ctx) {
-        if (provider == null) {
+    public void beforeEach(ExtensionContext ctx) throws SQLException {
+        if (sandbox == null) {
             throw new SandboxException("No PostgreSQL database provider available");
         }
-        provider.rebuildSandbox();
+        if (sandbox.isClosed()) {
+            resolveSandbox(ctx); // its context was closed, e.g. through @DirtiesContext
+        }
+        Class<?> testClass = ctx.getRequiredTestClass();
+        BeforeTest done = RESET_BEFORE_TEST.get();
+        RESET_BEFORE_TEST.remove();
+        if (done != null && done.sandbox() == sandbox) {
+            report(ctx).record(testClass, done.nanos());
+        } else {
+            long start = System.nanoTime();
+            try {
+                sandbox.beforeEach(resetMode(ctx.getRequiredTestMethod(), testClass), testClass);
+            } finally {
+                report(ctx).record(testClass, System.nanoTime() - start);
+            }
+        }
+        CURRENT.set(sandbox);
+        if (resetMode(null, testClass) == ResetMode.BEFORE_EACH) {
+            RESET_AFTER_TEST.set(sandbox);
+        } else {
+            RESET_AFTER_TEST.remove();
+        }
+    }
+
+    @Override
+    public void afterEach(ExtensionContext ctx) {
+        SandboxRouting.clear();
     }
 
-    private static DbUrlParts inspectUrl(DataSource ds) throws SQLException {
+    /**
+     * Prepares the database for the test before Spring starts the test-managed transaction and runs
+     * {@code @Sql} scripts, if JUnit runs the {@code SpringExtension}'s {@code beforeEach} first.
+     * {@link #beforeEach} then only reports the time taken.
+     */
+    static void resetBeforeTest(Class<?> testClass, Method testMethod) throws SQLException {
+        ResolvedSandbox sandbox = CURRENT.get();
+        if (sandbox == null || sandbox.isClosed()) {
+            return; // the extension resolves the sandbox of the new context
+        }
+        long start = System.nanoTime();
+        sandbox.beforeEach(resetMode(testMethod, testClass), testClass);
+        RESET_BEFORE_TEST.set(new BeforeTest(sandbox, System.nanoTime() - start));
+    }
+
+    /**
+     * Starts the reset for the next test, unless the sandbox does not reset after each test or was
+     * closed with its context. Called once Spring has rolled back the test's transaction.
+     */
+    static void startResetAfterTest() {
+        ResolvedSandbox sandbox = RESET_AFTER_TEST.get();
+        RESET_AFTER_TEST.remove();
+        if (sandbox != null && !sandbox.isClosed()) {
+            sandbox.afterEach();
+        }
+    }
+
+    /**
+     * Lets a reset started after the last test finish before another class touches the database.
+     */
+    @Override
+    public void afterAll(ExtensionContext ctx) {
+        CURRENT.remove();
+        RESET_AFTER_TEST.remove();
+        if (sandbox != null) {
+            sandbox.awaitPendingReset();
+        }
+    }
+
+    /**
+     * The {@link SandboxReset} mode of the nearest annotated element: the test method if given, its
+     * class or an enclosing class.
+     */
+    private static ResetMode resetMode(Method testMethod, Class<?> testClass) {
+        Optional<SandboxReset> reset =
+                AnnotationSupport.findAnnotation(testMethod, SandboxReset.class);
+        for (Class<?> c = testClass; reset.isEmpty() && c != null; c = c.getEnclosingClass()) {
+            reset = AnnotationSupport.findAnnotation(c, SandboxReset.class);
+        }
+        return reset.map(SandboxReset::value).orElse(ResetMode.BEFORE_EACH);
+    }
+
+    private static SandboxTimingReport report(ExtensionContext ctx) {
+        return ctx.getRoot()
+                .getStore(NAMESPACE)
+                .getOrComputeIfAbsent(
+                        SandboxTimingReport.class,
+                        k -> new SandboxTimingReport(),
+                        SandboxTimingReport.class);
+    }
+
+    /**
+     * Providers that hold background threads, sessions or pre-cloned databases are shared by all
+     * test classes through the root store, which closes them at the end of the run.
+     */
+    private static SandboxDatabaseProvider sharedProvider(
+            ExtensionContext ctx,
+            DbUrlParts url,
+            String templateName,
+            String mode,
+            Supplier<SandboxDatabaseProvider> factory) {
+        String key =
+                mode
+                        + ':'
+                        + url.host()
+                        + ':'
+                        + url.port()
+                        + '/'
+                        + url.primaryDatabaseName()
+                        + '/'
+                        + templateName;
+        return ctx.getRoot()
+                .getStore(NAMESPACE)
+                .getOrComputeIfAbsent(
+                        key, k -> new ProviderResource(factory.get()), ProviderResource.class)
+                .provider();
+    }
+
+    /**
+     * Hashes the resources matched by {@link EnableDbSandboxer#templateFingerprintLocations()},
+     * named by their path below the location's base directory.
+     */
+    private static String templateFingerprint(ApplicationContext appCtx, EnableDbSandboxer cfg)
+            throws IOException {
+        if (cfg.templateFingerprintLocations().length == 0) {
+            return null;
+        }
+        TemplateFingerprint fingerprint = new TemplateFingerprint();
+        for (String location : cfg.templateFingerprintLocations()) {
+            String base = baseDirectory(location);
+            for (Resource resource : appCtx.getResources(location)) {
+                if (!resource.isReadable()) {
+                    continue;
+                }
+                String path = resource.getURL().toString();
+                int i = base.isEmpty() ? -1 : path.lastIndexOf(base);
+                String name = i >= 0 ? path.substring(i) : resource.getFilename();
+                try (InputStream in = resource.getInputStream()) {
+                    fingerprint.add(name, in);
+                }
+            }
+        }
+        return fingerprint.value();
+    }
+
+    /** The directory part of a resource pattern before any wildcard, e.g. {@code db/migration/}. */
+    private static String baseDirectory(String location) {
+        String path = location.substring(location.indexOf(':') + 1);
+        int wildcard = path.indexOf('*');
+        if (wildcard >= 0) {
+            path = path.substring(0, wildcard);
+        }
+        path = path.substring(0, path.lastIndexOf('/') + 1);
+        return path.startsWith("/") ? path.substring(1) : path;
+    }
+
+    private static String jdbcUrl(DataSource ds) throws SQLException {
         try (Connection c = ds.getConnection()) {
             String url = c.getMetaData().getURL();
-            // expected: jdbc:postgresql://host:port/dbname[?params]
             if (url == null) throw new SQLException("DataSource URL is null");
-            String noPrefix = url;
-            int idx = noPrefix.indexOf("://");
-            if (idx >= 0) noPrefix = noPrefix.substring(idx + 3);
-            // now noPrefix = host:port/dbname?...
-            String hostPortDb = noPrefix;
-            int slash = hostPortDb.indexOf('/');
-            String hostPort = slash > 0 ? hostPortDb.substring(0, slash) : hostPortDb;
-            String primaryDatabaseName = slash > 0 ? hostPortDb.substring(slash + 1) : "";
-            int q = primaryDatabaseName.indexOf('?');
-            if (q >= 0) primaryDatabaseName = primaryDatabaseName.substring(0, q);
-            String host = hostPort;
-            int colon = hostPort.indexOf(':');
-            int port = 5432;
-            if (colon > 0) {
-                host = hostPort.substring(0, colon);
+            return url;
+        }
+    }
+
+    /**
+     * The database file of a SQLite or H2 file URL, e.g. {@code jdbc:sqlite:build/test.db} or
+     * {@code jdbc:h2:file:./build/test}, or null for other URLs.
+     */
+    private static Path embeddedDatabaseFile(String url) {
+        if (url.startsWith(SQLITE_PREFIX)) {
+            String path = url.substring(SQLITE_PREFIX.length());
+            if (path.startsWith("file:")) path = path.substring("file:".length());
+            int q = path.indexOf('?');
+            if (q >= 0) path = path.substring(0, q);
+            if (path.isEmpty() || path.contains(":memory:") || path.startsWith("::")) return null;
+            return Path.of(path);
+        }
+        if (url.startsWith(H2_PREFIX)) {
+            String path = url.substring(H2_PREFIX.length());
+            int semicolon = path.indexOf(';');
+            if (semicolon >= 0) path = path.substring(0, semicolon);
+            if (path.startsWith("file:")) {
+                path = path.substring("file:".length());
+            } else if (path.matches("^[a-z]{2,}:.*")) {
+                return null; // mem:, tcp:, ssl:, zip:, ...
+            }
+            if (path.startsWith("~")) path = System.getProperty("user.home") + path.substring(1);
+            return Path.of(path + H2_FILE_SUFFIX);
+        }
+        return null;
+    }
+
+    static DbUrlParts inspectUrl(String url) {
+        return inspectUrl(url, POSTGRES_PORT);
+    }
+
+    static DbUrlParts inspectUrl(String url, int defaultPort) {
+        // expected: jdbc:postgresql://host:port/dbname[?params] or jdbc:mysql://...
+        String noPrefix = url;
+        int idx = noPrefix.indexOf("://");
+        if (idx >= 0) noPrefix = noPrefix.substring(idx + 3);
+        // now noPrefix = host:port/dbname?...
+        String hostPortDb = noPrefix;
+        int slash = hostPortDb.indexOf('/');
+        String hostPort = slash > 0 ? hostPortDb.substring(0, slash) : hostPortDb;
+        String primaryDatabaseName = slash > 0 ? hostPortDb.substring(slash + 1) : "";
+        int q = primaryDatabaseName.indexOf('?');
+        if (q >= 0) primaryDatabaseName = primaryDatabaseName.substring(0, q);
+        String host = hostPort;
+        int colon = hostPort.indexOf(':');
+        int port = defaultPort;
+        if (colon > 0) {
+            host = hostPort.substring(0, colon);
+            try {
+                port = Integer.parseInt(hostPort.substring(colon + 1));
+            } catch (NumberFormatException ignore) {
+            }
+        }
+        return new DbUrlParts(host, port, primaryDatabaseName);
+    }
+
+    record DbUrlParts(String host, int port, String primaryDatabaseName) {}
+
+    /** A reset done by {@link #resetBeforeTest} and the time it took. */
+    private record BeforeTest(ResolvedSandbox sandbox, long nanos) {}
+
+    /** Identifies a Spring context, by id and identity, together with the sandbox configuration. */
+    private record SandboxKey(String context, EnableDbSandboxer config) {}
+
+    /**
+     * The providers resolved for one {@link SandboxKey}, one per database, with the state derived
+     * from them. Closed by the root store at the end of the run.
+     */
+    private static final class ResolvedSandbox implements ExtensionContext.Store.CloseableResource {
+
+        private final List<SandboxDatabaseProvider> providers;
+        private final List<SandboxDatabaseProvider> owned;
+        private final boolean parallel;
+        private final boolean cleanOnClose;
+        private final List<HikariPoolDrain> poolDrains;
+        private final List<SandboxDataSource> routed;
+        private final List<SavepointDataSource> savepoints;
+        private final List<LazyResetDataSource> lazyDataSources;
+        private final ExecutorService resetExecutor;
+        private final ExecutorService providerExecutor;
+        private final Map<Integer, PostgresSandboxDatabaseProvider> workerProviders =
+                new ConcurrentHashMap<>();
+
+        /** The reset started after the previous test, if any. */
+        private CompletableFuture<Void> pendingReset;
+
+        /** The test class that last reset the database, for {@link ResetMode}. */
+        private Class<?> resetClass;
+
+        /**
+         * Whether a reset waits for the first connection, with {@link
+         * EnableDbSandboxer#lazyReset()}.
+         */
+        private volatile boolean resetDeferred;
+
+        /** Whether {@link #prepare()} succeeded, guarded by {@code poolDrains}. */
+        private boolean prepared;
+
+        /** Whether a test may have written to the databases since the last rebuild. */
+        private volatile boolean used;
+
+        private volatile boolean closed;
+
+        ResolvedSandbox(
+                List<SandboxDatabaseProvider> providers,
+                List<SandboxDatabaseProvider> owned,
+                boolean parallel,
+                boolean resetAfterEach,
+                boolean cleanOnClose,
+                int maxConcurrentResets,
+                List<HikariPoolDrain> poolDrains,
+                List<SandboxDataSource> routed,
+                List<SavepointDataSource> savepoints,
+                List<LazyResetDataSource> lazyDataSources) {
+            this.providers = providers;
+            this.owned = List.copyOf(owned);
+            this.parallel = parallel;
+            this.cleanOnClose = cleanOnClose;
+            this.poolDrains = List.copyOf(poolDrains);
+            this.routed = List.copyOf(routed);
+            this.savepoints = List.copyOf(savepoints);
+            this.resetExecutor = resetAfterEach ? daemonExecutor(1, "dbsandboxer-reset") : null;
+            this.providerExecutor =
+                    providers.size() > 1
+                            ? daemonExecutor(
+                                    Math.min(providers.size(), maxConcurrentResets),
+                                    "dbsandboxer-rebuild")
+                            : null;
+            this.lazyDataSources = List.copyOf(lazyDataSources);
+        }
+
+        private static ExecutorService daemonExecutor(int threads, String name) {
+            return Executors.newFixedThreadPool(
+                    threads,
+                    r -> {
+                        Thread t = new Thread(r, name);
+                        t.setDaemon(true);
+                        return t;
+                    });
+        }
+
+        /**
+         * Prepares the providers once, with the pools drained: building a template terminates the
+         * connections to the primary database or copies its file.
+         */
+        void prepare() throws SQLException {
+            synchronized (poolDrains) {
+                if (prepared) {
+                    return;
+                }
+                poolDrains.forEach(HikariPoolDrain::drain);
+                try {
+                    forEachProvider(SandboxDatabaseProvider::prepareSandbox);
+                    prepared = true;
+                } finally {
+                    refill();
+                }
+            }
+        }
+
+        /**
+         * Waits for the reset started after the previous test, or rebuilds now if there is none or
+         * another sandbox has used the database since, unless the test's mode lets it keep the
+         * database as it is.
+         */
+        void beforeEach(ResetMode mode, Class<?> testClass) throws SQLException {
+            if (mode != ResetMode.BEFORE_EACH && parallel) {
+                throw new SandboxException(
+                        mode + " reset cannot be combined with parallel sandboxes");
+            }
+            CompletableFuture<Void> reset = pendingReset;
+            pendingReset = null;
+            if (reset != null) {
+                await(reset);
+                if (lastReset == this) {
+                    used = true;
+                    return;
+                }
+            }
+            // Test classes sharing a Spring context share its DataSources, so claim them per test
+            for (LazyResetDataSource ds : lazyDataSources) {
+                ds.onConnection(this::runDeferredReset);
+            }
+            boolean keep =
+                    switch (mode) {
+                        case BEFORE_EACH -> false;
+                        case BEFORE_CLASS -> lastReset == this && testClass.equals(resetClass);
+                        case AFTER_DIRTY -> lastReset == this && !isModified();
+                        case NEVER -> true;
+                    };
+            if (!keep) {
+                if (!lazyDataSources.isEmpty()) {
+                    resetDeferred = true;
+                } else {
+                    rebuild();
+                }
+                resetClass = testClass;
+            }
+            used = true;
+        }
+
+        /** Runs the reset deferred by {@link #beforeEach}, once, on the test's first connection. */
+        private void runDeferredReset() throws SQLException {
+            if (!resetDeferred) {
+                return;
+            }
+            synchronized (this) {
+                if (resetDeferred) {
+                    rebuild();
+                    resetDeferred = false;
+                }
+            }
+        }
+
+        /** Starts the reset for the next test while JUnit finishes this one. */
+        void afterEach() {
+            if (resetExecutor == null) {
+                return;
+            }
+            pendingReset =
+                    CompletableFuture.runAsync(
+                            () -> {
+                                try {
+                                    rebuild();
+                                } catch (SQLException e) {
+                                    throw new SandboxException(e);
+                                }
+                            },
+                            resetExecutor);
+        }
+
+        /** Waits for a pending reset, keeping it for the next test of this sandbox. */
+        void awaitPendingReset() {
+            CompletableFuture<Void> reset = pendingReset;
+            if (reset != null) {
+                try {
+                    reset.join();
+                } catch (CompletionException e) {
+                    // reported by the next beforeEach, or irrelevant if there is none
+                }
+            }
+        }
+
+        private static void await(CompletableFuture<Void> reset) {
+            try {
+                reset.join();
+            } catch (CompletionException e) {
+                if (e.getCause() instanceof SandboxException cause) {
+                    throw cause;
+                }
+                throw new SandboxException(e.getCause());
+            }
+        }
+
+        private void rebuild() throws SQLException {
+            lastReset = this;
+            used = false;
+            if (parallel) {
+                PostgresSandboxDatabaseProvider worker = workerProvider();
+                String database = worker.getSandboxDatabaseName();
+                for (SandboxDataSource ds : routed) {
+                    ds.evict(database);
+                }
+                worker.rebuildSandbox();
+                SandboxRouting.route(database);
+                return;
+            }
+            if (savepoints.isEmpty()) {
+                recreate();
+                return;
+            }
+            boolean rolledBack = true;
+            for (SavepointDataSource ds : savepoints) {
+                rolledBack &= ds.rollback();
+            }
+            if (!rolledBack) {
+                savepoints.forEach(SavepointDataSource::end);
+                recreate();
+                for (SavepointDataSource ds : savepoints) {
+                    ds.begin();
+                }
+            }
+        }
+
+        /** Asks the providers whether a sandbox was written to, with the pools drained. */
+        private boolean isModified() throws SQLException {
+            if (!savepoints.isEmpty()) {
+                return true; // rolling back is as cheap as checking
+            }
+            // Each cached context has its own pools, so only one thread drains them at a time
+            synchronized (poolDrains) {
+                poolDrains.forEach(HikariPoolDrain::drain);
                 try {
-                    port = Integer.parseInt(hostPort.substring(colon + 1));
-                } catch (NumberFormatException ignore) {
+                    for (SandboxDatabaseProvider provider : providers) {
+                        if (provider.isSandboxModified()) {
+                            return true;
+                        }
+                    }
+                    return false;
+                } finally {
+                    refill();
+                }
+            }
+        }
+
+        private void recreate() throws SQLException {
+            synchronized (poolDrains) {
+                poolDrains.forEach(HikariPoolDrain::drain);
+                try {
+                    forEachProvider(SandboxDatabaseProvider::rebuildSandbox);
+                } finally {
+                    refill();
+                }
+            }
+        }
+
+        private void refill() throws SQLException {
+            for (HikariPoolDrain poolDrain : poolDrains) {
+                poolDrain.refill();
+            }
+        }
+
+        /**
+         * Runs {@code action} on every provider, concurrently if there are several, so the slowest
+         * database sets the time taken rather than the sum of all.
+         */
+        private void forEachProvider(Consumer<SandboxDatabaseProvider> action) {
+            if (providerExecutor == null) {
+                providers.forEach(action);
+                return;
+            }
+            CompletableFuture<?>[] tasks =
+                    providers.stream()
+                            .map(
+                                    p ->
+                                            CompletableFuture.runAsync(
+                                                    () -> action.accept(p), providerExecutor))
+                            .toArray(CompletableFuture[]::new);
+            await(CompletableFuture.allOf(tasks));
+        }
+
+        /**
+         * Each worker thread keeps the same sandbox database, {@code <database>_w<n>}, for the run.
+         */
+        private PostgresSandboxDatabaseProvider workerProvider() {
+            return workerProviders.computeIfAbsent(
+                    WORKER_INDEX.get(),
+                    i -> {
+                        PostgresSandboxDatabaseProvider base =
+                                (PostgresSandboxDatabaseProvider) providers.get(0);
+                        return base.withSandboxDatabase(base.getSandboxDatabaseName() + "_w" + i);
+                    });
+        }
+
+        boolean isClosed() {
+            return closed;
+        }
+
+        /**
+         * Closes providers created by the extension and drops the worker databases; provider beans
+         * belong to their context, shared providers to the root store. Called when the Spring
+         * context is closed or at the end of the run, whichever comes first.
+         *
+         * <p>With template fingerprints, the databases are rebuilt first if the last test wrote to
+         * them. The next run rebuilds a stale template from the primary database after migrating
+         * it, which must not carry over the writes of this run's last test.
+         */
+        @Override
+        public synchronized void close() throws Exception {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            if (resetExecutor != null) {
+                awaitPendingReset();
+                resetExecutor.shutdown();
+            }
+            if (cleanOnClose && used) {
+                rebuild();
+            }
+            if (providerExecutor != null) {
+                providerExecutor.shutdown();
+            }
+            savepoints.forEach(SavepointDataSource::end);
+            routed.forEach(SandboxDataSource::closePools);
+            workerProviders.values().forEach(PostgresSandboxDatabaseProvider::dropSandbox);
+            workerProviders.clear();
+            if (lastReset == this) {
+                lastReset = null;
+            }
+            for (SandboxDatabaseProvider provider : owned) {
+                if (provider instanceof AutoCloseable closeable) {
+                    closeable.close();
                 }
             }
-            return new DbUrlParts(host, port, primaryDatabaseName);
         }
     }
 
-    private record DbUrlParts(String host, int port, String primaryDatabaseName) {}
+    private record ProviderResource(SandboxDatabaseProvider provider)
+            implements ExtensionContext.Store.CloseableResource {
+
+        @Override
+        public void close() throws Exception {
+            if (provider instanceof AutoCloseable closeable) {
+                closeable.close();
+            }
+        }
+    }
 }
@@ -1,5 +1,6 @@
 package io.misir.dbsandboxer.starter;
 
+import io.misir.dbsandboxer.core.providers.postgres.CloneStrategy;
 import java.lang.annotation.*;
 import org.junit.jupiter.api.extension.ExtendWith;
 
@@ -7,7 +8,9 @@ import org.junit.jupiter.api.extension.ExtendWith;
  * Enables database sandboxing for Spring Boot integration tests.
  *
  * <p>Apply this annotation to your test class to activate database sandboxing. Each test method
- * will run with a fresh copy of the database, ensuring complete isolation between tests.
+ * will run with a fresh copy of the database, ensuring complete isolation between tests. The
+ * provider is chosen from the DataSource URLs: PostgreSQL, MySQL and MariaDB servers, or SQLite and
+ * H2 database files. Other databases need a {@code SandboxDatabaseProvider} bean.
  *
  * <pre>{@code
  * @SpringBootTest
@@ -29,7 +32,10 @@ public @interface EnableDbSandboxer {
     /**
      * The admin user for database operations (DROP/CREATE).
      *
-     * <p>This user must have sufficient privileges to create and drop databases.
+     * <p>This user must have sufficient privileges to create and drop databases. For MySQL and
+     * MariaDB URLs, see {@link
+     * io.misir.dbsandboxer.core.providers.mysql.MySqlSandboxDatabaseProvider} for the privileges it
+     * needs.
      *
      * @return the admin username, defaults to "postgres"
      */
@@ -65,4 +71,179 @@ public @interface EnableDbSandboxer {
      * @return the template database name, defaults to "template_database"
      */
     String templateDatabaseName() default "template_database";
+
+    /**
+     * The number of ready-made sandbox copies to keep cloned in the background.
+     *
+     * <p>When greater than zero, the extension uses a {@link
+     * io.misir.dbsandboxer.core.providers.postgres.PooledPostgresSandboxDatabaseProvider} which
+     * swaps a pre-cloned copy in place of the database before each test instead of cloning it on
+     * the spot. The pool is shared by all test classes using the same database and is closed at the
+     * end of the test run.
+     *
+     * @return the pool size, defaults to 0 (no pooling)
+     */
+    int poolSize() default 0;
+
+    /**
+     * Whether each test worker thread gets its own sandbox database.
+     *
+     * <p>Enable this together with {@code junit.jupiter.execution.parallel.enabled}. Every worker
+     * thread rebuilds its own copy of the template, named {@code <database>_w<n>}, and the
+     * application's DataSource routes that thread's connections to it, so tests running
+     * concurrently never drop each other's database.
+     *
+     * <p>Each sandbox gets a HikariCP pool configured like the application's. Other DataSources
+     * must expose their username and password as bean properties, as {@code SimpleDriverDataSource}
+     * does, and get unpooled connections. The worker databases are dropped at the end of the run.
+     * Cannot be combined with {@link #poolSize()}.
+     *
+     * <p>Connections are routed by thread: work a test hands to another thread, e.g. through
+     * {@code @Async} methods, executors or reactive schedulers, uses the application's own database
+     * instead of the worker's sandbox.
+     *
+     * @return whether to use one sandbox per worker thread, defaults to false
+     */
+    boolean parallel() default false;
+
+    /**
+     * Whether to skip the rebuild when the previous test did not write to the database.
+     *
+     * <p>Read-only tests then cost no drop and clone. Detection relies on the write counters in
+     * {@code pg_stat_database} and requires PostgreSQL 15 or later; see {@link
+     * io.misir.dbsandboxer.core.providers.postgres.PostgresSandboxDatabaseProvider#withSkipCleanRebuilds(boolean)}
+     * for what is and is not detected.
+     *
+     * @return whether to skip rebuilds of unmodified sandboxes, defaults to false
+     */
+    boolean skipCleanRebuilds() default false;
+
+    /**
+     * How the database is reset between tests.
+     *
+     * <p>{@link ResetStrategy#TABLES} restores only the tables the previous test modified, which
+     * avoids copying the whole template for large fixture sets. It requires the admin user to be a
+     * superuser, as does {@link ResetStrategy#HIGH_WATER_MARK}, which only deletes the rows tests
+     * added. {@link ResetStrategy#SAVEPOINT} rolls back a session shared by all connections of the
+     * test instead, for tests that use the database from one thread. None of them can be combined
+     * with {@link #poolSize()} or {@link #parallel()}.
+     *
+     * @return the reset strategy, defaults to {@link ResetStrategy#CLONE}
+     */
+    ResetStrategy resetStrategy() default ResetStrategy.CLONE;
+
+    /**
+     * The {@code CREATE DATABASE} strategy used to clone the sandbox on PostgreSQL 15 and later.
+     *
+     * <p>By default {@code FILE_COPY} is used for large templates and {@code WAL_LOG} for small
+     * ones.
+     *
+     * @return the clone strategy, defaults to {@link CloneStrategy#AUTO}
+     */
+    CloneStrategy cloneStrategy() default CloneStrategy.AUTO;
+
+    /**
+     * The tablespace to create the sandbox in, e.g. one on tmpfs.
+     *
+     * <p>The tablespace must already exist.
+     *
+     * @return the tablespace name, defaults to "" (the template's tablespace)
+     */
+    String tablespace() default "";
+
+    /**
+     * Whether to rename the used sandbox out of the way and drop it in the background instead of
+     * dropping it before the clone.
+     *
+     * <p>A background thread drops the renamed databases in batches, so unlinking their files no
+     * longer adds to the reset time. Databases left over by an interrupted run are dropped in the
+     * background too. See {@link
+     * io.misir.dbsandboxer.core.providers.postgres.PostgresSandboxDatabaseProvider#withDeferredDrop(boolean)}.
+     *
+     * @return whether to drop used sandboxes in the background, defaults to false
+     */
+    boolean deferredDrop() default false;
+
+    /**
+     * Whether to let the application's HikariCP pool release its connections before each rebuild
+     * instead of having them terminated on the server.
+     *
+     * <p>The pool's connections are soft-evicted, and the pool is suspended during the rebuild if
+     * it was configured with {@code allowPoolSuspension}. Afterwards one connection is opened
+     * again, so the first query of the test does not wait for it. Has no effect for other
+     * DataSources or with {@link #parallel()}.
+     *
+     * @return whether to drain the connection pool, defaults to true
+     */
+    boolean drainConnectionPool() default true;
+
+    /**
+     * Resources the template is built from, such as migration scripts and fixtures, as Spring
+     * resource patterns, e.g. {@code "classpath*:db/migration/**"}.
+     *
+     * <p>When set, the template is stamped with a hash of these resources and reused across test
+     * runs for as long as the hash matches. When a resource changes, the template is rebuilt from
+     * the freshly migrated database. To keep the last test's writes out of it, the database is
+     * rebuilt once more at the end of the run if that test wrote to it. Without locations, an
+     * existing template is reused by name.
+     *
+     * @return the resource patterns to fingerprint, defaults to none
+     */
+    String[] templateFingerprintLocations() default {};
+
+    /**
+     * Whether to reset the database right after each test instead of right before the next one.
+     *
+     * <p>The reset runs in the background while JUnit finishes the test and creates the next test
+     * instance; the next test only waits for it to complete. It starts once Spring is done with the
+     * test method, after the rollback of a test-managed transaction and {@code @Sql} scripts run
+     * after the test. This hides most of the reset time for short tests. The first test of a class
+     * still resets up front if another test class used the database in between. Cannot be combined
+     * with {@link #parallel()}.
+     *
+     * @return whether to reset asynchronously after each test, defaults to false
+     */
+    boolean resetAfterEach() default false;
+
+    /**
+     * Whether to defer the reset until the test first asks the DataSource for a connection.
+     *
+     * <p>Before each test the sandbox is only marked stale; the DataSource runs the reset when the
+     * test first requests a connection. Tests that never use the database, e.g. validation or
+     * mapping tests sharing a sandboxed base class, then cost nothing. Connections opened around
+     * the DataSource beans do not trigger the reset; connections requested by background threads of
+     * the application do, on that thread. Cannot be combined with {@link #parallel()}, {@link
+     * #resetAfterEach()} or {@link ResetStrategy#SAVEPOINT}.
+     *
+     * @return whether to reset on the first connection of a test, defaults to false
+     */
+    boolean lazyReset() default false;
+
+    /**
+     * The system property holding the number of the test JVM, for builds that fork several.
+     *
+     * <p>When it is set, {@code spring.datasource.url} is pointed at a PostgreSQL database of the
+     * fork's own, {@code <database>_f<n>}, which is copied from the configured database on first
+     * use. Forks then never drop each other's sandbox. They share one template, built by the first
+     * fork while the others wait on a PostgreSQL advisory lock.
+     *
+     * <p>By default {@code surefire.forkNumber} and then {@code org.gradle.test.worker} are read.
+     * Gradle sets the latter; Surefire only sets the former when passed through {@code
+     * <systemPropertyVariables>}.
+     *
+     * @return the system property naming the fork, defaults to "" (the Surefire and Gradle
+     *     properties)
+     */
+    String forkNumberProperty() default "";
+
+    /**
+     * The number of databases prepared or rebuilt at the same time when the DataSources point at
+     * several databases.
+     *
+     * <p>Each reset holds connections to its database server, so lower this when several databases
+     * share a server with few connection slots.
+     *
+     * @return the maximum number of concurrent resets, defaults to 4
+     */
+    int maxConcurrentResets() default 4;
 }
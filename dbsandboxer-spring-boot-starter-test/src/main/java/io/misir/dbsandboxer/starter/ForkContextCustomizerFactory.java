@@ -0,0 +1,109 @@
+package io.misir.dbsandboxer.starter;
+
+import io.misir.dbsandboxer.core.providers.postgres.PostgresSandboxDatabaseProvider;
+import io.misir.dbsandboxer.starter.DbSandboxSpringExtension.DbUrlParts;
+import java.util.List;
+import java.util.Map;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.core.env.ConfigurableEnvironment;
+import org.springframework.core.env.MapPropertySource;
+import org.springframework.test.context.ContextConfigurationAttributes;
+import org.springframework.test.context.ContextCustomizer;
+import org.springframework.test.context.ContextCustomizerFactory;
+import org.springframework.test.context.MergedContextConfiguration;
+import org.springframework.test.context.TestContextAnnotationUtils;
+
+/**
+ * Points the test context of each forked test JVM at a PostgreSQL database of its own.
+ *
+ * <p>Registered through {@code META-INF/spring.factories}. When the property named by {@link
+ * EnableDbSandboxer#forkNumberProperty()} holds a fork number {@code n}, the database in {@code
+ * spring.datasource.url} is copied to {@code <database>_f<n>} if that does not exist yet, and
+ * {@code spring.datasource.url} is overridden to use it. The application, its migrations and the
+ * extension then only see the fork's database. Contexts outside a fork are left untouched.
+ *
+ * @author Fethullah Misir
+ */
+public final class ForkContextCustomizerFactory implements ContextCustomizerFactory {
+
+    private static final List<String> DEFAULT_FORK_PROPERTIES =
+            List.of("surefire.forkNumber", "org.gradle.test.worker");
+
+    private static final String URL_PROPERTY = "spring.datasource.url";
+    private static final String POSTGRES_PREFIX = "jdbc:postgresql:";
+
+    @Override
+    public ContextCustomizer createContextCustomizer(
+            Class<?> testClass, List<ContextConfigurationAttributes> configAttributes) {
+        EnableDbSandboxer cfg =
+                TestContextAnnotationUtils.findMergedAnnotation(testClass, EnableDbSandboxer.class);
+        if (cfg == null) {
+            return null;
+        }
+        String fork = forkNumber(cfg);
+        if (fork == null) {
+            return null;
+        }
+        return new ForkCustomizer(
+                fork,
+                cfg.maintenanceDb(),
+                cfg.adminUser(),
+                cfg.adminPassword(),
+                cfg.templateDatabaseName());
+    }
+
+    /** The first non-blank value of the configured, or else the default, fork properties. */
+    private static String forkNumber(EnableDbSandboxer cfg) {
+        List<String> names =
+                cfg.forkNumberProperty().isEmpty()
+                        ? DEFAULT_FORK_PROPERTIES
+                        : List.of(cfg.forkNumberProperty());
+        for (String name : names) {
+            String value = System.getProperty(name);
+            if (value != null && !value.isBlank()) {
+                return value.trim();
+            }
+        }
+        return null;
+    }
+
+    private record ForkCustomizer(
+            String fork,
+            String maintenanceDb,
+            String adminUser,
+            String adminPassword,
+            String templateDatabaseName)
+            implements ContextCustomizer {
+
+        @Override
+        public void customizeContext(
+                ConfigurableApplicationContext context, MergedContextConfiguration mergedConfig) {
+            ConfigurableEnvironment env = context.getEnvironment();
+            String url = env.getProperty(URL_PROPERTY);
+            if (url == null || !url.startsWith(POSTGRES_PREFIX)) {
+                return;
+            }
+            DbUrlParts parts = DbSandboxSpringExtension.inspectUrl(url);
+            String forkDatabase = parts.primaryDatabaseName() + "_f" + fork;
+            try (PostgresSandboxDatabaseProvider provider =
+                    new PostgresSandboxDatabaseProvider(
+                                    parts.host(),
+                                    parts.port(),
+                                    maintenanceDb,
+                                    adminUser,
+                                    adminPassword,
+                                    parts.primaryDatabaseName(),
+                                    templateDatabaseName)
+                            .withSandboxDatabase(forkDatabase)) {
+                provider.createSandboxIfMissing();
+            }
+            env.getPropertySources()
+                    .addFirst(
+                            new MapPropertySource(
+                                    "dbsandboxer-fork",
+                                    Map.of(
+                                            URL_PROPERTY,
+                                            SandboxDataSource.withDatabase(url, forkDatabase))));
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package io.misir.dbsandboxer.starter;
+
+import com.zaxxer.hikari.HikariDataSource;
+import com.zaxxer.hikari.HikariPoolMXBean;
+import java.sql.SQLException;
+import javax.sql.DataSource;
+
+/**
+ * Lets the application's HikariCP pool give up its connections before a rebuild and refills it
+ * afterwards.
+ *
+ * <p>Without this, the provider terminates the pooled connections on the server and the pool only
+ * finds out when a test borrows one: it logs the broken connection, validates and reconnects in the
+ * middle of the test. Soft eviction closes idle connections from the client side instead, and
+ * connections still in use are closed instead of being handed out again once returned. If the pool
+ * allows suspension ({@code allowPoolSuspension}), it is also suspended during the rebuild, so its
+ * housekeeping cannot reconnect to the database while it is being dropped.
+ *
+ * <p>Only referenced once HikariCP is known to be on the classpath.
+ *
+ * @author Fethullah Misir
+ */
+final class HikariPoolDrain {
+
+    private static final String HIKARI_DATA_SOURCE = "com.zaxxer.hikari.HikariDataSource";
+
+    private final HikariDataSource dataSource;
+
+    private boolean suspended;
+
+    private HikariPoolDrain(HikariDataSource dataSource) {
+        this.dataSource = dataSource;
+    }
+
+    /** Returns a drain for {@code ds} if it is, or wraps, a HikariCP pool; null otherwise. */
+    static HikariPoolDrain of(DataSource ds) throws SQLException {
+        if (!isHikariPresent() || !ds.isWrapperFor(HikariDataSource.class)) {
+            return null;
+        }
+        return new HikariPoolDrain(ds.unwrap(HikariDataSource.class));
+    }
+
+    static boolean isHikariPresent() {
+        try {
+            Class.forName(HIKARI_DATA_SOURCE, false, HikariPoolDrain.class.getClassLoader());
+            return true;
+        } catch (ClassNotFoundException e) {
+            return false;
+        }
+    }
+
+    /** Suspends the pool if allowed and closes its connections from the client side. */
+    void drain() {
+        HikariPoolMXBean pool = dataSource.getHikariPoolMXBean();
+        if (pool == null) { // not started yet
+            return;
+        }
+        if (dataSource.isAllowPoolSuspension()) {
+            pool.suspendPool();
+            suspended = true;
+        }
+        pool.softEvictConnections();
+    }
+
+    /**
+     * Resumes the pool and opens one connection, so the test's first query does not pay for it. The
+     * pool fills up to its minimum idle size in the background.
+     */
+    void refill() throws SQLException {
+        HikariPoolMXBean pool = dataSource.getHikariPoolMXBean();
+        if (pool == null) {
+            return;
+        }
+        if (suspended) {
+            pool.resumePool();
+            suspended = false;
+        }
+        dataSource.getConnection().close(); // only establishes the connection
+    }
+}
@@ -0,0 +1,64 @@
+package io.misir.dbsandboxer.starter;
+
+import com.zaxxer.hikari.HikariConfig;
+import com.zaxxer.hikari.HikariDataSource;
+import com.zaxxer.hikari.HikariPoolMXBean;
+import io.misir.dbsandboxer.core.api.SandboxException;
+import java.sql.SQLException;
+import javax.sql.DataSource;
+
+/**
+ * Opens a HikariCP pool on a sandbox database with the configuration of the application's pool.
+ *
+ * <p>The pool's {@link HikariConfig} is copied, so credentials, connection properties, init SQL,
+ * timeouts and pool sizes carry over; only the JDBC URL and the pool name differ.
+ *
+ * <p>Only referenced once HikariCP is known to be on the classpath.
+ *
+ * @author Fethullah Misir
+ */
+final class HikariRoutePool {
+
+    private HikariRoutePool() {}
+
+    /**
+     * Whether {@code ds} is, or wraps, a HikariCP pool configured through a JDBC URL, which pools
+     * can be derived from.
+     */
+    static boolean supports(DataSource ds) throws SQLException {
+        if (!HikariPoolDrain.isHikariPresent() || !ds.isWrapperFor(HikariDataSource.class)) {
+            return false;
+        }
+        HikariDataSource pool = ds.unwrap(HikariDataSource.class);
+        return pool.getJdbcUrl() != null
+                && pool.getDataSource() == null
+                && pool.getDataSourceClassName() == null;
+    }
+
+    /** Opens a pool on {@code database}, configured like the pool behind {@code ds}. */
+    static DataSource open(DataSource ds, String database) {
+        try {
+            HikariDataSource source = ds.unwrap(HikariDataSource.class);
+            HikariConfig config = new HikariConfig();
+            source.copyStateTo(config);
+            config.setJdbcUrl(SandboxDataSource.withDatabase(source.getJdbcUrl(), database));
+            String name = source.getPoolName() != null ? source.getPoolName() : "dbsandboxer";
+            config.setPoolName(name + '-' + database);
+            return new HikariDataSource(config);
+        } catch (SQLException e) {
+            throw new SandboxException(e);
+        }
+    }
+
+    /** Closes the pool's idle connections now and those in use when they are returned. */
+    static void evict(DataSource pool) {
+        HikariPoolMXBean mx = ((HikariDataSource) pool).getHikariPoolMXBean();
+        if (mx != null) {
+            mx.softEvictConnections();
+        }
+    }
+
+    static void close(DataSource pool) {
+        ((HikariDataSource) pool).close();
+    }
+}
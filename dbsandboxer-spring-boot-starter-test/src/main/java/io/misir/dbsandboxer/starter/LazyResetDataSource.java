@@ -0,0 +1,105 @@
+package io.misir.dbsandboxer.starter;
+
+import java.io.PrintWriter;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.util.logging.Logger;
+import javax.sql.DataSource;
+
+/**
+ * DataSource wrapper for {@link EnableDbSandboxer#lazyReset()} that runs the reset of the current
+ * test when it first asks for a connection.
+ *
+ * <p>{@link DbSandboxSpringExtension} only marks the sandbox stale before each test. The first
+ * {@code getConnection} afterwards, from any DataSource of the sandbox, runs the deferred reset
+ * before handing out the connection, so tests that never use the database skip it altogether.
+ *
+ * <p>The reset runs on whichever thread asks first, which need not be the test's: a scheduler or
+ * message listener of the application calling {@code getConnection} during the test runs it too.
+ * Other threads asking meanwhile wait until it is done, so no thread gets a connection to a
+ * database being reset.
+ *
+ * @author Fethullah Misir
+ */
+final class LazyResetDataSource implements DataSource {
+
+    private final DataSource target;
+
+    private volatile DeferredReset reset;
+
+    LazyResetDataSource(DataSource target) {
+        this.target = target;
+    }
+
+    /** Sets the reset to run, if one is deferred, before each connection is handed out. */
+    void onConnection(DeferredReset reset) {
+        this.reset = reset;
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        runDeferredReset();
+        return target.getConnection();
+    }
+
+    @Override
+    public Connection getConnection(String user, String pass) throws SQLException {
+        runDeferredReset();
+        return target.getConnection(user, pass);
+    }
+
+    private void runDeferredReset() throws SQLException {
+        DeferredReset r = reset;
+        if (r != null) {
+            r.runIfDeferred();
+        }
+    }
+
+    @Override
+    public PrintWriter getLogWriter() throws SQLException {
+        return target.getLogWriter();
+    }
+
+    @Override
+    public void setLogWriter(PrintWriter out) throws SQLException {
+        target.setLogWriter(out);
+    }
+
+    @Override
+    public void setLoginTimeout(int seconds) throws SQLException {
+        target.setLoginTimeout(seconds);
+    }
+
+    @Override
+    public int getLoginTimeout() throws SQLException {
+        return target.getLoginTimeout();
+    }
+
+    @Override
+    public Logger getParentLogger() throws SQLFeatureNotSupportedException {
+        return target.getParentLogger();
+    }
+
+    @Override
+    public <T> T unwrap(Class<T> iface) throws SQLException {
+        if (iface.isInstance(this)) {
+            return iface.cast(this);
+        }
+        if (iface.isInstance(target)) {
+            return iface.cast(target);
+        }
+        return target.unwrap(iface);
+    }
+
+    @Override
+    public boolean isWrapperFor(Class<?> iface) throws SQLException {
+        return iface.isInstance(this) || iface.isInstance(target) || target.isWrapperFor(iface);
+    }
+
+    /** A reset that may have been deferred; cheap to call when none is. */
+    @FunctionalInterface
+    interface DeferredReset {
+        void runIfDeferred() throws SQLException;
+    }
+}
@@ -0,0 +1,29 @@
+package io.misir.dbsandboxer.starter;
+
+/**
+ * When the sandbox database is reset before a test.
+ *
+ * @author Fethullah Misir
+ * @see SandboxReset
+ */
+public enum ResetMode {
+
+    /** Resets before every test, the default. */
+    BEFORE_EACH,
+
+    /**
+     * Resets before the first test of the class only; the class's tests then share one copy of the
+     * database and see each other's changes.
+     */
+    BEFORE_CLASS,
+
+    /**
+     * Resets only if the database may have been written to since the last reset, as reported by
+     * {@link io.misir.dbsandboxer.core.api.SandboxDatabaseProvider#isSandboxModified()}. Providers
+     * that cannot tell are reset every time.
+     */
+    AFTER_DIRTY,
+
+    /** Never resets; the test sees whatever the previous test left in the database. */
+    NEVER
+}
@@ -0,0 +1,43 @@
+package io.misir.dbsandboxer.starter;
+
+/**
+ * How the sandbox database is reset between tests.
+ *
+ * @author Fethullah Misir
+ * @see EnableDbSandboxer#resetStrategy()
+ */
+public enum ResetStrategy {
+
+    /** Drops the database and clones it again from the template. */
+    CLONE,
+
+    /**
+     * Restores only the tables modified by the previous test from a snapshot kept inside the
+     * sandbox, falling back to {@link #CLONE} after schema changes.
+     *
+     * @see io.misir.dbsandboxer.core.providers.postgres.PostgresTableResetSandboxDatabaseProvider
+     */
+    TABLES,
+
+    /**
+     * Deletes the rows added above each table's highest template key and resets sequences, falling
+     * back to {@link #CLONE} when template rows or the schema changed. For tests that only insert.
+     *
+     * @see
+     *     io.misir.dbsandboxer.core.providers.postgres.PostgresHighWaterMarkSandboxDatabaseProvider
+     */
+    HIGH_WATER_MARK,
+
+    /**
+     * Runs each test inside one shared session and rolls it back to a savepoint afterwards, falling
+     * back to {@link #CLONE} when another session may have written to the database.
+     *
+     * <p>All connections the application takes from its DataSource during a test are views of the
+     * same session, so the test must not depend on concurrent transactions. Sequences are restored
+     * separately, since they are not rolled back. Statements run outside of an application
+     * transaction get a savepoint of their own, so a failing one does not abort the session.
+     * Transactions of different connections may only be rolled back in the reverse order they were
+     * started.
+     */
+    SAVEPOINT
+}
@@ -0,0 +1,185 @@
+package io.misir.dbsandboxer.starter;
+
+import io.misir.dbsandboxer.core.api.SandboxException;
+import java.io.PrintWriter;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Logger;
+import javax.sql.DataSource;
+import org.springframework.beans.BeanWrapper;
+import org.springframework.beans.PropertyAccessorFactory;
+
+/**
+ * DataSource wrapper installed around the application's DataSource beans.
+ *
+ * <p>Connections requested from a thread that has a sandbox route (see {@link SandboxRouting}) are
+ * opened against that sandbox database. If the wrapped DataSource is a HikariCP pool, each sandbox
+ * database gets a pool of its own with the same configuration, init SQL and connection properties.
+ * Otherwise connections are opened through {@link DriverManager} with the URL and credentials of
+ * the wrapped DataSource, unpooled. All other connections are delegated to the wrapped DataSource
+ * unchanged.
+ *
+ * @author Fethullah Misir
+ */
+final class SandboxDataSource implements DataSource {
+
+    private final DataSource target;
+
+    private volatile String url;
+    private volatile String username;
+    private volatile String password;
+
+    /** Whether sandbox pools can be derived from the target; resolved on first use. */
+    private volatile Boolean pooled;
+
+    private final Map<String, DataSource> pools = new ConcurrentHashMap<>();
+
+    SandboxDataSource(DataSource target) {
+        this.target = target;
+    }
+
+    DataSource getTarget() {
+        return target;
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        String db = SandboxRouting.current();
+        if (db == null) {
+            return target.getConnection();
+        }
+        DataSource pool = pool(db);
+        if (pool != null) {
+            return pool.getConnection();
+        }
+        resolveTarget();
+        return DriverManager.getConnection(withDatabase(url, db), username, password);
+    }
+
+    @Override
+    public Connection getConnection(String user, String pass) throws SQLException {
+        String db = SandboxRouting.current();
+        if (db == null) {
+            return target.getConnection(user, pass);
+        }
+        resolveTarget();
+        return DriverManager.getConnection(withDatabase(url, db), user, pass);
+    }
+
+    /** The pool on {@code db}, opened on first use, or null if the target is not a pool. */
+    private DataSource pool(String db) throws SQLException {
+        Boolean supported = pooled;
+        if (supported == null) {
+            supported = HikariRoutePool.supports(target);
+            pooled = supported;
+        }
+        return supported ? pools.computeIfAbsent(db, d -> HikariRoutePool.open(target, d)) : null;
+    }
+
+    /**
+     * Lets the pool on {@code db}, if any, close its connections before the database is rebuilt.
+     */
+    void evict(String db) {
+        DataSource pool = pools.get(db);
+        if (pool != null) {
+            HikariRoutePool.evict(pool);
+        }
+    }
+
+    /** Closes the pools opened on sandbox databases. */
+    void closePools() {
+        pools.values().forEach(HikariRoutePool::close);
+        pools.clear();
+    }
+
+    /** Reads URL and credentials of the wrapped DataSource the first time a route is used. */
+    private void resolveTarget() throws SQLException {
+        if (url != null) {
+            return;
+        }
+        synchronized (this) {
+            if (url != null) {
+                return;
+            }
+            BeanWrapper bean = PropertyAccessorFactory.forBeanPropertyAccess(target);
+            String user = readProperty(bean, "username", "user");
+            if (user == null) {
+                throw new SandboxException(
+                        "Cannot route connections to a sandbox: no username property on "
+                                + target.getClass().getName());
+            }
+            this.username = user;
+            this.password = readProperty(bean, "password");
+            try (Connection c = target.getConnection()) {
+                this.url = c.getMetaData().getURL();
+            }
+        }
+    }
+
+    private static String readProperty(BeanWrapper bean, String... names) {
+        for (String name : names) {
+            if (bean.isReadableProperty(name)) {
+                Object value = bean.getPropertyValue(name);
+                if (value != null) {
+                    return value.toString();
+                }
+            }
+        }
+        return null;
+    }
+
+    /** Replaces the database in {@code jdbc:postgresql://host:port/dbname[?params]}. */
+    static String withDatabase(String jdbcUrl, String db) {
+        int start = jdbcUrl.indexOf('/', jdbcUrl.indexOf("://") + 3);
+        if (start < 0) {
+            return jdbcUrl + '/' + db;
+        }
+        int end = jdbcUrl.indexOf('?', start);
+        return jdbcUrl.substring(0, start + 1) + db + (end < 0 ? "" : jdbcUrl.substring(end));
+    }
+
+    @Override
+    public PrintWriter getLogWriter() throws SQLException {
+        return target.getLogWriter();
+    }
+
+    @Override
+    public void setLogWriter(PrintWriter out) throws SQLException {
+        target.setLogWriter(out);
+    }
+
+    @Override
+    public void setLoginTimeout(int seconds) throws SQLException {
+        target.setLoginTimeout(seconds);
+    }
+
+    @Override
+    public int getLoginTimeout() throws SQLException {
+        return target.getLoginTimeout();
+    }
+
+    @Override
+    public Logger getParentLogger() throws SQLFeatureNotSupportedException {
+        return target.getParentLogger();
+    }
+
+    @Override
+    public <T> T unwrap(Class<T> iface) throws SQLException {
+        if (iface.isInstance(this)) {
+            return iface.cast(this);
+        }
+        if (iface.isInstance(target)) {
+            return iface.cast(target);
+        }
+        return target.unwrap(iface);
+    }
+
+    @Override
+    public boolean isWrapperFor(Class<?> iface) throws SQLException {
+        return iface.isInstance(this) || iface.isInstance(target) || target.isWrapperFor(iface);
+    }
+}
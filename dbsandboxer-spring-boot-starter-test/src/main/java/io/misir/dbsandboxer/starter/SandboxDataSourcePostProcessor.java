@@ -0,0 +1,32 @@
+package io.misir.dbsandboxer.starter;
+
+import java.util.function.UnaryOperator;
+import javax.sql.DataSource;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+
+/**
+ * Wraps every {@link DataSource} bean in a {@link SandboxDataSource}, for {@link
+ * ResetStrategy#SAVEPOINT} in a {@link SavepointDataSource} or, for {@link
+ * EnableDbSandboxer#lazyReset()}, in a {@link LazyResetDataSource}.
+ *
+ * @author Fethullah Misir
+ */
+final class SandboxDataSourcePostProcessor implements BeanPostProcessor {
+
+    private final UnaryOperator<DataSource> wrapper;
+
+    SandboxDataSourcePostProcessor(UnaryOperator<DataSource> wrapper) {
+        this.wrapper = wrapper;
+    }
+
+    @Override
+    public Object postProcessAfterInitialization(Object bean, String beanName) {
+        if (bean instanceof DataSource ds
+                && !(bean instanceof SandboxDataSource)
+                && !(bean instanceof SavepointDataSource)
+                && !(bean instanceof LazyResetDataSource)) {
+            return wrapper.apply(ds);
+        }
+        return bean;
+    }
+}
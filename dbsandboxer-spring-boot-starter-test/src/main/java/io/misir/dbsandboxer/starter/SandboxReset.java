@@ -0,0 +1,43 @@
+package io.misir.dbsandboxer.starter;
+
+import java.lang.annotation.*;
+
+/**
+ * Controls when the sandbox is reset for the annotated test class or method.
+ *
+ * <p>A method annotation overrides the one of its class, which in turn overrides those of enclosing
+ * classes for {@code @Nested} tests. Without any, the sandbox is reset before each test.
+ *
+ * <pre>{@code
+ * @SpringBootTest
+ * @EnableDbSandboxer
+ * @SandboxReset(ResetMode.BEFORE_CLASS)
+ * class ReportQueryTest {
+ *     // read-only tests share one copy of the database
+ *
+ *     @Test
+ *     @SandboxReset(ResetMode.BEFORE_EACH)
+ *     void archivesOldReports() { ... }
+ * }
+ * }</pre>
+ *
+ * <p>Modes other than {@link ResetMode#BEFORE_EACH} cannot be combined with {@link
+ * EnableDbSandboxer#parallel()}, where the tests of a class may run on different databases. With
+ * {@link EnableDbSandboxer#resetAfterEach()}, the background reset is only started for classes that
+ * reset before each test.
+ *
+ * @author Fethullah Misir
+ */
+@Target({ElementType.TYPE, ElementType.METHOD})
+@Retention(RetentionPolicy.RUNTIME)
+@Documented
+@Inherited
+public @interface SandboxReset {
+
+    /**
+     * When to reset the sandbox.
+     *
+     * @return the reset mode
+     */
+    ResetMode value();
+}
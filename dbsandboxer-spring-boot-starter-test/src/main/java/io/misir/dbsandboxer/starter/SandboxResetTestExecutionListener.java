@@ -0,0 +1,41 @@
+package io.misir.dbsandboxer.starter;
+
+import org.springframework.core.Ordered;
+import org.springframework.test.context.TestContext;
+import org.springframework.test.context.TestExecutionListener;
+
+/**
+ * Resets the sandbox before Spring prepares the test method, and starts the background reset of
+ * {@link EnableDbSandboxer#resetAfterEach()} once Spring is done with it.
+ *
+ * <p>JUnit runs the callbacks of the {@code SpringExtension} and {@link DbSandboxSpringExtension}
+ * in the order they are registered in, and the after callbacks in reverse. With
+ * {@code @SpringBootTest} declared first, the test-managed transaction would begin and {@code @Sql}
+ * scripts would run before the sandbox is reset, and the background reset would start before the
+ * transaction is rolled back. As the listener with the highest precedence, this one runs first
+ * before the test method and last after it. If it is not registered, e.g. because the test class
+ * declares its own listeners, the extension resets in its own callbacks and the next test resets up
+ * front.
+ *
+ * <p>Registered through {@code META-INF/spring.factories}.
+ *
+ * @author Fethullah Misir
+ */
+public final class SandboxResetTestExecutionListener implements TestExecutionListener, Ordered {
+
+    @Override
+    public int getOrder() {
+        return Ordered.HIGHEST_PRECEDENCE;
+    }
+
+    @Override
+    public void beforeTestMethod(TestContext testContext) throws Exception {
+        DbSandboxSpringExtension.resetBeforeTest(
+                testContext.getTestClass(), testContext.getTestMethod());
+    }
+
+    @Override
+    public void afterTestMethod(TestContext testContext) {
+        DbSandboxSpringExtension.startResetAfterTest();
+    }
+}
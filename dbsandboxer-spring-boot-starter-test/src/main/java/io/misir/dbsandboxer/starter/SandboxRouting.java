@@ -0,0 +1,32 @@
+package io.misir.dbsandboxer.starter;
+
+/**
+ * Holds the sandbox database the current thread's connections are routed to.
+ *
+ * <p>Set by {@link DbSandboxSpringExtension} around each test and read by {@link
+ * SandboxDataSource}. Threads without a route use the application's own database.
+ *
+ * <p>The route is thread-local: work the test hands to another thread, e.g. through {@code @Async}
+ * methods, executors, scheduled tasks or reactive pipelines switching schedulers, runs against the
+ * application's own database rather than the test's sandbox.
+ *
+ * @author Fethullah Misir
+ */
+final class SandboxRouting {
+
+    private static final ThreadLocal<String> CURRENT = new ThreadLocal<>();
+
+    private SandboxRouting() {}
+
+    static void route(String databaseName) {
+        CURRENT.set(databaseName);
+    }
+
+    static void clear() {
+        CURRENT.remove();
+    }
+
+    static String current() {
+        return CURRENT.get();
+    }
+}
@@ -0,0 +1,88 @@
+package io.misir.dbsandboxer.starter;
+
+import java.util.Comparator;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import org.junit.jupiter.api.extension.ExtensionContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Collects the time spent resetting sandboxes per test class and logs a summary, slowest class
+ * first, when the test run ends.
+ *
+ * <p>Kept in the root extension store, so JUnit closes it once after the last test class.
+ *
+ * @author Fethullah Misir
+ */
+final class SandboxTimingReport implements ExtensionContext.Store.CloseableResource {
+
+    private static final Logger log = LoggerFactory.getLogger(SandboxTimingReport.class);
+
+    private final Map<String, ClassTimings> timings = new ConcurrentHashMap<>();
+
+    void record(Class<?> testClass, long durationNanos) {
+        timings.computeIfAbsent(testClass.getName(), k -> new ClassTimings()).add(durationNanos);
+    }
+
+    @Override
+    public void close() {
+        if (timings.isEmpty() || !log.isInfoEnabled()) {
+            return;
+        }
+        long total = timings.values().stream().mapToLong(ClassTimings::total).sum();
+        StringBuilder report = new StringBuilder();
+        report.append(
+                String.format(
+                        Locale.ROOT,
+                        "Sandbox resets took %.3f s in %d test classes:",
+                        total / 1e9,
+                        timings.size()));
+        timings.entrySet().stream()
+                .sorted(
+                        Comparator.comparingLong(
+                                        (Map.Entry<String, ClassTimings> e) -> e.getValue().total())
+                                .reversed())
+                .forEach(
+                        e -> {
+                            ClassTimings t = e.getValue();
+                            report.append(
+                                    String.format(
+                                            Locale.ROOT,
+                                            "%n  %9.3f s  %5d resets  avg %7.1f ms  max %7.1f ms  %s",
+                                            t.total() / 1e9,
+                                            t.count(),
+                                            t.total() / 1e6 / t.count(),
+                                            t.max() / 1e6,
+                                            e.getKey()));
+                        });
+        log.info(report.toString());
+    }
+
+    /** Reset count, total and maximum duration of one test class. */
+    private static final class ClassTimings {
+
+        private long count;
+        private long total;
+        private long max;
+
+        synchronized void add(long nanos) {
+            count++;
+            total += nanos;
+            max = Math.max(max, nanos);
+        }
+
+        synchronized long count() {
+            return count;
+        }
+
+        synchronized long total() {
+            return total;
+        }
+
+        synchronized long max() {
+            return max;
+        }
+    }
+}
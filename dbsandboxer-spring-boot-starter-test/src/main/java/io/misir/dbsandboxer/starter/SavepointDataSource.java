@@ -0,0 +1,531 @@
+package io.misir.dbsandboxer.starter;
+
+import java.io.PrintWriter;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.Savepoint;
+import java.sql.Statement;
+import java.time.OffsetDateTime;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.logging.Logger;
+import javax.sql.DataSource;
+import org.slf4j.LoggerFactory;
+
+/**
+ * DataSource wrapper for {@link ResetStrategy#SAVEPOINT} that hands out one shared physical session
+ * while a test runs.
+ *
+ * <p>{@link #begin()} opens a transaction on a connection of the wrapped DataSource, records the
+ * sequence values and sets a savepoint. Until {@link #end()}, every connection requested from this
+ * DataSource is a view of that session: closing it does not close the session, and its commits and
+ * rollbacks map to savepoints inside the session's transaction. {@link #rollback()} rolls the
+ * session back to its savepoint and restores the sequences, unless another session may have written
+ * to the database since {@link #begin()}. What {@link #begin()} records is kept in memory rather
+ * than in the session, so the application cannot see it.
+ *
+ * @author Fethullah Misir
+ */
+final class SavepointDataSource implements DataSource {
+
+    private static final org.slf4j.Logger log = LoggerFactory.getLogger(SavepointDataSource.class);
+
+    private static final String SAVEPOINT = "dbsandboxer";
+
+    /** Sequences are not transactional, so their values are kept outside the savepoint. */
+    private static final String SEQUENCES =
+            """
+              SELECT format('%I.%I', schemaname, sequencename), start_value, last_value
+              FROM   pg_sequences
+              WHERE  schemaname NOT LIKE 'pg\\_%' AND schemaname <> 'information_schema'
+            """;
+
+    private static final String SESSION_START =
+            """
+              SELECT clock_timestamp(), xact_commit
+              FROM   pg_stat_database
+              WHERE  datname = current_database()
+            """;
+
+    /**
+     * Whether another session committed since {@link #begin()}: sessions still connected have
+     * changed state since, or the commit count of sessions that have flushed their statistics, e.g.
+     * on disconnect, went up. Our own session never commits.
+     */
+    private static final String CHANGED_BY_OTHERS =
+            """
+              SELECT EXISTS (SELECT 1
+                             FROM   pg_stat_activity a
+                             WHERE  a.datname = current_database()
+                             AND    a.pid <> pg_backend_pid()
+                             AND    a.backend_type = 'client backend'
+                             AND    (a.state_change IS NULL OR a.state_change >= ?))
+                  OR (SELECT d.xact_commit
+                      FROM   pg_stat_database d
+                      WHERE  d.datname = current_database())
+                     <> ?
+            """;
+
+    private static final String RESTORE_SEQUENCES =
+            """
+              SELECT setval(s.seq::regclass,
+                            coalesce(s.last_value, s.start_value),
+                            s.last_value IS NOT NULL)
+              FROM   unnest(?::text[], ?::bigint[], ?::bigint[]) AS s(seq, start_value, last_value)
+              JOIN   pg_sequences p ON format('%I.%I', p.schemaname, p.sequencename) = s.seq
+              WHERE  p.last_value IS DISTINCT FROM s.last_value
+            """;
+
+    private final DataSource target;
+
+    private Connection session;
+    private Savepoint savepoint;
+
+    /** The transactions of the logical connections still holding a savepoint, latest first. */
+    private Deque<Transaction> transactions;
+
+    private OffsetDateTime started;
+    private long commits;
+    private String[] sequences;
+    private Long[] startValues;
+    private Long[] lastValues;
+
+    SavepointDataSource(DataSource target) {
+        this.target = target;
+    }
+
+    /** Opens the shared session on the current state of the database. */
+    synchronized void begin() throws SQLException {
+        if (session != null) {
+            return;
+        }
+        Connection c = target.getConnection();
+        try {
+            c.setAutoCommit(false);
+            try (Statement s = c.createStatement()) {
+                List<String> names = new ArrayList<>();
+                List<Long> starts = new ArrayList<>();
+                List<Long> lasts = new ArrayList<>();
+                try (ResultSet rs = s.executeQuery(SEQUENCES)) {
+                    while (rs.next()) {
+                        names.add(rs.getString(1));
+                        starts.add(rs.getLong(2));
+                        lasts.add(rs.getObject(3, Long.class));
+                    }
+                }
+                sequences = names.toArray(String[]::new);
+                startValues = starts.toArray(Long[]::new);
+                lastValues = lasts.toArray(Long[]::new);
+                try (ResultSet rs = s.executeQuery(SESSION_START)) {
+                    rs.next();
+                    started = rs.getObject(1, OffsetDateTime.class);
+                    commits = rs.getLong(2);
+                }
+            }
+            savepoint = c.setSavepoint(SAVEPOINT);
+        } catch (SQLException | RuntimeException e) {
+            c.close();
+            throw e;
+        }
+        session = c;
+        transactions = new ArrayDeque<>();
+    }
+
+    /**
+     * Rolls the shared session back to its savepoint.
+     *
+     * @return false if there is no session, it broke, or another session may have written to the
+     *     database; the database then needs a full rebuild
+     */
+    synchronized boolean rollback() {
+        if (session == null) {
+            return false;
+        }
+        synchronized (session) {
+            transactions.clear(); // rolling back to the savepoint destroys those set after it
+            try (Statement s = session.createStatement()) {
+                session.rollback(savepoint);
+                s.execute("SELECT pg_stat_clear_snapshot()");
+                if (changedByOthers()) {
+                    log.debug("Another session used the sandbox, rebuilding it.");
+                    return false;
+                }
+                restoreSequences();
+                return true;
+            } catch (SQLException e) {
+                log.debug("Could not roll back the shared session: {}", e.getMessage());
+                return false;
+            }
+        }
+    }
+
+    /** Rolls back and closes the shared session; connections are then taken from the target. */
+    synchronized void end() {
+        if (session == null) {
+            return;
+        }
+        try {
+            session.rollback();
+            session.setAutoCommit(true);
+        } catch (SQLException ignore) {
+        }
+        try {
+            session.close();
+        } catch (SQLException ignore) {
+        }
+        session = null;
+        savepoint = null;
+        transactions = null;
+    }
+
+    private boolean changedByOthers() throws SQLException {
+        try (PreparedStatement ps = session.prepareStatement(CHANGED_BY_OTHERS)) {
+            ps.setObject(1, started);
+            ps.setLong(2, commits);
+            try (ResultSet rs = ps.executeQuery()) {
+                rs.next();
+                return rs.getBoolean(1);
+            }
+        }
+    }
+
+    private void restoreSequences() throws SQLException {
+        if (sequences.length == 0) {
+            return;
+        }
+        try (PreparedStatement ps = session.prepareStatement(RESTORE_SEQUENCES)) {
+            ps.setArray(1, session.createArrayOf("text", sequences));
+            ps.setArray(2, session.createArrayOf("bigint", startValues));
+            ps.setArray(3, session.createArrayOf("bigint", lastValues));
+            ps.execute();
+        }
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        Connection shared = sharedConnection();
+        return shared != null ? shared : target.getConnection();
+    }
+
+    @Override
+    public Connection getConnection(String user, String pass) throws SQLException {
+        Connection shared = sharedConnection();
+        return shared != null ? shared : target.getConnection(user, pass);
+    }
+
+    private synchronized Connection sharedConnection() {
+        if (session == null) {
+            return null;
+        }
+        return SharedConnection.open(session, transactions);
+    }
+
+    @Override
+    public PrintWriter getLogWriter() throws SQLException {
+        return target.getLogWriter();
+    }
+
+    @Override
+    public void setLogWriter(PrintWriter out) throws SQLException {
+        target.setLogWriter(out);
+    }
+
+    @Override
+    public void setLoginTimeout(int seconds) throws SQLException {
+        target.setLoginTimeout(seconds);
+    }
+
+    @Override
+    public int getLoginTimeout() throws SQLException {
+        return target.getLoginTimeout();
+    }
+
+    @Override
+    public Logger getParentLogger() throws SQLFeatureNotSupportedException {
+        return target.getParentLogger();
+    }
+
+    @Override
+    public <T> T unwrap(Class<T> iface) throws SQLException {
+        if (iface.isInstance(this)) {
+            return iface.cast(this);
+        }
+        if (iface.isInstance(target)) {
+            return iface.cast(target);
+        }
+        return target.unwrap(iface);
+    }
+
+    @Override
+    public boolean isWrapperFor(Class<?> iface) throws SQLException {
+        return iface.isInstance(this) || iface.isInstance(target) || target.isWrapperFor(iface);
+    }
+
+    /** The transaction of a logical connection, committed once its savepoint may be released. */
+    private static final class Transaction {
+
+        private final Savepoint savepoint;
+        private boolean committed;
+
+        Transaction(Savepoint savepoint) {
+            this.savepoint = savepoint;
+        }
+    }
+
+    /**
+     * A logical connection on the shared session.
+     *
+     * <p>Auto-commit, read-only and isolation settings are kept per logical connection, since the
+     * session stays in one transaction. A transaction of the logical connection is a savepoint in
+     * the session: commit releases it, rollback returns to it, and closing the connection with the
+     * transaction open rolls it back, as connection pools do. In auto-commit mode, each statement
+     * runs in a savepoint of its own, so a failing statement does not abort the session.
+     *
+     * <p>Releasing or rolling back to a savepoint also ends the savepoints set after it, which may
+     * belong to transactions other connections still have open, e.g. with {@code REQUIRES_NEW}. A
+     * commit is therefore only released once those transactions have ended, and rolling back a
+     * transaction while a later one is open fails.
+     *
+     * <p>Statements, result sets and metadata are wrapped as well, so that they return this
+     * connection rather than the session.
+     */
+    private static final class SharedConnection implements InvocationHandler {
+
+        private final Connection session;
+        private final Deque<Transaction> transactions;
+
+        private Connection proxy;
+        private boolean closed;
+        private boolean autoCommit = true;
+        private boolean readOnly;
+        private int isolation = Connection.TRANSACTION_READ_COMMITTED;
+        private Transaction transaction;
+
+        private SharedConnection(Connection session, Deque<Transaction> transactions) {
+            this.session = session;
+            this.transactions = transactions;
+        }
+
+        static Connection open(Connection session, Deque<Transaction> transactions) {
+            SharedConnection connection = new SharedConnection(session, transactions);
+            connection.proxy = proxy(Connection.class, connection);
+            return connection.proxy;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            synchronized (session) {
+                switch (method.getName()) {
+                    case "close", "abort" -> {
+                        if (!closed) {
+                            closed = true;
+                            rollbackTransaction();
+                        }
+                        return null;
+                    }
+                    case "isClosed" -> {
+                        return closed || session.isClosed();
+                    }
+                    case "equals" -> {
+                        return proxy == args[0];
+                    }
+                    case "hashCode" -> {
+                        return System.identityHashCode(proxy);
+                    }
+                    case "toString" -> {
+                        return "SharedConnection[" + session + ']';
+                    }
+                    default -> {}
+                }
+                if (closed) {
+                    throw new SQLException("Connection is closed", "08003");
+                }
+                switch (method.getName()) {
+                    case "getAutoCommit" -> {
+                        return autoCommit;
+                    }
+                    case "setAutoCommit" -> {
+                        boolean value = (Boolean) args[0];
+                        if (value && !autoCommit) {
+                            commitTransaction();
+                        } else if (!value && autoCommit) {
+                            beginTransaction();
+                        }
+                        autoCommit = value;
+                        return null;
+                    }
+                    case "commit" -> {
+                        if (!autoCommit) {
+                            commitTransaction();
+                            beginTransaction();
+                        }
+                        return null;
+                    }
+                    case "rollback" -> {
+                        if (args == null || args.length == 0) {
+                            if (!autoCommit) {
+                                requireLatest();
+                                session.rollback(transaction.savepoint);
+                            }
+                            return null;
+                        }
+                    }
+                    case "isReadOnly" -> {
+                        return readOnly;
+                    }
+                    case "setReadOnly" -> {
+                        readOnly = (Boolean) args[0];
+                        return null;
+                    }
+                    case "getTransactionIsolation" -> {
+                        return isolation;
+                    }
+                    case "setTransactionIsolation" -> {
+                        isolation = (Integer) args[0];
+                        return null;
+                    }
+                    default -> {}
+                }
+                return wrap(call(session, method, args), method.getReturnType(), proxy);
+            }
+        }
+
+        private void beginTransaction() throws SQLException {
+            transaction = new Transaction(session.setSavepoint());
+            transactions.push(transaction);
+        }
+
+        private void commitTransaction() throws SQLException {
+            if (transaction != null) {
+                transaction.committed = true;
+                transaction = null;
+                releaseCommitted();
+            }
+        }
+
+        private void rollbackTransaction() throws SQLException {
+            if (transaction != null && !session.isClosed()) {
+                requireLatest();
+                session.rollback(transaction.savepoint);
+                session.releaseSavepoint(transaction.savepoint);
+                transactions.pop();
+                transaction = null;
+                releaseCommitted();
+            }
+        }
+
+        /** Releases the committed savepoints no open transaction was started after. */
+        private void releaseCommitted() throws SQLException {
+            while (!transactions.isEmpty() && transactions.peek().committed) {
+                session.releaseSavepoint(transactions.pop().savepoint);
+            }
+        }
+
+        private void requireLatest() throws SQLException {
+            if (transactions.peek() != transaction) {
+                throw new SQLException(
+                        "Cannot roll back while a transaction started later on another connection"
+                                + " of the shared session is still open",
+                        "25000");
+            }
+        }
+
+        /** Runs a statement of an auto-commit connection, undoing it alone if it fails. */
+        private Object execute(Object statement, Method method, Object[] args) throws Throwable {
+            Savepoint own = session.setSavepoint();
+            try {
+                Object result = call(statement, method, args);
+                session.releaseSavepoint(own);
+                return result;
+            } catch (Throwable e) {
+                try {
+                    session.rollback(own);
+                    session.releaseSavepoint(own);
+                } catch (SQLException suppressed) {
+                    e.addSuppressed(suppressed);
+                }
+                throw e;
+            }
+        }
+
+        /** Wraps statements, result sets and metadata returned by the session. */
+        private Object wrap(Object result, Class<?> type, Object parent) {
+            if (result == null
+                    || !(Statement.class.isAssignableFrom(type)
+                            || ResultSet.class.isAssignableFrom(type)
+                            || DatabaseMetaData.class.isAssignableFrom(type))) {
+                return result;
+            }
+            return proxy(type, new SessionObject(result, parent));
+        }
+
+        private static Object call(Object target, Method method, Object[] args) throws Throwable {
+            try {
+                return method.invoke(target, args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+        }
+
+        private static <T> T proxy(Class<T> type, InvocationHandler handler) {
+            return type.cast(
+                    Proxy.newProxyInstance(
+                            Connection.class.getClassLoader(), new Class<?>[] {type}, handler));
+        }
+
+        /** A statement, result set or metadata object created through this connection. */
+        private final class SessionObject implements InvocationHandler {
+
+            private final Object target;
+            private final Object parent;
+
+            SessionObject(Object target, Object parent) {
+                this.target = target;
+                this.parent = parent;
+            }
+
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                synchronized (session) {
+                    switch (method.getName()) {
+                        case "equals" -> {
+                            return proxy == args[0];
+                        }
+                        case "hashCode" -> {
+                            return System.identityHashCode(proxy);
+                        }
+                        case "toString" -> {
+                            return target.toString();
+                        }
+                        case "getConnection" -> {
+                            return SharedConnection.this.proxy;
+                        }
+                        case "getStatement" -> {
+                            if (parent instanceof Statement) {
+                                return parent;
+                            }
+                        }
+                        default -> {}
+                    }
+                    Object result =
+                            target instanceof Statement
+                                            && autoCommit
+                                            && method.getName().startsWith("execute")
+                                    ? execute(target, method, args)
+                                    : call(target, method, args);
+                    return wrap(result, method.getReturnType(), proxy);
+                }
+            }
+        }
+    }
+}
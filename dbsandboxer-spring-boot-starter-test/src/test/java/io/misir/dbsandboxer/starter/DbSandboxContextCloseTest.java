@@ -0,0 +1,55 @@
+package io.misir.dbsandboxer.starter;
+
+import static org.assertj.core.api.Assertions.*;
+
+import java.sql.SQLException;
+import javax.sql.DataSource;
+import org.junit.jupiter.api.*;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.junit.jupiter.SpringJUnitConfig;
+
+@SpringJUnitConfig
+@EnableDbSandboxer(templateFingerprintLocations = "classpath:dbsandboxer-test/schema.sql")
+@TestMethodOrder(MethodOrderer.OrderAnnotation.class)
+@DisplayName("Spring context close Tests")
+class DbSandboxContextCloseTest {
+
+    private static final H2FileDatabase DATABASE = new H2FileDatabase("context-close");
+
+    private static DataSource closedDataSource;
+
+    @Autowired private DataSource dataSource;
+
+    @Test
+    @Order(1)
+    @DirtiesContext
+    @DisplayName("Should write to the database before the context is closed")
+    void shouldWriteBeforeClose() throws SQLException {
+        closedDataSource = dataSource;
+        H2FileDatabase.insert(dataSource, 2);
+
+        assertThat(DATABASE.count()).isEqualTo(2);
+    }
+
+    @Test
+    @Order(2)
+    @SandboxReset(ResetMode.NEVER)
+    @DisplayName("Should close the sandbox with its Spring context")
+    void shouldCloseWithContext() throws SQLException {
+        assertThat(dataSource).isNotSameAs(closedDataSource);
+        // not reset before this test, but when the sandbox closed with the previous context
+        assertThat(DATABASE.count()).isEqualTo(1);
+    }
+
+    @Configuration
+    static class Config {
+
+        @Bean
+        DataSource dataSource() throws SQLException {
+            return DATABASE.create();
+        }
+    }
+}
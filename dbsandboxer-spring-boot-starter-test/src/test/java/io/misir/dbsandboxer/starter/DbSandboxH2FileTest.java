@@ -0,0 +1,52 @@
+package io.misir.dbsandboxer.starter;
+
+import static org.assertj.core.api.Assertions.*;
+
+import java.sql.SQLException;
+import javax.sql.DataSource;
+import org.junit.jupiter.api.*;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.test.context.junit.jupiter.SpringJUnitConfig;
+
+@SpringJUnitConfig
+@EnableDbSandboxer
+@TestMethodOrder(MethodOrderer.OrderAnnotation.class)
+@DisplayName("H2 database file Tests")
+class DbSandboxH2FileTest {
+
+    private static final H2FileDatabase DATABASE = new H2FileDatabase("h2-file");
+
+    @Autowired private DataSource dataSource;
+
+    @Test
+    @Order(1)
+    @DisplayName("Should keep a template next to the database file")
+    void shouldCreateTemplate() throws SQLException {
+        assertThat(DATABASE.templateFile()).isRegularFile();
+
+        H2FileDatabase.insert(dataSource, 2);
+        H2FileDatabase.insert(dataSource, 3);
+        assertThat(H2FileDatabase.count(dataSource)).isEqualTo(3);
+    }
+
+    @Test
+    @Order(2)
+    @DisplayName("Should restore the database file before the next test")
+    void shouldRestoreDatabaseFile() throws SQLException {
+        assertThat(H2FileDatabase.count(dataSource)).isEqualTo(1);
+
+        H2FileDatabase.insert(dataSource, 2);
+        assertThat(H2FileDatabase.count(dataSource)).isEqualTo(2);
+    }
+
+    @Configuration
+    static class Config {
+
+        @Bean
+        DataSource dataSource() throws SQLException {
+            return DATABASE.create();
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package io.misir.dbsandboxer.starter;
+
+import static org.assertj.core.api.Assertions.*;
+
+import io.misir.dbsandboxer.core.api.SandboxDatabaseProvider;
+import io.misir.dbsandboxer.core.providers.file.FileSandboxDatabaseProvider;
+import java.sql.SQLException;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.sql.DataSource;
+import org.junit.jupiter.api.*;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.test.context.junit.jupiter.SpringJUnitConfig;
+
+@SpringJUnitConfig
+@EnableDbSandboxer(lazyReset = true)
+@TestMethodOrder(MethodOrderer.OrderAnnotation.class)
+@DisplayName("Lazy reset Tests")
+class DbSandboxLazyResetTest {
+
+    private static final H2FileDatabase ORDERS = new H2FileDatabase("lazy-orders");
+    private static final H2FileDatabase REPORTING = new H2FileDatabase("lazy-reporting");
+
+    /** Rebuilds of either database. */
+    private static final AtomicInteger REBUILDS = new AtomicInteger();
+
+    private static int rebuildsAfterFirstTest;
+
+    @Autowired
+    @Qualifier("orders")
+    private DataSource orders;
+
+    @Autowired
+    @Qualifier("reporting")
+    private DataSource reporting;
+
+    @Test
+    @Order(1)
+    @DisplayName("Should reset every database on the first connection")
+    void shouldResetOnFirstConnection() throws SQLException {
+        int before = REBUILDS.get();
+
+        H2FileDatabase.insert(orders, 2);
+        assertThat(REBUILDS.get()).isEqualTo(before + 2);
+
+        H2FileDatabase.insert(reporting, 2);
+        assertThat(REBUILDS.get()).isEqualTo(before + 2);
+        rebuildsAfterFirstTest = REBUILDS.get();
+    }
+
+    @Test
+    @Order(2)
+    @DisplayName("Should not reset for a test that never connects")
+    void shouldSkipResetWithoutConnection() {
+        assertThat(REBUILDS.get()).isEqualTo(rebuildsAfterFirstTest);
+    }
+
+    @Test
+    @Order(3)
+    @DisplayName("Should hand out clean databases after a skipped reset")
+    void shouldResetAfterSkippedReset() throws SQLException {
+        assertThat(H2FileDatabase.count(reporting)).isEqualTo(1);
+        assertThat(H2FileDatabase.count(orders)).isEqualTo(1);
+        assertThat(REBUILDS.get()).isEqualTo(rebuildsAfterFirstTest + 2);
+    }
+
+    @Configuration
+    static class Config {
+
+        @Bean
+        DataSource orders() throws SQLException {
+            return ORDERS.create();
+        }
+
+        @Bean
+        DataSource reporting() throws SQLException {
+            return REPORTING.create();
+        }
+
+        @Bean
+        SandboxDatabaseProvider ordersProvider() {
+            return counting(ORDERS.provider());
+        }
+
+        @Bean
+        SandboxDatabaseProvider reportingProvider() {
+            return counting(REPORTING.provider());
+        }
+
+        private static SandboxDatabaseProvider counting(FileSandboxDatabaseProvider files) {
+            return new SandboxDatabaseProvider() {
+                @Override
+                public void prepareSandbox() {
+                    files.prepareSandbox();
+                }
+
+                @Override
+                public void rebuildSandbox() {
+                    REBUILDS.incrementAndGet();
+                    files.rebuildSandbox();
+                }
+            };
+        }
+    }
+}
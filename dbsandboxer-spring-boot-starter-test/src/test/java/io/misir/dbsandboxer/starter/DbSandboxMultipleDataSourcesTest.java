@@ -0,0 +1,83 @@
+package io.misir.dbsandboxer.starter;
+
+import static org.assertj.core.api.Assertions.*;
+
+import java.sql.SQLException;
+import javax.sql.DataSource;
+import org.junit.jupiter.api.*;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.springframework.test.context.junit.jupiter.SpringJUnitConfig;
+
+@SpringJUnitConfig
+@EnableDbSandboxer(maxConcurrentResets = 1)
+@TestMethodOrder(MethodOrderer.OrderAnnotation.class)
+@DisplayName("Multiple DataSources Tests")
+class DbSandboxMultipleDataSourcesTest {
+
+    private static final H2FileDatabase ORDERS = new H2FileDatabase("multi-orders");
+    private static final H2FileDatabase REPORTING = new H2FileDatabase("multi-reporting");
+
+    @Autowired
+    @Qualifier("orders")
+    private DataSource orders;
+
+    @Autowired
+    @Qualifier("ordersReadOnly")
+    private DataSource ordersReadOnly;
+
+    @Autowired
+    @Qualifier("reporting")
+    private DataSource reporting;
+
+    @Test
+    @Order(1)
+    @DisplayName("Should write to every database")
+    void shouldWriteToEveryDatabase() throws SQLException {
+        H2FileDatabase.insert(orders, 2);
+        H2FileDatabase.insert(reporting, 2);
+        H2FileDatabase.insert(reporting, 3);
+
+        assertThat(H2FileDatabase.count(ordersReadOnly)).isEqualTo(2);
+        assertThat(H2FileDatabase.count(reporting)).isEqualTo(3);
+    }
+
+    @Test
+    @Order(2)
+    @DisplayName("Should reset every database before the next test")
+    void shouldResetEveryDatabase() throws SQLException {
+        assertThat(ORDERS.count()).isEqualTo(1);
+        assertThat(REPORTING.count()).isEqualTo(1);
+    }
+
+    @Test
+    @Order(3)
+    @DisplayName("Should keep one template per database")
+    void shouldKeepOneTemplatePerDatabase() {
+        assertThat(ORDERS.templateFile()).isRegularFile();
+        assertThat(REPORTING.templateFile()).isRegularFile();
+    }
+
+    @Configuration
+    static class Config {
+
+        @Bean
+        DataSource orders() throws SQLException {
+            return ORDERS.create();
+        }
+
+        /** A second DataSource on the orders database, which shares its provider. */
+        @Bean
+        DataSource ordersReadOnly() {
+            return new DriverManagerDataSource(ORDERS.url());
+        }
+
+        @Bean
+        DataSource reporting() throws SQLException {
+            return REPORTING.create();
+        }
+    }
+}
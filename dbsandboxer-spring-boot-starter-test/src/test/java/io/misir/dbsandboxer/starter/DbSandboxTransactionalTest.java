@@ -0,0 +1,90 @@
+package io.misir.dbsandboxer.starter;
+
+import static org.assertj.core.api.Assertions.*;
+
+import io.misir.dbsandboxer.core.api.SandboxDatabaseProvider;
+import io.misir.dbsandboxer.core.providers.file.FileSandboxDatabaseProvider;
+import java.nio.file.Path;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import javax.sql.DataSource;
+import org.junit.jupiter.api.*;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.test.context.junit.jupiter.SpringJUnitConfig;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Transactional;
+
+@SpringJUnitConfig
+@Transactional
+@EnableDbSandboxer(resetAfterEach = true)
+@TestMethodOrder(MethodOrderer.OrderAnnotation.class)
+@DisplayName("Reset after each @Transactional test Tests")
+class DbSandboxTransactionalTest {
+
+    private static final H2FileDatabase DATABASE = new H2FileDatabase("transactional");
+
+    /** Sessions other than the checking one, seen by each reset. */
+    private static final List<Integer> SESSIONS_AT_RESET = new CopyOnWriteArrayList<>();
+
+    @Autowired private JdbcTemplate jdbc;
+
+    @Test
+    @Order(1)
+    @DisplayName("Should write in the test-managed transaction")
+    void shouldWriteInTransaction() {
+        jdbc.update("INSERT INTO items VALUES (2, 'Item 2')");
+
+        assertThat(jdbc.queryForObject("SELECT COUNT(*) FROM items", Integer.class)).isEqualTo(2);
+    }
+
+    @Test
+    @Order(2)
+    @DisplayName("Should reset outside of the test-managed transactions")
+    void shouldResetOutsideTransactions() {
+        // before the first test, and in the background after it was rolled back
+        assertThat(SESSIONS_AT_RESET).containsExactly(0, 0);
+        assertThat(jdbc.queryForObject("SELECT COUNT(*) FROM items", Integer.class)).isEqualTo(1);
+    }
+
+    @Configuration
+    static class Config {
+
+        @Bean
+        DataSource dataSource() throws SQLException {
+            return DATABASE.create();
+        }
+
+        @Bean
+        JdbcTemplate jdbcTemplate(DataSource dataSource) {
+            return new JdbcTemplate(dataSource);
+        }
+
+        @Bean
+        PlatformTransactionManager transactionManager(DataSource dataSource) {
+            return new DataSourceTransactionManager(dataSource);
+        }
+
+        @Bean
+        SandboxDatabaseProvider sandboxDatabaseProvider() {
+            FileSandboxDatabaseProvider files =
+                    new FileSandboxDatabaseProvider(Path.of("target", "h2", "transactional.mv.db"));
+            return new SandboxDatabaseProvider() {
+                @Override
+                public void prepareSandbox() {
+                    files.prepareSandbox();
+                }
+
+                @Override
+                public void rebuildSandbox() {
+                    SESSIONS_AT_RESET.add(DATABASE.sessions() - 1);
+                    files.rebuildSandbox();
+                }
+            };
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package io.misir.dbsandboxer.starter;
+
+import io.misir.dbsandboxer.core.providers.file.FileSandboxDatabaseProvider;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import javax.sql.DataSource;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+
+/**
+ * An H2 database in a file below {@code target/h2}, seeded from {@code dbsandboxer-test/schema.sql}
+ * with one row in {@code items}.
+ *
+ * <p>The DataSource opens a connection per call, so H2 closes the file once the test's connections
+ * are closed and the file provider can replace it.
+ */
+final class H2FileDatabase {
+
+    private final Path file;
+    private final String url;
+
+    H2FileDatabase(String name) {
+        this.file = Path.of("target", "h2", name).toAbsolutePath();
+        this.url = "jdbc:h2:file:" + file;
+    }
+
+    String url() {
+        return url;
+    }
+
+    /** A provider for the database file, for tests that declare their own provider beans. */
+    FileSandboxDatabaseProvider provider() {
+        return new FileSandboxDatabaseProvider(Path.of(file + ".mv.db"));
+    }
+
+    /** The copy of the database file the file provider restores it from. */
+    Path templateFile() {
+        return Path.of(file + ".mv.db.template");
+    }
+
+    /** Creates the schema and returns a DataSource for the database. */
+    DataSource create() throws SQLException {
+        try (Connection c = DriverManager.getConnection(url);
+                Statement s = c.createStatement()) {
+            s.execute("RUNSCRIPT FROM 'classpath:/dbsandboxer-test/schema.sql'");
+        }
+        return new DriverManagerDataSource(url);
+    }
+
+    /** Counts the rows of {@code items}, bypassing the application's DataSource. */
+    int count() throws SQLException {
+        try (Connection c = DriverManager.getConnection(url)) {
+            return count(c);
+        }
+    }
+
+    /** Counts the open sessions, including the one opened to count them. */
+    int sessions() {
+        try (Connection c = DriverManager.getConnection(url);
+                Statement s = c.createStatement();
+                ResultSet rs = s.executeQuery("SELECT COUNT(*) FROM INFORMATION_SCHEMA.SESSIONS")) {
+            rs.next();
+            return rs.getInt(1);
+        } catch (SQLException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    static int count(DataSource dataSource) throws SQLException {
+        try (Connection c = dataSource.getConnection()) {
+            return count(c);
+        }
+    }
+
+    static void insert(DataSource dataSource, int id) throws SQLException {
+        try (Connection c = dataSource.getConnection();
+                PreparedStatement ps = c.prepareStatement("INSERT INTO items VALUES (?, ?)")) {
+            ps.setInt(1, id);
+            ps.setString(2, "Item " + id);
+            ps.executeUpdate();
+        }
+    }
+
+    private static int count(Connection c) throws SQLException {
+        try (Statement s = c.createStatement();
+                ResultSet rs = s.executeQuery("SELECT COUNT(*) FROM items")) {
+            rs.next();
+            return rs.getInt(1);
+        }
+    }
+}
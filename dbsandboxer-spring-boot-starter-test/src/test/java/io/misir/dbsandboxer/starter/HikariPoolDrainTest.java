@@ -0,0 +1,74 @@
+package io.misir.dbsandboxer.starter;
+
+import static org.assertj.core.api.Assertions.*;
+
+import com.zaxxer.hikari.HikariConfig;
+import com.zaxxer.hikari.HikariDataSource;
+import com.zaxxer.hikari.HikariPoolMXBean;
+import java.sql.Connection;
+import java.sql.SQLException;
+import org.h2.jdbcx.JdbcDataSource;
+import org.junit.jupiter.api.*;
+
+@DisplayName("HikariPoolDrain Tests")
+class HikariPoolDrainTest {
+
+    private HikariDataSource dataSource;
+
+    @BeforeEach
+    void setUp() {
+        HikariConfig config = new HikariConfig();
+        config.setJdbcUrl("jdbc:h2:mem:drain;DB_CLOSE_DELAY=-1");
+        config.setMinimumIdle(2);
+        config.setMaximumPoolSize(4);
+        config.setAllowPoolSuspension(true);
+        dataSource = new HikariDataSource(config);
+    }
+
+    @AfterEach
+    void tearDown() {
+        dataSource.close();
+    }
+
+    @Test
+    @DisplayName("Should only drain HikariCP pools")
+    void shouldOnlyDrainHikariPools() throws SQLException {
+        JdbcDataSource plain = new JdbcDataSource();
+        plain.setURL("jdbc:h2:mem:drain");
+
+        assertThat(HikariPoolDrain.of(plain)).isNull();
+        assertThat(HikariPoolDrain.of(dataSource)).isNotNull();
+    }
+
+    @Test
+    @DisplayName("Should not hand out connections borrowed before the drain")
+    void shouldCloseAndRefill() throws Exception {
+        HikariPoolDrain drain = HikariPoolDrain.of(dataSource);
+        Connection borrowed = dataSource.getConnection();
+        Connection physical = borrowed.unwrap(Connection.class);
+
+        drain.drain();
+        borrowed.close();
+        drain.refill();
+
+        HikariPoolMXBean pool = dataSource.getHikariPoolMXBean();
+        awaitTrue(physical::isClosed);
+        assertThat(pool.getTotalConnections()).isPositive();
+        try (Connection c = dataSource.getConnection()) {
+            assertThat(c.unwrap(Connection.class)).isNotSameAs(physical);
+            assertThat(c.isValid(1)).isTrue();
+        }
+    }
+
+    private static void awaitTrue(Check check) throws Exception {
+        for (int attempt = 0; attempt < 50 && !check.holds(); attempt++) {
+            Thread.sleep(100);
+        }
+        assertThat(check.holds()).isTrue();
+    }
+
+    @FunctionalInterface
+    private interface Check {
+        boolean holds() throws Exception;
+    }
+}
@@ -0,0 +1,3 @@
+DROP TABLE IF EXISTS items;
+CREATE TABLE items (id INT PRIMARY KEY, name VARCHAR(100) NOT NULL);
+INSERT INTO items VALUES (1, 'Seeded');
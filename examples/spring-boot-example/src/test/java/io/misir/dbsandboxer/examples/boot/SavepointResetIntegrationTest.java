@@ -0,0 +1,108 @@
+package io.misir.dbsandboxer.examples.boot;
+
+import static org.assertj.core.api.Assertions.*;
+
+import io.misir.dbsandboxer.starter.EnableDbSandboxer;
+import io.misir.dbsandboxer.starter.ResetStrategy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import javax.sql.DataSource;
+import org.junit.jupiter.api.*;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+@SpringBootTest(classes = {ProjectTestConfiguration.class})
+@EnableDbSandboxer(resetStrategy = ResetStrategy.SAVEPOINT)
+@TestMethodOrder(MethodOrderer.OrderAnnotation.class)
+@DisplayName("Savepoint reset Tests")
+class SavepointResetIntegrationTest {
+
+    private static final String INSERT_PRODUCT =
+            "INSERT INTO product (sku, name, price_cents) VALUES (?, 'Savepoint', 1)";
+
+    @Autowired private DataSource dataSource;
+    @Autowired private JdbcTemplate jdbc;
+
+    @Test
+    @Order(1)
+    @DisplayName("Should keep the session usable after a failing statement")
+    void shouldSurviveFailingStatement() {
+        jdbc.update(INSERT_PRODUCT, "SAVEPOINT-1");
+
+        assertThatThrownBy(() -> jdbc.update(INSERT_PRODUCT, "SAVEPOINT-1"))
+                .isInstanceOf(DataAccessException.class);
+
+        assertThat(products()).isEqualTo(4);
+    }
+
+    @Test
+    @Order(2)
+    @DisplayName("Should roll back what the previous test wrote")
+    void shouldRollBackPreviousTest() {
+        assertThat(products()).isEqualTo(3);
+    }
+
+    @Test
+    @Order(3)
+    @DisplayName("Should keep a commit until a transaction started later ends")
+    void shouldKeepInterleavedTransactions() throws SQLException {
+        try (Connection outer = dataSource.getConnection();
+                Connection inner = dataSource.getConnection()) {
+            outer.setAutoCommit(false);
+            insert(outer, "OUTER");
+            inner.setAutoCommit(false);
+            insert(inner, "INNER");
+
+            assertThatThrownBy(outer::rollback).isInstanceOf(SQLException.class);
+            outer.commit();
+            inner.rollback();
+            inner.setAutoCommit(true);
+            outer.setAutoCommit(true);
+        }
+
+        assertThat(jdbc.queryForList("SELECT sku FROM product WHERE name = 'Savepoint'"))
+                .extracting(row -> row.get("sku"))
+                .containsExactly("OUTER");
+    }
+
+    @Test
+    @Order(4)
+    @DisplayName("Should only hand out the logical connection")
+    void shouldNotExposeSession() throws SQLException {
+        try (Connection c = dataSource.getConnection();
+                Statement s = c.createStatement();
+                ResultSet rs = s.executeQuery("SELECT 1")) {
+            assertThat(s.getConnection()).isSameAs(c);
+            assertThat(rs.getStatement()).isSameAs(s);
+            assertThat(c.getMetaData().getConnection()).isSameAs(c);
+        }
+    }
+
+    @Test
+    @Order(5)
+    @DisplayName("Should not create tables the application can see")
+    void shouldNotCreateVisibleTables() {
+        Integer tables =
+                jdbc.queryForObject(
+                        "SELECT count(*) FROM pg_class WHERE relname LIKE 'dbsandboxer%'",
+                        Integer.class);
+
+        assertThat(tables).isZero();
+    }
+
+    private int products() {
+        return jdbc.queryForObject("SELECT count(*) FROM product", Integer.class);
+    }
+
+    private static void insert(Connection c, String sku) throws SQLException {
+        try (PreparedStatement ps = c.prepareStatement(INSERT_PRODUCT)) {
+            ps.setString(1, sku);
+            ps.executeUpdate();
+        }
+    }
+}